@@ -2,26 +2,42 @@ package ahrd.controller;
 
 import static ahrd.controller.Settings.getSettings;
 import static ahrd.controller.Settings.setSettings;
+import static ahrd.model.ReferenceGoAnnotations.acquireReferenceGoAnnotations;
 import static ahrd.model.ReferenceGoAnnotations.parseReferenceGoAnnotations;
 
 import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.xml.sax.SAXException;
 
 import ahrd.exception.MissingAccessionException;
 import ahrd.exception.MissingInterproResultException;
 import ahrd.exception.MissingProteinException;
+import ahrd.model.BlastDatabaseIndex;
 import ahrd.model.BlastResult;
 import ahrd.model.GOterm;
 import ahrd.model.InterproResult;
 import ahrd.model.Protein;
+import ahrd.model.ReferenceDataRegistry;
+import ahrd.model.ScoringKernel;
+import ahrd.model.SequenceSimilarityTabularSearchResultParser;
+import ahrd.model.SequenceSimilarityTabularSearchResultParser.QueryGroupReader;
 import ahrd.view.FastaOutputWriter;
 import ahrd.view.IOutputWriter;
 import ahrd.view.OutputWriter;
@@ -31,13 +47,29 @@ public class AHRD {
 
 	public static final String VERSION = "3.11";
 
+	/**
+	 * Names of the tasks setting up a run, see <code>setup(boolean)</code>:
+	 */
+	public static final String SETUP_PROTEINS = "initialised proteins";
+	public static final String SETUP_BLAST_RESULTS = "parsed blast results";
+	public static final String SETUP_REFERENCE_GO_ANNOTATIONS = "parsed reference Gene Ontology Annotations (GOA)";
+	public static final String SETUP_INTERPRO_DATABASE = "parsed interpro database";
+	public static final String SETUP_INTERPRO_RESULTS = "parsed interpro results";
+
 	private Map<String, Protein> proteins;
 	private Map<String, Double> descriptionScoreBitScoreWeights = new HashMap<String, Double>();
 	private Map<String, Set<String>> referenceGoAnnotations;
+	private Map<String, InterproResult> interproDb = new HashMap<String, InterproResult>();
 	private Set<String> uniqueBlastResultShortAccessions;
 	private long timestamp;
 	private long memorystamp;
 	private Map<String, GOterm> goDB;
+	private ProteinPipeline pipeline;
+	/**
+	 * The reference datasets this run has acquired from the
+	 * <code>ReferenceDataRegistry</code>.
+	 */
+	private final List<ReferenceDataRegistry.Handle<?>> referenceData = new ArrayList<ReferenceDataRegistry.Handle<?>>();
 
 	protected long takeTime() {
 		// Measure time:
@@ -59,25 +91,7 @@ public class AHRD {
 
 		try {
 			AHRD ahrd = new AHRD(args[0]);
-			// Load and parse all inputs
-			ahrd.setup(true);
-			// After the setup the unique short accessions are no longer needed:
-			ahrd.setUniqueBlastResultShortAccessions(null);
-
-			// Iterate over all Proteins and assign the best scoring Human
-			// Readable Description
-			ahrd.assignHumanReadableDescriptions();
-			// Log
-			System.out.println("...assigned highestest scoring human readable descriptions in " + ahrd.takeTime()
-					+ "sec, currently occupying " + ahrd.takeMemoryUsage() + " MB");
-			// Write result to output-file:
-			System.out.println("Writing output to '" + getSettings().getPathToOutput() + "'.");
-			IOutputWriter ow = initializeOutputWriter(ahrd.getProteins().values());
-			ow.writeOutput();
-			// Log
-			System.out.println("Wrote output in " + ahrd.takeTime() + "sec, currently occupying "
-					+ ahrd.takeMemoryUsage() + " MB");
-			
+			ahrd.run(true);
 			System.out.println("\n\nDONE");
 		} catch (Exception e) {
 			System.err.println("We are sorry, an un-expected ERROR occurred:");
@@ -85,12 +99,74 @@ public class AHRD {
 		}
 	}
 
+	/**
+	 * Loads and parses all inputs, annotates all Proteins and writes the
+	 * output, either streaming by query or not, as requested in this run's
+	 * Settings. Finally releases the reference datasets acquired by the run.
+	 * 
+	 * @param writeLogMsgs
+	 * @throws IOException
+	 * @throws MissingAccessionException
+	 * @throws MissingProteinException
+	 * @throws MissingInterproResultException
+	 * @throws SAXException
+	 * @throws ParsingException
+	 * @throws SQLException
+	 */
+	public void run(boolean writeLogMsgs) throws IOException, MissingAccessionException, MissingProteinException,
+			MissingInterproResultException, SAXException, ParsingException, SQLException {
+		try {
+			runPhases(writeLogMsgs);
+		} finally {
+			releaseReferenceData();
+		}
+	}
+
+	private void runPhases(boolean writeLogMsgs) throws IOException, MissingAccessionException,
+			MissingProteinException, MissingInterproResultException, SAXException, ParsingException, SQLException {
+		if (getSettings().doStreamByQuery()) {
+			// Load and parse all inputs but the sequence similarity search
+			// results:
+			setupStreaming(writeLogMsgs);
+			setUniqueBlastResultShortAccessions(null);
+			// Annotate and write out one Protein at a time:
+			if (writeLogMsgs)
+				System.out.println("Writing output to '" + getSettings().getPathToOutput() + "'.");
+			streamHumanReadableDescriptions(initializeOutputWriter(getProteins().values()));
+			// Log
+			if (writeLogMsgs)
+				System.out.println("...assigned highestest scoring human readable descriptions and wrote output in "
+						+ takeTime() + "sec, currently occupying " + takeMemoryUsage() + " MB");
+		} else {
+			// Load and parse all inputs
+			setup(writeLogMsgs);
+			// After the setup the unique short accessions are no longer
+			// needed:
+			setUniqueBlastResultShortAccessions(null);
+
+			// Iterate over all Proteins, assign the best scoring Human
+			// Readable Description and write it out:
+			if (writeLogMsgs)
+				System.out.println("Writing output to '" + getSettings().getPathToOutput() + "'.");
+			writeHumanReadableDescriptions(initializeOutputWriter(getProteins().values()));
+			// Log
+			if (writeLogMsgs)
+				System.out.println("...assigned highestest scoring human readable descriptions and wrote output in "
+						+ takeTime() + "sec, currently occupying " + takeMemoryUsage() + " MB");
+		}
+		if (writeLogMsgs && getPipeline() != null) {
+			for (ProteinPipeline.Stage stage : getPipeline().getStages())
+				System.out.println("...stage " + stage);
+		}
+	}
+
 	public static IOutputWriter initializeOutputWriter(Collection<Protein> proteins) {
+		Settings settings = getSettings();
 		IOutputWriter ow = null;
-		if (getSettings().doOutputFasta())
-			ow = new FastaOutputWriter(proteins);
+		if (settings.doOutputFasta())
+			ow = new FastaOutputWriter(proteins, settings);
 		else
-			ow = new OutputWriter(proteins);
+			ow = new OutputWriter(proteins, settings);
 		return ow;
 	}
 
@@ -116,12 +192,175 @@ public class AHRD {
 	}
 
 	public void initializeProteins() throws IOException, MissingAccessionException {
-		setProteins(Protein.initializeProteins(getSettings().getProteinsFasta()));
+		ReadableByteChannel fasta = getSettings().getProteinsFastaChannel();
+		try {
+			setProteins(Protein.initializeProteins(fasta, getSettings()));
+		} finally {
+			fasta.close();
+		}
 	}
 
+	/**
+	 * Parses the sequence similarity search results and the respective
+	 * Blast-Databases. All Blast-Databases are processed concurrently on a
+	 * single fork join pool of <code>Settings.getNumberOfThreads()</code>
+	 * threads, which also parses the chunks of large tables, see
+	 * <code>SequenceSimilarityTabularSearchResultParser.parse(Set, int)</code>.
+	 * Afterwards
+	 * the scores needed to calculate the Token-Scores are measured for each
+	 * Protein, in the same order regardless of the threads' interleaving.
+	 * Accessions not matching the short accession regular expressions are
+	 * reported once all results have been parsed.
+	 * 
+	 * @throws IOException
+	 * @throws MissingProteinException
+	 * @throws SAXException
+	 */
 	public void parseBlastResults() throws IOException, MissingProteinException, SAXException {
-		for (String blastDatabase : getSettings().getBlastDatabases()) {
-			BlastResult.readBlastResults(getProteins(), blastDatabase, getUniqueBlastResultShortAccessions());
+		final Settings settings = getSettings();
+		List<String> blastDatabases = new ArrayList<String>(settings.getBlastDatabases());
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, settings.getNumberOfThreads()));
+		try {
+			List<Future<Set<String>>> tasks = new ArrayList<Future<Set<String>>>();
+			for (final String blastDatabase : blastDatabases) {
+				tasks.add(pool.submit(new Callable<Set<String>>() {
+					@Override
+					public Set<String> call() throws Exception {
+						setSettings(settings);
+						Set<String> uniqueShortAccessions = new HashSet<String>();
+						BlastResult.readBlastResults(getProteins(), blastDatabase, uniqueShortAccessions);
+						return uniqueShortAccessions;
+					}
+				}));
+			}
+			for (Future<Set<String>> task : tasks) {
+				Set<String> uniqueShortAccessions = getTaskResult(task);
+				if (getUniqueBlastResultShortAccessions() != null)
+					getUniqueBlastResultShortAccessions().addAll(uniqueShortAccessions);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		settings.reportShortAccessionMisses();
+		measureScores(getProteins().values());
+	}
+
+	/**
+	 * Invokes <code>Protein.measureScores()</code>, i.e. measures the scores
+	 * of the kept BlastResults, for each argument Protein, see
+	 * <code>forEachProtein(Collection, ProteinTask)</code>.
+	 * 
+	 * @throws IOException
+	 */
+	public void measureScores(Collection<Protein> prots) throws IOException {
+		try {
+			forEachProtein(prots, new ProteinTask() {
+				@Override
+				public void process(Protein prot) {
+					prot.measureScores();
+				}
+			});
+		} catch (MissingInterproResultException | SQLException e) {
+			// Not thrown when measuring scores:
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Work done to a single Protein, touching no other Protein's state and
+	 * reading the configuration from the Protein's Settings.
+	 */
+	public interface ProteinTask {
+		void process(Protein prot) throws MissingInterproResultException, IOException, SQLException;
+	}
+
+	/**
+	 * Applies the argument task to each argument Protein. The Proteins are
+	 * split into as many parts as threads are allowed, see
+	 * <code>Settings.getNumberOfThreads()</code>, which are processed
+	 * concurrently. The task must read the configuration from the Protein's
+	 * Settings, see <code>Protein.getSettings()</code>, as the worker threads
+	 * have no thread-local Settings. With a single thread the Proteins are
+	 * processed one after the other in the calling thread.
+	 * 
+	 * @throws MissingInterproResultException
+	 * @throws IOException
+	 * @throws SQLException
+	 */
+	protected void forEachProtein(Collection<Protein> prots, final ProteinTask task)
+			throws MissingInterproResultException, IOException, SQLException {
+		int noThreads = Math.max(1, Math.min(getSettings().getNumberOfThreads(), prots.size()));
+		if (noThreads == 1) {
+			for (Protein prot : prots)
+				task.process(prot);
+			return;
+		}
+		final List<Protein> protList = new ArrayList<Protein>(prots);
+		ExecutorService pool = Executors.newFixedThreadPool(noThreads);
+		try {
+			List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+			int partSize = (protList.size() + noThreads - 1) / noThreads;
+			for (int start = 0; start < protList.size(); start += partSize) {
+				final List<Protein> part = protList.subList(start, Math.min(protList.size(), start + partSize));
+				tasks.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for (Protein prot : part)
+							task.process(prot);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> part : tasks) {
+				try {
+					part.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for a task to finish.", e);
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof MissingInterproResultException)
+						throw (MissingInterproResultException) cause;
+					if (cause instanceof SQLException)
+						throw (SQLException) cause;
+					if (cause instanceof IOException)
+						throw (IOException) cause;
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException) cause;
+					if (cause instanceof Error)
+						throw (Error) cause;
+					throw new IOException(cause);
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Waits for the argument task, e.g. processing a Blast-Database, to finish
+	 * and passes on any exception thrown while doing so.
+	 */
+	private static <T> T getTaskResult(Future<T> task) throws IOException, MissingProteinException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a task to finish.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			// Fork join pools wrap checked exceptions into RuntimeExceptions:
+			for (Throwable t = cause; t != null; t = t.getCause()) {
+				if (t instanceof MissingProteinException)
+					throw (MissingProteinException) t;
+				if (t instanceof IOException)
+					throw (IOException) t;
+			}
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
 		}
 	}
 
@@ -129,7 +368,7 @@ public class AHRD {
 		if (getSettings().hasInterproAnnotations()) {
 			Set<String> missingProteinAccessions = new HashSet<String>();
 			try {
-				InterproResult.parseInterproResult(proteins);
+				InterproResult.parseInterproResult(proteins, getInterproDb());
 			} catch (MissingProteinException mpe) {
 				missingProteinAccessions.add(mpe.getMessage());
 			}
@@ -150,14 +389,59 @@ public class AHRD {
 	 */
 	public void setUpReferenceGoAnnotations() throws IOException {
 		if (getSettings().hasGeneOntologyAnnotations()) {
-			setReferenceGoAnnotations(parseReferenceGoAnnotations(getUniqueBlastResultShortAccessions()));
+			if (getSettings().doShareReferenceData()) {
+				ReferenceDataRegistry.Handle<Map<String, Set<String>>> goa = acquireReferenceGoAnnotations();
+				addReferenceData(goa);
+				setReferenceGoAnnotations(goa.get());
+			} else {
+				setReferenceGoAnnotations(parseReferenceGoAnnotations(getUniqueBlastResultShortAccessions()));
+			}
+		}
+	}
+
+	/**
+	 * Acquires the Interpro-Database for this run, see
+	 * <code>InterproResult.initialiseInterproDb()</code>.
+	 * 
+	 * @throws IOException
+	 * @throws ParsingException
+	 */
+	public void setUpInterproDb() throws IOException, ParsingException {
+		ReferenceDataRegistry.Handle<Map<String, InterproResult>> handle = InterproResult.initialiseInterproDb();
+		addReferenceData(handle);
+		setInterproDb(handle.get());
+	}
+
+	/**
+	 * Keeps the argument reference dataset referenced until
+	 * <code>releaseReferenceData()</code> is invoked.
+	 * 
+	 * @param handle
+	 */
+	protected void addReferenceData(ReferenceDataRegistry.Handle<?> handle) {
+		synchronized (referenceData) {
+			referenceData.add(handle);
+		}
+	}
+
+	/**
+	 * Releases all reference datasets this run has acquired from the
+	 * <code>ReferenceDataRegistry</code>. Invoked at the end of
+	 * <code>run(boolean)</code>.
+	 */
+	public void releaseReferenceData() {
+		synchronized (referenceData) {
+			for (ReferenceDataRegistry.Handle<?> handle : referenceData)
+				handle.release();
+			referenceData.clear();
 		}
 	}
 
 	public void filterBestScoringBlastResults(Protein prot) {
 		for (String blastDatabaseName : prot.getBlastResults().keySet()) {
 			prot.getBlastResults().put(blastDatabaseName,
-					BlastResult.filterBestScoringBlastResults(prot.getBlastResults().get(blastDatabaseName), 200));
+					BlastResult.filterBestScoringBlastResults(prot.getBlastResults().get(blastDatabaseName),
+							prot.getSettings().getMaxBlastResultsPerDatabase()));
 		}
 	}
 
@@ -165,6 +449,11 @@ public class AHRD {
 	 * Method initializes the AHRD-run: 1. Loads Proteins 2. Parses BlastResults
 	 * 3. Parses InterproResults 4. Parses Gene-Ontology-Results
 	 * 
+	 * Inputs not depending on each other are loaded concurrently, see
+	 * <code>runSetupTasks(TaskGraph, boolean)</code>: The Interpro-Database is
+	 * parsed while the Proteins and BlastResults are read, and, if shared
+	 * with other runs, the reference Gene-Ontology-Annotations as well.
+	 * 
 	 * @throws IOException
 	 * @throws MissingAccessionException
 	 * @throws MissingProteinException
@@ -176,72 +465,378 @@ public class AHRD {
 		if (writeLogMsgs)
 			System.out.println("Started AHRD...\n");
 
-		takeTime();
-
-		initializeProteins();
-		if (writeLogMsgs)
-			System.out.println("...initialised proteins in " + takeTime() + "sec, currently occupying "
-					+ takeMemoryUsage() + " MB");
-
+		TaskGraph setup = new TaskGraph();
+		setup.add(SETUP_PROTEINS, new TaskGraph.Task() {
+			@Override
+			public void run() throws Exception {
+				initializeProteins();
+			}
+		});
 		// multiple blast-results against different Blast-Databases
-		parseBlastResults();
-		if (writeLogMsgs)
-			System.out.println("...parsed blast results in " + takeTime() + "sec, currently occupying "
-					+ takeMemoryUsage() + " MB");
-
+		setup.add(SETUP_BLAST_RESULTS, new TaskGraph.Task() {
+			@Override
+			public void run() throws Exception {
+				parseBlastResults();
+			}
+		}, SETUP_PROTEINS);
 		// Reference GO Annotations (for Proteins in the searched Blast
 		// Databases)
-		setUpReferenceGoAnnotations();
-		if (writeLogMsgs) {
-			System.out.println("...parsed reference Gene Ontology Annotations (GOA) in " + takeTime()
-					+ "sec, currently occupying " + takeMemoryUsage() + " MB");
+		if (getSettings().hasGeneOntologyAnnotations()) {
+			setup.add(SETUP_REFERENCE_GO_ANNOTATIONS, new TaskGraph.Task() {
+				@Override
+				public void run() throws Exception {
+					setUpReferenceGoAnnotations();
+				}
+			}, getSettings().doShareReferenceData() ? new String[0] : new String[] { SETUP_BLAST_RESULTS });
+		}
+		addInterproSetupTasks(setup);
+		runSetupTasks(setup, writeLogMsgs);
+	}
+
+	/**
+	 * Method initializes a streaming AHRD-run, see
+	 * <code>streamHumanReadableDescriptions</code>: 1. Loads Proteins 2. If
+	 * requested, collects the Hits' short accessions and parses the reference
+	 * Gene-Ontology-Annotations 3. Parses InterproResults
+	 * 
+	 * Just as in <code>setup(boolean)</code> inputs not depending on each
+	 * other are loaded concurrently.
+	 * 
+	 * @throws IOException
+	 * @throws MissingAccessionException
+	 * @throws MissingProteinException
+	 * @throws ParsingException
+	 */
+	public void setupStreaming(boolean writeLogMsgs)
+			throws IOException, MissingAccessionException, MissingProteinException, ParsingException {
+		if (writeLogMsgs)
+			System.out.println("Started AHRD, streaming by query...\n");
+
+		TaskGraph setup = new TaskGraph();
+		setup.add(SETUP_PROTEINS, new TaskGraph.Task() {
+			@Override
+			public void run() throws Exception {
+				initializeProteins();
+			}
+		});
+		if (getSettings().hasGeneOntologyAnnotations()) {
+			if (getSettings().doShareReferenceData()) {
+				// All reference GO Annotations are kept, hence the Hits'
+				// short accessions are not needed:
+				setup.add(SETUP_REFERENCE_GO_ANNOTATIONS, new TaskGraph.Task() {
+					@Override
+					public void run() throws Exception {
+						setUpReferenceGoAnnotations();
+					}
+				});
+			} else {
+				setup.add(SETUP_REFERENCE_GO_ANNOTATIONS, new TaskGraph.Task() {
+					@Override
+					public void run() throws Exception {
+						collectUniqueBlastResultShortAccessions();
+						setUpReferenceGoAnnotations();
+					}
+				}, SETUP_PROTEINS);
+			}
 		}
+		addInterproSetupTasks(setup);
+		try {
+			runSetupTasks(setup, writeLogMsgs);
+		} catch (SAXException e) {
+			// Not thrown, as no Blast-Database is read:
+			throw new IOException(e);
+		}
+	}
 
+	/**
+	 * If requested, adds the tasks parsing the Interpro-Database and the
+	 * InterproResults to the argument setup. Parsing the Interpro-Database
+	 * depends on no other task.
+	 * 
+	 * @param setup
+	 */
+	private void addInterproSetupTasks(TaskGraph setup) {
 		// one single InterproResult-File
 		if (getSettings().hasValidInterproDatabaseAndResultFile()) {
-			InterproResult.initialiseInterproDb();
-			parseInterproResult();
-			if (writeLogMsgs)
-				System.out.println("...parsed interpro results in " + takeTime() + "sec, currently occupying "
-						+ takeMemoryUsage() + " MB");
+			setup.add(SETUP_INTERPRO_DATABASE, new TaskGraph.Task() {
+				@Override
+				public void run() throws Exception {
+					setUpInterproDb();
+				}
+			});
+			setup.add(SETUP_INTERPRO_RESULTS, new TaskGraph.Task() {
+				@Override
+				public void run() throws Exception {
+					parseInterproResult();
+				}
+			}, SETUP_PROTEINS, SETUP_INTERPRO_DATABASE);
+		}
+	}
+
+	/**
+	 * Runs the argument setup tasks using at most
+	 * <code>Settings.getNumberOfThreads()</code> threads to run independent
+	 * tasks concurrently, and passes on any exception thrown by them. If
+	 * requested, logs the time each task has taken.
+	 * 
+	 * @param setup
+	 * @param writeLogMsgs
+	 */
+	protected void runSetupTasks(TaskGraph setup, boolean writeLogMsgs) throws IOException,
+			MissingAccessionException, MissingProteinException, SAXException, ParsingException {
+		takeTime();
+		try {
+			setup.run(getSettings().getNumberOfThreads());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the setup to finish.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof MissingAccessionException)
+				throw (MissingAccessionException) cause;
+			if (cause instanceof MissingProteinException)
+				throw (MissingProteinException) cause;
+			if (cause instanceof SAXException)
+				throw (SAXException) cause;
+			if (cause instanceof ParsingException)
+				throw (ParsingException) cause;
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+		if (writeLogMsgs) {
+			for (String task : setup.getNames())
+				System.out.println("..." + task + " in " + Math.round(setup.getSeconds(task)) + "sec");
+			System.out.println("...set up in " + takeTime() + "sec, currently occupying " + takeMemoryUsage()
+					+ " MB");
+		}
+	}
+
+	/**
+	 * Reads through all sequence similarity search result tables only to
+	 * collect the Hits' short accessions, so that the reference
+	 * Gene-Ontology-Annotations can be parsed before any Protein is annotated.
+	 * Accessions not matching the short accession regular expressions are
+	 * reported once all tables have been read.
+	 * 
+	 * @throws IOException
+	 * @throws MissingProteinException
+	 */
+	public void collectUniqueBlastResultShortAccessions() throws IOException, MissingProteinException {
+		for (String blastDatabase : getSettings().getSortedBlastDatabases()) {
+			QueryGroupReader table = new SequenceSimilarityTabularSearchResultParser(getProteins(), blastDatabase)
+					.openQueryGroupReader();
+			try {
+				while (table.peekQuery() != null)
+					table.next(getUniqueBlastResultShortAccessions());
+			} finally {
+				table.close();
+			}
+		}
+		getSettings().reportShortAccessionMisses();
+	}
+
+	/**
+	 * Assigns each Protein its Human Readable Description, just as
+	 * <code>assignHumanReadableDescriptions</code>, and writes them out. With
+	 * more than a single thread the Proteins flow through a
+	 * <code>ProteinPipeline</code>, so that the output is formatted and
+	 * written while further Proteins are scored.
+	 * 
+	 * @param ow
+	 *            - Opened, written to and closed by this method
+	 * @throws IOException
+	 * @throws MissingInterproResultException
+	 * @throws SQLException
+	 */
+	public void writeHumanReadableDescriptions(IOutputWriter ow)
+			throws IOException, MissingInterproResultException, SQLException {
+		this.pipeline = null;
+		if (getSettings().getNumberOfThreads() <= 1) {
+			assignHumanReadableDescriptions();
+			ow.writeOutput();
+			return;
+		}
+		ow.writeHeader();
+		startPipeline(new ProteinTask() {
+			@Override
+			public void process(Protein prot) throws MissingInterproResultException, IOException, SQLException {
+				assignHumanReadableDescription(prot);
+			}
+		}, ow);
+		try {
+			for (Protein prot : getProteins().values())
+				getPipeline().put(prot);
+			getPipeline().finish();
+		} finally {
+			getPipeline().abort();
+		}
+	}
+
+	/**
+	 * Starts a new <code>ProteinPipeline</code> with
+	 * <code>Settings.getNumberOfThreads()</code> scoring threads, see
+	 * <code>getPipeline()</code>.
+	 */
+	private void startPipeline(ProteinTask scoringTask, IOutputWriter ow) {
+		this.pipeline = new ProteinPipeline(getSettings().getNumberOfThreads(), scoringTask, ow);
+	}
+
+	/**
+	 * @return ProteinPipeline - The pipeline this run's Proteins have last
+	 *         been annotated and written out with, or NULL if they have been
+	 *         processed sequentially.
+	 */
+	public ProteinPipeline getPipeline() {
+		return pipeline;
+	}
+
+	/**
+	 * Reads the sequence similarity search result tables of all
+	 * Blast-Databases in lockstep, one query Protein at a time, in the order of
+	 * the query FASTA file. As soon as all Hits of a Protein have been read,
+	 * it is annotated just as in <code>assignHumanReadableDescriptions</code>,
+	 * written out and released. Hence only the Hits of a single Protein are
+	 * held in memory. This requires the tables to be grouped by query in the
+	 * order of the query FASTA file and all Blast-Databases to be indexed, see
+	 * <code>BlastDatabaseIndex</code>.
+	 * 
+	 * @param ow
+	 *            - Opened, written to and closed by this method
+	 * @throws IOException
+	 * @throws MissingProteinException
+	 * @throws MissingInterproResultException
+	 * @throws SQLException
+	 */
+	public void streamHumanReadableDescriptions(IOutputWriter ow)
+			throws IOException, MissingProteinException, MissingInterproResultException, SQLException {
+		List<String> blastDatabases = getSettings().getSortedBlastDatabases();
+		Map<String, BlastDatabaseIndex> indexes = new HashMap<String, BlastDatabaseIndex>();
+		Map<String, QueryGroupReader> tables = new HashMap<String, QueryGroupReader>();
+		this.pipeline = null;
+		try {
+			for (String blastDatabase : blastDatabases) {
+				BlastDatabaseIndex index = BlastDatabaseIndex.open(
+						getSettings().getPathToBlastDatabase(blastDatabase),
+						getSettings().getFastaHeaderRegex(blastDatabase));
+				if (index == null)
+					throw new IOException("Streaming by query requires an up to date index of Blast-Database '"
+							+ blastDatabase + "'. Please build it with ahrd.controller.BlastDatabaseIndexer.");
+				indexes.put(blastDatabase, index);
+				tables.put(blastDatabase, new SequenceSimilarityTabularSearchResultParser(getProteins(), blastDatabase)
+						.openQueryGroupReader());
+			}
+			ow.writeHeader();
+			// With more than a single thread, read the next Proteins' Hits
+			// while the previous ones are scored and written:
+			if (getSettings().getNumberOfThreads() > 1)
+				startPipeline(new ProteinTask() {
+					@Override
+					public void process(Protein prot)
+							throws MissingInterproResultException, IOException, SQLException {
+						prot.measureScores();
+						assignHumanReadableDescription(prot);
+					}
+				}, ow);
+			ProteinPipeline pipeline = getPipeline();
+			for (Iterator<Protein> i = getProteins().values().iterator(); i.hasNext();) {
+				Protein prot = i.next();
+				for (String blastDatabase : blastDatabases) {
+					QueryGroupReader table = tables.get(blastDatabase);
+					// Proteins that precede the current one have already been
+					// released:
+					if (table.peekQuery() != null && !getProteins().containsKey(table.peekQuery()))
+						throw new MissingProteinException("Hits of Protein '" + table.peekQuery()
+								+ "' in the results of Blast-Database '" + blastDatabase
+								+ "' are either not grouped, not in the order of the query FASTA file, or the Protein is missing in the Protein Database.");
+					if (prot.getAccession().equals(table.peekQuery()))
+						BlastResult.parseBlastDatabase(indexes.get(blastDatabase),
+								table.next(new HashSet<String>()));
+				}
+				if (pipeline != null) {
+					pipeline.put(prot);
+				} else {
+					prot.measureScores();
+					assignHumanReadableDescription(prot);
+					ow.writeProtein(prot);
+				}
+				// Release the Protein and its BlastResults, once written:
+				i.remove();
+			}
+			for (String blastDatabase : blastDatabases) {
+				if (tables.get(blastDatabase).peekQuery() != null)
+					throw new MissingProteinException("Hits of Protein '" + tables.get(blastDatabase).peekQuery()
+							+ "' in the results of Blast-Database '" + blastDatabase
+							+ "' are either not grouped, not in the order of the query FASTA file, or the Protein is missing in the Protein Database.");
+			}
+			if (pipeline != null)
+				pipeline.finish();
+			else
+				ow.close();
+			getSettings().reportShortAccessionMisses();
+		} finally {
+			if (getPipeline() != null)
+				getPipeline().abort();
+			for (QueryGroupReader table : tables.values())
+				table.close();
+			for (BlastDatabaseIndex index : indexes.values())
+				index.close();
 		}
 	}
 
 	/**
-	 * Assign a HumanReadableDescription to each Protein
+	 * Assign a HumanReadableDescription to each Protein. As each Protein is
+	 * annotated independently of all others, the Proteins are processed
+	 * concurrently, see <code>forEachProtein(Collection, ProteinTask)</code>.
+	 * The results are the same as those of annotating one Protein after the
+	 * other.
 	 * 
 	 * @throws MissingInterproResultException
 	 * @throws IOException
 	 * @throws SQLException
 	 */
 	public void assignHumanReadableDescriptions() throws MissingInterproResultException, IOException, SQLException {
-		for (String protAcc : getProteins().keySet()) {
-			Protein prot = getProteins().get(protAcc);
-			// Find best scoring Blast-Hit's Description-Line (based on
-			// evalue):
-			filterBestScoringBlastResults(prot);
-			// Tokenize each BlastResult's Description-Line and
-			// assign the Tokens their Scores:
-			// tokenizeBlastResultDescriptionLines(prot);
-			prot.getTokenScoreCalculator().assignTokenScores();
-			// Tell informative from non-informative Tokens.
-			// Assign each non-informative a new Score :=
-			// currentScore - (Token-High-Score / 2)
-			prot.getTokenScoreCalculator().filterTokenScores();
-			// Find the highest scoring Blast-Result:
-			prot.getDescriptionScoreCalculator().findHighestScoringBlastResult(this.getReferenceGoAnnotations());
-			// If AHRD is requested to annotate Gene Ontology Terms, do so:
-			if (getSettings().hasGeneOntologyAnnotations()
-					&& prot.getDescriptionScoreCalculator().getHighestScoringBlastResult() != null
-					&& getReferenceGoAnnotations().containsKey(
-							prot.getDescriptionScoreCalculator().getHighestScoringBlastResult().getShortAccession())) {
-				prot.setGoResults(getReferenceGoAnnotations()
-						.get(prot.getDescriptionScoreCalculator().getHighestScoringBlastResult().getShortAccession()));
+		forEachProtein(getProteins().values(), new ProteinTask() {
+			@Override
+			public void process(Protein prot) throws MissingInterproResultException, IOException, SQLException {
+				assignHumanReadableDescription(prot);
 			}
-			// filter for each protein's most-informative
-			// interpro-results
-			InterproResult.filterForMostInforming(prot);
-		}		
+		});
+	}
+
+	/**
+	 * Assign a HumanReadableDescription to the argument Protein, whose
+	 * BlastResults have all been added and whose scores have been measured.
+	 * 
+	 * @throws MissingInterproResultException
+	 * @throws IOException
+	 * @throws SQLException
+	 */
+	public void assignHumanReadableDescription(Protein prot)
+			throws MissingInterproResultException, IOException, SQLException {
+		// Find best scoring Blast-Hit's Description-Line (based on
+		// evalue):
+		filterBestScoringBlastResults(prot);
+		// Assign the Tokens their Scores, tell informative from
+		// non-informative Tokens, assigning each non-informative a new Score
+		// := currentScore - (Token-High-Score / 2), and find the highest
+		// scoring Blast-Result:
+		new ScoringKernel(prot).score(this.getReferenceGoAnnotations());
+		// If AHRD is requested to annotate Gene Ontology Terms, do so:
+		if (prot.getSettings().hasGeneOntologyAnnotations()
+				&& prot.getDescriptionScoreCalculator().getHighestScoringBlastResult() != null
+				&& getReferenceGoAnnotations().containsKey(
+						prot.getDescriptionScoreCalculator().getHighestScoringBlastResult().getShortAccession())) {
+			prot.setGoResults(getReferenceGoAnnotations()
+					.get(prot.getDescriptionScoreCalculator().getHighestScoringBlastResult().getShortAccession()));
+		}
+		// filter for each protein's most-informative
+		// interpro-results
+		InterproResult.filterForMostInforming(prot, getInterproDb());
 	}
 
 	public Map<String, Protein> getProteins() {
@@ -260,6 +855,14 @@ public class AHRD {
 		this.descriptionScoreBitScoreWeights = descriptionScoreBitScoreWeights;
 	}
 
+	public Map<String, InterproResult> getInterproDb() {
+		return interproDb;
+	}
+
+	public void setInterproDb(Map<String, InterproResult> interproDb) {
+		this.interproDb = interproDb;
+	}
+
 	public Map<String, Set<String>> getReferenceGoAnnotations() {
 		return referenceGoAnnotations;
 	}
@@ -9,14 +9,22 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import com.esotericsoftware.yamlbeans.YamlException;
 import com.esotericsoftware.yamlbeans.YamlReader;
 import com.esotericsoftware.yamlbeans.YamlWriter;
 
+import ahrd.model.ReferenceDataRegistry;
+
 public class Batcher {
 
 	public static final String AHRD_CALL_KEY = "ahrd_call";
@@ -35,6 +43,8 @@ public class Batcher {
 	public static final String SHELL_SCRIPT_KEY = "shell_script";
 	public static final String PATH_TO_BATCH_YML_KEY = "path_to_batch_yml";
 	public static final String BATCH_NAME_KEY = "batch_name";
+	public static final String RUN_BATCHES_KEY = "run_batches";
+	public static final String PARALLEL_BATCHES_KEY = "parallel_batches";
 
 	/**
 	 * Batch-Names e.g. 'batch1' are expected to be just the part of a file-name
@@ -65,9 +75,15 @@ public class Batcher {
 
 	private Map<String, Object> input;
 	private List<Map<String, Object>> output = new ArrayList<Map<String, Object>>();
+	/**
+	 * Batch-Names (keys) and the paths to their AHRD-Input-YMLs (values) in
+	 * the order they were written by <code>writeOutput()</code>.
+	 */
+	private Map<String, String> batchYmls = new LinkedHashMap<String, String>();
 
 	@SuppressWarnings("unchecked")
-	public static void main(String[] args) throws YamlException, IOException {
+	public static void main(String[] args) throws YamlException, IOException,
+			InterruptedException {
 		YamlReader reader = new YamlReader(new FileReader(args[0]));
 		Batcher batcher = new Batcher((Map<String, Object>) reader.read());
 		batcher.batch();
@@ -80,6 +96,18 @@ public class Batcher {
 		System.out
 				.println("Created shell-script to start AHRD on all Batches in parallel: '"
 						+ batcher.getInput().get(SHELL_SCRIPT_KEY) + "'.");
+		if (batcher.doRunBatches()) {
+			System.out.println("Running AHRD on " + batcher.getBatchYmls().size() + " Batches, "
+					+ batcher.getParallelBatches() + " at a time.");
+			List<String> failedBatches = batcher.runBatches();
+			if (failedBatches.isEmpty()) {
+				System.out.println("\n\nDONE");
+			} else {
+				System.err.println(failedBatches.size() + " of " + batcher.getBatchYmls().size()
+						+ " Batches FAILED: " + failedBatches);
+				System.exit(1);
+			}
+		}
 	}
 
 	public Batcher(Map<String, Object> input) {
@@ -145,6 +173,19 @@ public class Batcher {
 			batchYml.put(Settings.F_MEASURE_BETA_PARAM_KEY,
 					getInput().get(Settings.F_MEASURE_BETA_PARAM_KEY));
 		}
+		// Pass on the number of threads each Batch may use, if given.
+		// Otherwise the Batches run at the same time by runBatches() share
+		// the available processors:
+		if (getInput().get(Settings.NUMBER_OF_THREADS_KEY) != null)
+			batchYml.put(Settings.NUMBER_OF_THREADS_KEY,
+					getInput().get(Settings.NUMBER_OF_THREADS_KEY));
+		else if (doRunBatches())
+			batchYml.put(Settings.NUMBER_OF_THREADS_KEY, Math.max(1,
+					Runtime.getRuntime().availableProcessors() / getParallelBatches()));
+		// Share the reference data between Batches run within the same JVM?
+		if (getInput().get(Settings.SHARE_REFERENCE_DATA_KEY) != null)
+			batchYml.put(Settings.SHARE_REFERENCE_DATA_KEY,
+					getInput().get(Settings.SHARE_REFERENCE_DATA_KEY));
 		// Output as Fasta?
 		if (Boolean.parseBoolean((String) getInput().get(
 				Settings.OUTPUT_FASTA_KEY)))
@@ -341,6 +382,7 @@ public class Batcher {
 			YamlWriter writer = new YamlWriter(new FileWriter(pathToBatchYml));
 			writer.write(batchYml);
 			writer.close();
+			getBatchYmls().put(batchName, pathToBatchYml);
 			// generate and store Shell-Script-Commands:
 			shellScriptBw.write(generateAhrdCall(pathToBatchYml, batchName)
 					+ "\n");
@@ -350,6 +392,72 @@ public class Batcher {
 		shellScriptBw.close();
 	}
 
+	/**
+	 * @return boolean - TRUE if and only if the Batcher is requested to run
+	 *         AHRD on all Batches itself, see <code>runBatches()</code>.
+	 */
+	public boolean doRunBatches() {
+		return getInput().get(RUN_BATCHES_KEY) != null
+				&& Boolean.parseBoolean(getInput().get(RUN_BATCHES_KEY).toString());
+	}
+
+	/**
+	 * @return int - The maximum number of Batches run at the same time by
+	 *         <code>runBatches()</code>, default is the number of available
+	 *         processors.
+	 */
+	public int getParallelBatches() {
+		if (getInput().get(PARALLEL_BATCHES_KEY) != null)
+			return Math.max(1, Integer.parseInt(getInput().get(PARALLEL_BATCHES_KEY).toString()));
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Runs AHRD on all Batches written by <code>writeOutput()</code> within
+	 * this JVM instead of starting a separate process per Batch. At most
+	 * <code>getParallelBatches()</code> Batches are run at the same time, each
+	 * with its own Settings. Read-only reference data, e.g. the
+	 * Interpro-Database, is acquired from the <code>ReferenceDataRegistry</code>
+	 * and thus parsed once and shared by all Batches. Once all Batches are
+	 * done, it is evicted from the registry. A failing Batch is reported and
+	 * does not affect any other Batch.
+	 * 
+	 * @return List<String> - The names of the Batches that failed, in the
+	 *         order they were written.
+	 * @throws InterruptedException
+	 */
+	public List<String> runBatches() throws InterruptedException {
+		List<String> failedBatches = new ArrayList<String>();
+		if (getBatchYmls().isEmpty())
+			return failedBatches;
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(getParallelBatches(), getBatchYmls().size()));
+		try {
+			Map<String, Future<Void>> batches = new LinkedHashMap<String, Future<Void>>();
+			for (final Map.Entry<String, String> batchYml : getBatchYmls().entrySet()) {
+				batches.put(batchYml.getKey(), pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						new AHRD(batchYml.getValue()).run(false);
+						return null;
+					}
+				}));
+			}
+			for (Map.Entry<String, Future<Void>> batch : batches.entrySet()) {
+				try {
+					batch.getValue().get();
+				} catch (ExecutionException e) {
+					failedBatches.add(batch.getKey());
+					System.err.println("Batch '" + batch.getKey() + "' FAILED:");
+					e.getCause().printStackTrace(System.err);
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+			ReferenceDataRegistry.getRegistry().evictUnused();
+		}
+		return failedBatches;
+	}
+
 	public String appendSlashIfNotPresent(String inDirPath) {
 		if (!inDirPath.endsWith("/"))
 			inDirPath += "/";
@@ -394,4 +502,8 @@ public class Batcher {
 		this.output = output;
 	}
 
+	public Map<String, String> getBatchYmls() {
+		return batchYmls;
+	}
+
 }
@@ -0,0 +1,225 @@
+package ahrd.controller;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses BGZF (blocked gzip, as written by bgzip or samtools) input.
+ * BGZF files are a series of gzip members of at most 64 KB each, every one of
+ * which carries its compressed size in the 'BC' extra field. Hence the blocks
+ * are read sequentially, but inflated independently and in parallel. The
+ * decompressed blocks are returned in the order of the input.
+ *
+ * @author hallab
+ */
+public class BgzfInputStream extends InputStream {
+
+	/**
+	 * Size of a gzip member's header without the extra field.
+	 */
+	private static final int FIXED_HEADER_SIZE = 12;
+	/**
+	 * Each thread has at most this many blocks to inflate at a time.
+	 */
+	private static final int BLOCKS_IN_FLIGHT_PER_THREAD = 4;
+
+	private final InputStream in;
+	private final ExecutorService inflaters;
+	private final int maxBlocksInFlight;
+	private final Deque<Future<byte[]>> blocks = new ArrayDeque<Future<byte[]>>();
+	private boolean endOfInput = false;
+	private byte[] current = new byte[0];
+	private int position = 0;
+
+	/**
+	 * @param in
+	 *            - the BGZF compressed input
+	 * @param numberOfThreads
+	 *            - the number of threads inflating blocks in parallel
+	 */
+	public BgzfInputStream(InputStream in, int numberOfThreads) {
+		super();
+		this.in = in;
+		int threads = Math.max(1, numberOfThreads);
+		this.maxBlocksInFlight = threads * BLOCKS_IN_FLIGHT_PER_THREAD;
+		this.inflaters = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "bgzf-inflater");
+				// Do not keep the JVM alive, if a stream is not closed:
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	@Override
+	public int read() throws IOException {
+		while (position == current.length) {
+			if (!nextBlock())
+				return -1;
+		}
+		return current[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		while (position == current.length) {
+			if (!nextBlock())
+				return -1;
+		}
+		int n = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return current.length - position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		inflaters.shutdownNow();
+		in.close();
+	}
+
+	/**
+	 * Makes the next decompressed block the current one.
+	 *
+	 * @return boolean - FALSE if and only if the end of the input has been
+	 *         reached
+	 * @throws IOException
+	 */
+	private boolean nextBlock() throws IOException {
+		while (!endOfInput && blocks.size() < maxBlocksInFlight) {
+			final byte[] block = readBlock();
+			if (block == null) {
+				endOfInput = true;
+			} else {
+				blocks.add(inflaters.submit(new Callable<byte[]>() {
+					@Override
+					public byte[] call() throws Exception {
+						return inflate(block);
+					}
+				}));
+			}
+		}
+		if (blocks.isEmpty())
+			return false;
+		try {
+			current = blocks.poll().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while decompressing BGZF input.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+		position = 0;
+		return true;
+	}
+
+	/**
+	 * Reads the next gzip member, i.e. BGZF block.
+	 *
+	 * @return byte[] - The block's compressed data followed by its CRC32 and
+	 *         uncompressed size, or NULL at the end of the input.
+	 * @throws IOException
+	 */
+	private byte[] readBlock() throws IOException {
+		byte[] header = new byte[FIXED_HEADER_SIZE];
+		int read = readFully(header, 0, header.length);
+		if (read == 0)
+			return null;
+		if (read < header.length)
+			throw new EOFException("Truncated BGZF block header.");
+		if ((header[0] & 0xFF) != 0x1f || (header[1] & 0xFF) != 0x8b || header[2] != 8 || (header[3] & 4) == 0)
+			throw new IOException("Input is not in BGZF format.");
+		int extraLength = littleEndianShort(header, 10);
+		byte[] extra = new byte[extraLength];
+		if (readFully(extra, 0, extraLength) < extraLength)
+			throw new EOFException("Truncated BGZF block header.");
+		int blockSize = -1;
+		for (int i = 0; i + 4 <= extraLength; i += 4 + littleEndianShort(extra, i + 2)) {
+			if (extra[i] == 'B' && extra[i + 1] == 'C' && littleEndianShort(extra, i + 2) == 2)
+				blockSize = littleEndianShort(extra, i + 4) + 1;
+		}
+		if (blockSize < 0)
+			throw new IOException("gzip member lacks the BGZF block size. Input is not in BGZF format.");
+		byte[] block = new byte[blockSize - FIXED_HEADER_SIZE - extraLength];
+		if (block.length < 8 || readFully(block, 0, block.length) < block.length)
+			throw new EOFException("Truncated BGZF block.");
+		return block;
+	}
+
+	private int readFully(byte[] b, int off, int len) throws IOException {
+		int total = 0;
+		while (total < len) {
+			int n = in.read(b, off + total, len - total);
+			if (n < 0)
+				break;
+			total += n;
+		}
+		return total;
+	}
+
+	private static int littleEndianShort(byte[] b, int i) {
+		return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8);
+	}
+
+	private static int littleEndianInt(byte[] b, int i) {
+		return littleEndianShort(b, i) | (littleEndianShort(b, i + 2) << 16);
+	}
+
+	/**
+	 * Inflates a single block as returned by <code>readBlock()</code> and
+	 * verifies its size and checksum.
+	 *
+	 * @throws IOException
+	 */
+	protected static byte[] inflate(byte[] block) throws IOException {
+		int dataLength = block.length - 8;
+		int crc = littleEndianInt(block, dataLength);
+		byte[] data = new byte[littleEndianInt(block, dataLength + 4)];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(block, 0, dataLength);
+			int inflated = 0;
+			while (inflated < data.length && !inflater.finished()) {
+				int n = inflater.inflate(data, inflated, data.length - inflated);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				inflated += n;
+			}
+			if (inflated != data.length)
+				throw new IOException("Corrupt BGZF block: Expected " + data.length + " but got " + inflated
+						+ " uncompressed bytes.");
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt BGZF block.", e);
+		} finally {
+			inflater.end();
+		}
+		CRC32 checksum = new CRC32();
+		checksum.update(data, 0, data.length);
+		if ((int) checksum.getValue() != crc)
+			throw new IOException("Corrupt BGZF block: CRC32 mismatch.");
+		return data;
+	}
+}
@@ -0,0 +1,56 @@
+package ahrd.controller;
+
+import static ahrd.controller.Settings.getSettings;
+import static ahrd.controller.Settings.setSettings;
+
+import java.io.IOException;
+import java.util.Date;
+
+import ahrd.model.BlastDatabaseIndex;
+
+/**
+ * Builds the index of each Blast-Database configured in an AHRD input.yml, so
+ * that subsequent AHRD runs look up the Hits' lengths and descriptions
+ * instead of scanning the complete Blast-Databases. See
+ * <code>BlastDatabaseIndex</code>. The index of a Blast-Database has to be
+ * built again, whenever the Blast-Database or its fasta_header_regex is
+ * changed.
+ *
+ * @author hallab
+ */
+public class BlastDatabaseIndexer {
+
+	public BlastDatabaseIndexer(String pathToInputYml) throws IOException {
+		super();
+		setSettings(new Settings(pathToInputYml));
+	}
+
+	/**
+	 * Indexes each Blast-Database of the current Settings.
+	 *
+	 * @throws IOException
+	 */
+	public void indexBlastDatabases() throws IOException {
+		for (String blastDbName : getSettings().getSortedBlastDatabases()) {
+			String pathToBlastDb = getSettings().getPathToBlastDatabase(blastDbName);
+			System.out.println("Indexing Blast database '" + blastDbName + "' (" + pathToBlastDb + ")...");
+			long start = new Date().getTime();
+			long entries = BlastDatabaseIndex.build(pathToBlastDb, getSettings().getFastaHeaderRegex(blastDbName));
+			System.out.println("...indexed " + entries + " entries into '"
+					+ BlastDatabaseIndex.indexFilePath(pathToBlastDb) + "' in " + (new Date().getTime() - start) / 1000
+					+ "sec");
+		}
+	}
+
+	public static void main(String[] args) {
+		System.out.println("Usage:\njava -cp ahrd.jar ahrd.controller.BlastDatabaseIndexer input.yml\n");
+
+		try {
+			new BlastDatabaseIndexer(args[0]).indexBlastDatabases();
+			System.out.println("\n\nDONE");
+		} catch (Exception e) {
+			System.err.println("We are sorry, an un-expected ERROR occurred:");
+			e.printStackTrace(System.err);
+		}
+	}
+}
@@ -8,6 +8,7 @@ import java.util.List;
 import ahrd.exception.MissingAccessionException;
 import ahrd.model.Blast2GoAnnot;
 import ahrd.model.Protein;
+import ahrd.model.ReferenceDataRegistry;
 import ahrd.model.ReferenceDescription;
 import ahrd.view.OutputWriter;
 
@@ -17,17 +18,24 @@ public class Evaluator extends AHRD {
 		super(pathToInputYml);
 	}
 
+	/**
+	 * Assigns each Protein its reference description. The reference
+	 * descriptions are acquired from the <code>ReferenceDataRegistry</code>
+	 * and released with <code>releaseReferenceData()</code>.
+	 * 
+	 * @throws IOException
+	 * @throws MissingAccessionException
+	 */
 	public void setupReferences() throws IOException, MissingAccessionException {
-		List<String> fastaEntries = Protein.splitFasta(getSettings().getReferencesFasta());
-		for (String fastaEntry : fastaEntries) {
-			if (fastaEntry != null && !fastaEntry.trim().equals("")) {
-				ReferenceDescription rd = ReferenceDescription.constructFromFastaEntry(fastaEntry.trim());
-				Protein p = getProteins().get(rd.getAccession());
-				if (p == null)
-					throw new MissingAccessionException(
-							"Could not find Protein for Accession '" + rd.getAccession() + "'");
-				p.getEvaluationScoreCalculator().setReferenceDescription(rd);
-			}
+		ReferenceDataRegistry.Handle<List<ReferenceDescription>> references = ReferenceDescription
+				.acquireReferenceDescriptions();
+		addReferenceData(references);
+		for (ReferenceDescription rd : references.get()) {
+			Protein p = getProteins().get(rd.getAccession());
+			if (p == null)
+				throw new MissingAccessionException(
+						"Could not find Protein for Accession '" + rd.getAccession() + "'");
+			p.getEvaluationScoreCalculator().setReferenceDescription(rd);
 		}
 	}
 
@@ -72,6 +80,7 @@ public class Evaluator extends AHRD {
 			// Generate Output:
 			OutputWriter ow = new OutputWriter(evaluator.getProteins().values());
 			ow.writeOutput();
+			evaluator.releaseReferenceData();
 			System.out.println("Written output into:\n" + getSettings().getPathToOutput());
 		} catch (Exception e) {
 			System.err.println("We are sorry, an unexpected ERROR occurred:");
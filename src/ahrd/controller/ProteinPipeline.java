@@ -0,0 +1,394 @@
+package ahrd.controller;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ahrd.exception.MissingInterproResultException;
+import ahrd.model.Protein;
+import ahrd.view.IOutputWriter;
+
+/**
+ * Annotates and writes out Proteins in stages, so that scoring, formatting and
+ * writing overlap each other and the reading of the Proteins' candidates:
+ *
+ * 1. The caller puts the Proteins whose candidates have been read, see
+ * <code>put(Protein)</code>.
+ *
+ * 2. The scoring stage processes them concurrently on at most
+ * <code>Settings.getNumberOfThreads()</code> threads.
+ *
+ * 3. The formatting stage formats the scored Proteins' output, see
+ * <code>IOutputWriter.formatProtein(Protein)</code>.
+ *
+ * 4. The writing stage writes the formatted output, see
+ * <code>IOutputWriter.writeFormatted(Protein, String)</code>.
+ *
+ * The stages are connected by bounded queues. If a later stage falls behind,
+ * the earlier ones wait, so that at any time only a bounded number of
+ * Proteins is in flight. The Proteins are written in the order they have
+ * been put. Each stage counts the Proteins it has processed, the time it was
+ * busy and the length of its input queue, see <code>getStages()</code>.
+ *
+ * As soon as any stage fails, the other stages are interrupted and the scoring
+ * queue is emptied, so that a caller waiting for room in it continues and is
+ * passed on the failure.
+ *
+ * @author hallab
+ */
+public class ProteinPipeline {
+
+	/**
+	 * The capacity of each queue per scoring thread.
+	 */
+	public static final int QUEUE_CAPACITY_PER_THREAD = 16;
+
+	/**
+	 * Statistics of a single stage.
+	 */
+	public static class Stage {
+
+		private final String name;
+		private final AtomicLong processed = new AtomicLong();
+		private final AtomicLong busyNanos = new AtomicLong();
+		private final AtomicLong queueDepthSum = new AtomicLong();
+		private final AtomicLong queueDepthSamples = new AtomicLong();
+		private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+		public Stage(String name) {
+			super();
+			this.name = name;
+		}
+
+		private void processed(long startNanos) {
+			busyNanos.addAndGet(System.nanoTime() - startNanos);
+			processed.incrementAndGet();
+		}
+
+		private void sampleQueueDepth(int queueDepth) {
+			queueDepthSum.addAndGet(queueDepth);
+			queueDepthSamples.incrementAndGet();
+			int max;
+			while ((max = maxQueueDepth.get()) < queueDepth && !maxQueueDepth.compareAndSet(max, queueDepth))
+				;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getProcessed() {
+			return processed.get();
+		}
+
+		/**
+		 * @return double - The seconds this stage has been busy, summed up
+		 *         over all of its threads.
+		 */
+		public double getBusySeconds() {
+			return busyNanos.get() / 1e9;
+		}
+
+		/**
+		 * @return double - Proteins processed per busy second of a single
+		 *         thread.
+		 */
+		public double getThroughput() {
+			return getBusySeconds() > 0 ? getProcessed() / getBusySeconds() : 0.0;
+		}
+
+		public double getMeanQueueDepth() {
+			return queueDepthSamples.get() > 0 ? ((double) queueDepthSum.get()) / queueDepthSamples.get() : 0.0;
+		}
+
+		public int getMaxQueueDepth() {
+			return maxQueueDepth.get();
+		}
+
+		@Override
+		public String toString() {
+			return name + ": " + getProcessed() + " proteins in " + Math.round(getBusySeconds()) + "sec busy, "
+					+ Math.round(getThroughput()) + " proteins/sec per thread, input queue depth mean "
+					+ Math.round(getMeanQueueDepth()) + " max " + getMaxQueueDepth();
+		}
+	}
+
+	/**
+	 * An element of a queue, the end of the queue is marked by
+	 * <code>END</code>.
+	 */
+	private static class Item {
+
+		private final Future<Protein> scored;
+		private final Protein protein;
+		private final String formatted;
+
+		private Item(Future<Protein> scored, Protein protein, String formatted) {
+			super();
+			this.scored = scored;
+			this.protein = protein;
+			this.formatted = formatted;
+		}
+	}
+
+	private static final Item END = new Item(null, null, null);
+
+	private final AHRD.ProteinTask scoringTask;
+	private final IOutputWriter outputWriter;
+	private final ExecutorService scoringPool;
+	private final BlockingQueue<Item> scoredQueue;
+	private final BlockingQueue<Item> formattedQueue;
+	private final AtomicInteger scoringQueueDepth = new AtomicInteger();
+	private final Stage scoring = new Stage("scoring");
+	private final Stage formatting = new Stage("formatting");
+	private final Stage writing = new Stage("writing");
+	private final Thread formatter;
+	private final Thread writer;
+	/**
+	 * The first failure of any stage, after which all stages stop.
+	 */
+	private volatile Throwable failure;
+	private boolean finished = false;
+
+	/**
+	 * @param noThreads
+	 *            - The number of scoring threads
+	 * @param scoringTask
+	 *            - Scores a single Protein, e.g.
+	 *            <code>AHRD.assignHumanReadableDescription(Protein)</code>
+	 * @param outputWriter
+	 *            - Its output has to be opened with
+	 *            <code>writeHeader()</code> before
+	 */
+	public ProteinPipeline(int noThreads, AHRD.ProteinTask scoringTask, IOutputWriter outputWriter) {
+		super();
+		this.scoringTask = scoringTask;
+		this.outputWriter = outputWriter;
+		int noScoringThreads = Math.max(1, noThreads);
+		this.scoringPool = Executors.newFixedThreadPool(noScoringThreads);
+		this.scoredQueue = new ArrayBlockingQueue<Item>(noScoringThreads * QUEUE_CAPACITY_PER_THREAD);
+		this.formattedQueue = new ArrayBlockingQueue<Item>(noScoringThreads * QUEUE_CAPACITY_PER_THREAD);
+		this.formatter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				format();
+			}
+		}, "ahrd-formatter");
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "ahrd-writer");
+		this.formatter.setDaemon(true);
+		this.writer.setDaemon(true);
+		this.formatter.start();
+		this.writer.start();
+	}
+
+	/**
+	 * Passes on the argument Protein, whose candidates have all been read, to
+	 * be scored, formatted and written. Waits while the Proteins passed on
+	 * before fill the queues.
+	 *
+	 * @param prot
+	 * @throws MissingInterproResultException
+	 * @throws IOException
+	 * @throws SQLException
+	 */
+	public void put(final Protein prot) throws MissingInterproResultException, IOException, SQLException {
+		rethrowFailure();
+		scoring.sampleQueueDepth(scoringQueueDepth.incrementAndGet());
+		Future<Protein> scored;
+		try {
+			scored = scoringPool.submit(new Callable<Protein>() {
+				@Override
+				public Protein call() throws Exception {
+					scoringQueueDepth.decrementAndGet();
+					long start = System.nanoTime();
+					try {
+						scoringTask.process(prot);
+					} catch (Exception e) {
+						// Stop the other stages right away:
+						fail(e);
+						throw e;
+					}
+					scoring.processed(start);
+					return prot;
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Any stage has failed meanwhile:
+			rethrowFailure();
+			throw e;
+		}
+		put(scoredQueue, new Item(scored, null, null));
+	}
+
+	/**
+	 * Waits until all Proteins passed on have been written and closes the
+	 * output, also if any stage has failed.
+	 *
+	 * @throws MissingInterproResultException
+	 * @throws IOException
+	 * @throws SQLException
+	 */
+	public void finish() throws MissingInterproResultException, IOException, SQLException {
+		try {
+			rethrowFailure();
+			put(scoredQueue, END);
+			join(formatter);
+			join(writer);
+			scoringPool.shutdown();
+			rethrowFailure();
+		} finally {
+			finished = true;
+			outputWriter.close();
+		}
+	}
+
+	/**
+	 * Stops all stages and closes the output, unless <code>finish()</code>
+	 * has been invoked. To be invoked, if the caller fails to put all
+	 * Proteins, e.g. in a finally block.
+	 */
+	public void abort() {
+		if (finished)
+			return;
+		finished = true;
+		fail(new IOException("Aborted"));
+		try {
+			// Do not close the output while it is still written to:
+			formatter.join();
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			outputWriter.close();
+		} catch (IOException e) {
+			// The caller passes on the failure it aborts because of.
+		}
+	}
+
+	/**
+	 * @return List<Stage> - The statistics of the scoring, formatting and
+	 *         writing stages, in this order.
+	 */
+	public List<Stage> getStages() {
+		return Arrays.asList(scoring, formatting, writing);
+	}
+
+	private void format() {
+		try {
+			Item item;
+			while ((item = take(scoredQueue, formatting)) != END) {
+				Protein prot = item.scored.get();
+				long start = System.nanoTime();
+				String formatted = outputWriter.formatProtein(prot);
+				formatting.processed(start);
+				formattedQueue.put(new Item(null, prot, formatted));
+			}
+			formattedQueue.put(END);
+		} catch (ExecutionException e) {
+			fail(e.getCause());
+		} catch (InterruptedException e) {
+			// Another stage has failed.
+		} catch (Throwable t) {
+			fail(t);
+		}
+	}
+
+	private void write() {
+		try {
+			Item item;
+			while ((item = take(formattedQueue, writing)) != END) {
+				long start = System.nanoTime();
+				outputWriter.writeFormatted(item.protein, item.formatted);
+				writing.processed(start);
+			}
+		} catch (InterruptedException e) {
+			// Another stage has failed.
+		} catch (Throwable t) {
+			fail(t);
+		}
+	}
+
+	/**
+	 * Records the first failure and stops all stages: Scoring is cancelled,
+	 * the formatting and writing threads are interrupted and the scoring
+	 * queue is emptied, so that a caller waiting for room in it continues.
+	 */
+	private void fail(Throwable t) {
+		synchronized (this) {
+			if (failure != null)
+				return;
+			failure = t;
+		}
+		scoringPool.shutdownNow();
+		formatter.interrupt();
+		writer.interrupt();
+		scoredQueue.clear();
+	}
+
+	private void rethrowFailure() throws MissingInterproResultException, IOException, SQLException {
+		Throwable cause = failure;
+		if (cause == null)
+			return;
+		if (cause instanceof MissingInterproResultException)
+			throw (MissingInterproResultException) cause;
+		if (cause instanceof SQLException)
+			throw (SQLException) cause;
+		if (cause instanceof IOException)
+			throw (IOException) cause;
+		if (cause instanceof RuntimeException)
+			throw (RuntimeException) cause;
+		if (cause instanceof Error)
+			throw (Error) cause;
+		throw new IOException(cause);
+	}
+
+	/**
+	 * Waits until the argument queue has room for the item. Should any stage
+	 * fail meanwhile, the scoring queue is emptied, see
+	 * <code>fail(Throwable)</code>.
+	 */
+	private void put(BlockingQueue<Item> queue, Item item) throws IOException {
+		try {
+			queue.put(item);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the pipeline.", e);
+		}
+	}
+
+	/**
+	 * Waits for the next item of the argument queue, until interrupted by a
+	 * failing stage.
+	 */
+	private Item take(BlockingQueue<Item> queue, Stage stage) throws InterruptedException {
+		stage.sampleQueueDepth(queue.size());
+		return queue.take();
+	}
+
+	private void join(Thread thread) throws IOException {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			fail(e);
+			throw new IOException("Interrupted while waiting for the pipeline.", e);
+		}
+	}
+}
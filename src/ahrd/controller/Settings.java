@@ -6,16 +6,23 @@ import static ahrd.controller.Utils.readFile;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import com.esotericsoftware.yamlbeans.YamlReader;
 
+import ahrd.model.Blacklist;
+import ahrd.model.DescriptionFilter;
+import ahrd.model.ShortAccessions;
+
 /**
  * Using the <em>thread-local</em> singleton-pattern to hold in a central place
  * all AHRD's current settings. This eases greatly access of input-values from
@@ -58,6 +65,7 @@ public class Settings implements Cloneable {
 	public static final String WRITE_BEST_BLAST_HITS_TO_OUTPUT = "write_best_blast_hits_to_output";
 	public static final String WRITE_TOKEN_SET_TO_OUTPUT = "write_token_set_to_output";
 	public static final String HRD_SCORES_OUTPUT_PATH = "hrd_scores_output";
+	public static final String HRD_SCORES_TOP_K_KEY = "hrd_scores_top_k";
 	public static final String TOKEN_SCORE_BIT_SCORE_WEIGHT = "token_score_bit_score_weight";
 	public static final String TOKEN_SCORE_DATABASE_SCORE_WEIGHT = "token_score_database_score_weight";
 	public static final String TOKEN_SCORE_OVERLAP_SCORE_WEIGHT = "token_score_overlap_score_weight";
@@ -91,6 +99,11 @@ public class Settings implements Cloneable {
 	public static final String FASTA_HEADER_REGEX_KEY = "fasta_header_regex";
 	public static final Pattern DEFAULT_FASTA_HEADER_REGEX = Pattern
 			.compile("^>(?<accession>\\S+)\\s+(?<description>.+?)\\s+(((OS|os)=.+)|((GN|gn)=.+))?$");
+	public static final String FASTA_HEADER_ACCESSION_DELIMITER_KEY = "fasta_header_accession_delimiter";
+	/**
+	 * The characters matched by '\s' in regular expressions:
+	 */
+	public static final String DEFAULT_FASTA_HEADER_ACCESSION_DELIMITER = " \t\n\u000B\f\r";
 	public static final String SHORT_ACCESSION_REGEX_KEY = "short_accession_regex";
 	public static final Pattern DEFAULT_SHORT_ACCESSION_REGEX = Pattern.compile("^[^|]+\\|(?<shortAccession>[^|]+)");
 	public static final String REFERENCE_GO_REGEX_KEY = "reference_go_regex";
@@ -99,6 +112,10 @@ public class Settings implements Cloneable {
 	public static final String PREFER_REFERENCE_WITH_GO_ANNOS_KEY = "prefer_reference_with_go_annos";
 	public static final String EVALUATE_VALID_TAKENS_KEY = "evaluate_valid_tokens";
 	public static final String DEFAULT_LINE_SEP = "(\r|\n)+"; 
+	public static final String NUMBER_OF_THREADS_KEY = "number_of_threads";
+	public static final String STREAM_BY_QUERY_KEY = "stream_by_query";
+	public static final String SHARE_REFERENCE_DATA_KEY = "share_reference_data";
+	public static final String MAX_BLAST_RESULTS_PER_DATABASE_KEY = "max_blast_results_per_database";
 
 	/**
 	 * Fields:
@@ -120,6 +137,11 @@ public class Settings implements Cloneable {
 	 * requested.
 	 */
 	private String pathToHRDScoresOutput;
+	/**
+	 * If greater than zero, only the AHRD-Scores of each Protein's this many
+	 * best scoring BlastHits are written into the above file.
+	 */
+	private int hrdScoresTopK = 0;
 	/**
 	 * Trainer logs path through parameter- and score-space into this file:
 	 */
@@ -145,6 +167,20 @@ public class Settings implements Cloneable {
 	private Map<String, List<String>> blastResultsBlacklists = new HashMap<String, List<String>>();
 	private Map<String, List<String>> blastResultsFilter = new HashMap<String, List<String>>();
 	private Map<String, List<String>> tokenBlacklists = new HashMap<String, List<String>>();
+	/**
+	 * The above Blacklists and Filters compiled once for repeated use:
+	 */
+	private Map<String, Blacklist> compiledBlastResultsBlacklists = new HashMap<String, Blacklist>();
+	private Map<String, DescriptionFilter> compiledBlastResultsFilters = new HashMap<String, DescriptionFilter>();
+	private Map<String, Blacklist> compiledTokenBlacklists = new HashMap<String, Blacklist>();
+	private Blacklist compiledReferencesDescriptionBlacklist;
+	private DescriptionFilter compiledReferencesDescriptionFilter;
+	private Blacklist compiledReferencesTokenBlacklist = Blacklist.EMPTY;
+	/**
+	 * The cached short accessions of each Blast-Database's Hits, dropped by
+	 * reportShortAccessionMisses() at the end of each phase:
+	 */
+	private Map<String, ShortAccessions> shortAccessions = new ConcurrentHashMap<String, ShortAccessions>();
 	private String pathToBlast2GoAnnotations;
 	/**
 	 * For the <strong>simulated annealing</strong> algorithm, this will be
@@ -228,6 +264,29 @@ public class Settings implements Cloneable {
 	 * pass the Blacklisting. Otherwise all Tokens are submitted to evaluation.
 	 */
 	private Boolean evaluateValidTokens = true;
+	/**
+	 * Maximum number of threads AHRD uses to process its input in parallel.
+	 * Defaults to the number of available processors.
+	 */
+	private Integer numberOfThreads = Runtime.getRuntime().availableProcessors();
+	/**
+	 * If set, each query Protein is annotated, written and released as soon
+	 * as all of its Hits have been read. Requires the sequence similarity
+	 * search result tables to be grouped by query in the order of the query
+	 * FASTA file, and all Blast-Databases to be indexed.
+	 */
+	private boolean streamByQuery = false;
+	/**
+	 * If set, all reference Gene Ontology annotations are kept in memory and
+	 * shared with other AHRD runs within the same JVM, instead of only those
+	 * of this run's Hits.
+	 */
+	private boolean shareReferenceData = false;
+	/**
+	 * Of each Protein only this many BlastResults with the lowest E-Values are
+	 * kept per Blast-Database. Zero or less keeps all.
+	 */
+	private int maxBlastResultsPerDatabase = 200;
 
 	/**
 	 * Construct from contents of file 'AHRD_input.yml'.
@@ -256,6 +315,8 @@ public class Settings implements Cloneable {
 		setPathToOutput((String) input.get(OUTPUT_KEY));
 		if (input.get(HRD_SCORES_OUTPUT_PATH) != null && !input.get(HRD_SCORES_OUTPUT_PATH).equals(""))
 			setPathToHRDScoresOutput((String) input.get(HRD_SCORES_OUTPUT_PATH));
+		if (input.get(HRD_SCORES_TOP_K_KEY) != null)
+			setHrdScoresTopK(Integer.parseInt(input.get(HRD_SCORES_TOP_K_KEY).toString()));
 		// Trainer logs path through parameter-space here:
 		if (input.get(SIMULATED_ANNEALING_PATH_LOG_KEY) != null)
 			setPathToSimulatedAnnealingPathLog((String) input.get(SIMULATED_ANNEALING_PATH_LOG_KEY));
@@ -273,6 +334,11 @@ public class Settings implements Cloneable {
 					fromFile(getPathToBlastResultsBlackList(blastDatabaseName)));
 			this.blastResultsFilter.put(blastDatabaseName, fromFile(getPathToBlastResultsFilter(blastDatabaseName)));
 			this.tokenBlacklists.put(blastDatabaseName, fromFile(getPathToTokenBlacklist(blastDatabaseName)));
+			this.compiledBlastResultsBlacklists.put(blastDatabaseName,
+					new Blacklist(getBlastResultsBlackList(blastDatabaseName)));
+			this.compiledBlastResultsFilters.put(blastDatabaseName,
+					new DescriptionFilter(getBlastResultsFilter(blastDatabaseName)));
+			this.compiledTokenBlacklists.put(blastDatabaseName, new Blacklist(getTokenBlackList(blastDatabaseName)));
 			// Set Database-Weights and Description-Score-Bit-Score-Weight:
 			this.getParameters().setBlastDbWeight(blastDatabaseName,
 					this.getBlastDbSettings(blastDatabaseName).get(Settings.BLAST_DB_WEIGHT_KEY));
@@ -373,6 +439,19 @@ public class Settings implements Cloneable {
 			this.setPathToReferencesTokenBlacklist(input.get(REFERENCES_TOKEN_BLACKLIST_KEY).toString());
 			this.setReferencesTokenBlacklist(fromFile(getPathToReferencesTokenBlacklist()));
 		}
+		if (input.get(NUMBER_OF_THREADS_KEY) != null) {
+			setNumberOfThreads(Integer.parseInt(input.get(NUMBER_OF_THREADS_KEY).toString()));
+		}
+		if (input.get(STREAM_BY_QUERY_KEY) != null) {
+			setStreamByQuery(Boolean.parseBoolean(input.get(STREAM_BY_QUERY_KEY).toString()));
+		}
+		if (input.get(SHARE_REFERENCE_DATA_KEY) != null) {
+			setShareReferenceData(Boolean.parseBoolean(input.get(SHARE_REFERENCE_DATA_KEY).toString()));
+		}
+		if (input.get(MAX_BLAST_RESULTS_PER_DATABASE_KEY) != null) {
+			setMaxBlastResultsPerDatabase(
+					Integer.parseInt(input.get(MAX_BLAST_RESULTS_PER_DATABASE_KEY).toString()));
+		}
 	}
 
 	/**
@@ -484,10 +563,112 @@ public class Settings implements Cloneable {
 				: DEFAULT_FASTA_HEADER_REGEX;
 	}
 
+	/**
+	 * Scanning a Blast-Database, the accession of each FASTA header is
+	 * extracted cheaply, before the header is matched against the
+	 * fasta_header_regex. The accession is expected to be the text following
+	 * the '>' up to the first of the returned delimiter characters. If the
+	 * Blast-Database's settings do not set these characters explicitly, the
+	 * accession is expected to be the first whitespace delimited word, if and
+	 * only if the fasta_header_regex guarantees this, see
+	 * <code>isAccessionFirstWordOfFastaHeader</code>.
+	 * 
+	 * @param blastDatabaseName
+	 * @return String - The characters delimiting the accession or NULL, if the
+	 *         accession cannot be extracted without the regular expression.
+	 */
+	public String getFastaHeaderAccessionDelimiter(String blastDatabaseName) {
+		if (getBlastDbSettings(blastDatabaseName).containsKey(FASTA_HEADER_ACCESSION_DELIMITER_KEY))
+			return getBlastDbSettings(blastDatabaseName).get(FASTA_HEADER_ACCESSION_DELIMITER_KEY).toString();
+		return isAccessionFirstWordOfFastaHeader(getFastaHeaderRegex(blastDatabaseName))
+				? DEFAULT_FASTA_HEADER_ACCESSION_DELIMITER : null;
+	}
+
+	/**
+	 * Conservatively checks whether the accession matched by the argument
+	 * FASTA header regular expression always is the first whitespace
+	 * delimited word following the '>'. This holds, if the expression starts
+	 * with '^>(?&lt;accession&gt;', the accession group cannot match
+	 * whitespace, and the group is directly followed by '\s'.
+	 * 
+	 * @param fastaHeaderRegex
+	 * @return boolean
+	 */
+	public static boolean isAccessionFirstWordOfFastaHeader(Pattern fastaHeaderRegex) {
+		String regex = fastaHeaderRegex.pattern();
+		String prefix = "^>(?<accession>";
+		if (fastaHeaderRegex.flags() != 0 || !regex.startsWith(prefix))
+			return false;
+		// Escaped characters that never match whitespace:
+		String safeEscapes = "Sdw.|-_:()[]{}+*?^$/\\";
+		int depth = 1;
+		boolean inCharClass = false;
+		int i = prefix.length();
+		for (; i < regex.length() && depth > 0; i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				if (++i == regex.length() || safeEscapes.indexOf(regex.charAt(i)) < 0)
+					return false;
+			} else if (inCharClass) {
+				if (c == '[' || Character.isWhitespace(c))
+					return false;
+				if (c == ']')
+					inCharClass = false;
+			} else if (c == '[') {
+				// Negated character classes might match whitespace:
+				if (i + 1 < regex.length() && regex.charAt(i + 1) == '^')
+					return false;
+				inCharClass = true;
+			} else if (c == '.' || Character.isWhitespace(c)) {
+				return false;
+			} else if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			}
+		}
+		return depth == 0 && regex.startsWith("\\s", i);
+	}
+
 	public Pattern getShortAccessionRegex(String blastDatabaseName) {
-		return (getBlastDbSettings(blastDatabaseName).containsKey(SHORT_ACCESSION_REGEX_KEY))
-				? Pattern.compile(getBlastDbSettings(blastDatabaseName).get(SHORT_ACCESSION_REGEX_KEY).toString())
-				: DEFAULT_SHORT_ACCESSION_REGEX;
+		return getShortAccessions(blastDatabaseName).getRegex();
+	}
+
+	/**
+	 * @param blastDatabaseName
+	 * @return ShortAccessions - The cache of the short accessions of the
+	 *         argument Blast-Database's Hits, created with its compiled
+	 *         regular expression on first access.
+	 */
+	public ShortAccessions getShortAccessions(String blastDatabaseName) {
+		ShortAccessions cache = this.shortAccessions.get(blastDatabaseName);
+		if (cache == null) {
+			Pattern regex = (getBlastDbSettings(blastDatabaseName).containsKey(SHORT_ACCESSION_REGEX_KEY))
+					? Pattern.compile(getBlastDbSettings(blastDatabaseName).get(SHORT_ACCESSION_REGEX_KEY).toString())
+					: DEFAULT_SHORT_ACCESSION_REGEX;
+			ShortAccessions created = new ShortAccessions(regex);
+			cache = this.shortAccessions.putIfAbsent(blastDatabaseName, created);
+			if (cache == null)
+				cache = created;
+		}
+		return cache;
+	}
+
+	/**
+	 * Reports for each Blast-Database the accessions its short accession
+	 * regular expression did not match since the last report, see
+	 * <code>ShortAccessions.reportMisses(String)</code>. Then drops the cached
+	 * short accessions, so that they are kept for a single phase only, instead
+	 * of growing with every distinct accession of the whole run.
+	 */
+	public void reportShortAccessionMisses() {
+		for (String blastDatabaseName : getSortedBlastDatabases()) {
+			ShortAccessions cache = this.shortAccessions.get(blastDatabaseName);
+			if (cache != null) {
+				cache.reportMisses(blastDatabaseName);
+				this.shortAccessions.remove(blastDatabaseName, cache);
+			}
+		}
 	}
 
 	private String getPathToBlastResultsBlackList(String blastDatabaseName) {
@@ -514,20 +695,43 @@ public class Settings implements Cloneable {
 		return this.tokenBlacklists.get(blastDatabaseName);
 	}
 
+	public Blacklist getCompiledBlastResultsBlacklist(String blastDatabaseName) {
+		return this.compiledBlastResultsBlacklists.get(blastDatabaseName);
+	}
+
+	public DescriptionFilter getCompiledBlastResultsFilter(String blastDatabaseName) {
+		return this.compiledBlastResultsFilters.get(blastDatabaseName);
+	}
+
+	public Blacklist getCompiledTokenBlacklist(String blastDatabaseName) {
+		return this.compiledTokenBlacklists.get(blastDatabaseName);
+	}
+
 	private String getPathToProteinsFasta() {
 		return pathToProteinsFasta;
 	}
 
 	public String getProteinsFasta() throws IOException {
-		return readFile(getPathToProteinsFasta());
+		return readFile(getPathToProteinsFasta(), getNumberOfThreads());
+	}
+
+	/**
+	 * Opens the query proteins' FASTA file for streaming, decompressing it if
+	 * necessary. The caller is responsible for closing the returned channel.
+	 * 
+	 * @return ReadableByteChannel
+	 * @throws IOException
+	 */
+	public ReadableByteChannel getProteinsFastaChannel() throws IOException {
+		return Channels.newChannel(Utils.openInputStream(getPathToProteinsFasta(), getNumberOfThreads()));
 	}
 
-	private String getPathToReferencesFasta() {
+	public String getPathToReferencesFasta() {
 		return pathToReferencesFasta;
 	}
 
 	public String getReferencesFasta() throws IOException {
-		return readFile(getPathToReferencesFasta());
+		return readFile(getPathToReferencesFasta(), getNumberOfThreads());
 	}
 
 	public void setPathToProteinsFasta(String pathToProteinsFasta) {
@@ -768,6 +972,14 @@ public class Settings implements Cloneable {
 		return getPathToHRDScoresOutput() != null && !getPathToHRDScoresOutput().equals("");
 	}
 
+	public int getHrdScoresTopK() {
+		return hrdScoresTopK;
+	}
+
+	public void setHrdScoresTopK(int hrdScoresTopK) {
+		this.hrdScoresTopK = hrdScoresTopK;
+	}
+
 	public Integer getSeqSimSearchTableQueryCol() {
 		return seqSimSearchTableQueryCol;
 	}
@@ -909,6 +1121,11 @@ public class Settings implements Cloneable {
 
 	public void setReferencesDescriptionBlacklist(List<String> referencesDescriptionBlacklist) {
 		this.referencesDescriptionBlacklist = referencesDescriptionBlacklist;
+		this.compiledReferencesDescriptionBlacklist = referencesDescriptionBlacklist != null ? new Blacklist(referencesDescriptionBlacklist) : null;
+	}
+
+	public Blacklist getCompiledReferencesDescriptionBlacklist() {
+		return compiledReferencesDescriptionBlacklist;
 	}
 
 	public List<String> getReferencesDescriptionFilter() {
@@ -917,6 +1134,11 @@ public class Settings implements Cloneable {
 
 	public void setReferencesDescriptionFilter(List<String> referencesDescriptionFilter) {
 		this.referencesDescriptionFilter = referencesDescriptionFilter;
+		this.compiledReferencesDescriptionFilter = referencesDescriptionFilter != null ? new DescriptionFilter(referencesDescriptionFilter) : null;
+	}
+
+	public DescriptionFilter getCompiledReferencesDescriptionFilter() {
+		return compiledReferencesDescriptionFilter;
 	}
 
 	public List<String> getReferencesTokenBlacklist() {
@@ -925,5 +1147,52 @@ public class Settings implements Cloneable {
 
 	public void setReferencesTokenBlacklist(List<String> referencesTokenBlacklist) {
 		this.referencesTokenBlacklist = referencesTokenBlacklist;
+		this.compiledReferencesTokenBlacklist = referencesTokenBlacklist != null ? new Blacklist(referencesTokenBlacklist) : Blacklist.EMPTY;
+	}
+
+	public Blacklist getCompiledReferencesTokenBlacklist() {
+		return compiledReferencesTokenBlacklist;
+	}
+
+	public Integer getNumberOfThreads() {
+		return numberOfThreads;
+	}
+
+	public void setNumberOfThreads(Integer numberOfThreads) {
+		this.numberOfThreads = numberOfThreads;
+	}
+
+	/**
+	 * @return TRUE if and only if the sequence similarity search result tables
+	 *         are to be read in lockstep, one query Protein at a time. See
+	 *         <code>AHRD.streamHumanReadableDescriptions</code>.
+	 */
+	public boolean doStreamByQuery() {
+		return streamByQuery;
+	}
+
+	public void setStreamByQuery(boolean streamByQuery) {
+		this.streamByQuery = streamByQuery;
+	}
+
+	/**
+	 * @return TRUE if and only if all reference Gene Ontology annotations are
+	 *         to be acquired from the <code>ReferenceDataRegistry</code>. See
+	 *         <code>AHRD.setUpReferenceGoAnnotations()</code>.
+	 */
+	public boolean doShareReferenceData() {
+		return shareReferenceData;
+	}
+
+	public void setShareReferenceData(boolean shareReferenceData) {
+		this.shareReferenceData = shareReferenceData;
+	}
+
+	public int getMaxBlastResultsPerDatabase() {
+		return maxBlastResultsPerDatabase;
+	}
+
+	public void setMaxBlastResultsPerDatabase(int maxBlastResultsPerDatabase) {
+		this.maxBlastResultsPerDatabase = maxBlastResultsPerDatabase;
 	}
-}
\ No newline at end of file
+}
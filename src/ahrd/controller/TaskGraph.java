@@ -0,0 +1,177 @@
+package ahrd.controller;
+
+import static ahrd.controller.Settings.getSettings;
+import static ahrd.controller.Settings.setSettings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A small graph of named tasks, each of which is started as soon as all tasks
+ * it depends on have completed, so that independent tasks run concurrently.
+ * E.g. the Interpro-Database is parsed while the sequence similarity search
+ * results are read, see <code>AHRD.setup(boolean)</code>.
+ *
+ * A task can only depend on tasks added before, hence the graph has no
+ * cycles and the order the tasks have been added in is a valid sequential
+ * order.
+ *
+ * @author hallab
+ */
+public class TaskGraph {
+
+	/**
+	 * Work done by a single node of the graph.
+	 */
+	public interface Task {
+		void run() throws Exception;
+	}
+
+	private static class Node {
+
+		private final String name;
+		private final Task task;
+		private final List<String> dependencies;
+		private volatile long nanos = -1;
+
+		private Node(String name, Task task, List<String> dependencies) {
+			super();
+			this.name = name;
+			this.task = task;
+			this.dependencies = dependencies;
+		}
+
+		private void run() throws Exception {
+			long start = System.nanoTime();
+			task.run();
+			nanos = System.nanoTime() - start;
+		}
+	}
+
+	private final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+
+	/**
+	 * @param name
+	 *            - Unique within the graph
+	 * @param task
+	 * @param dependencies
+	 *            - The names of the tasks, added before, that have to be
+	 *            completed before <code>task</code> can be started.
+	 * @throws IllegalArgumentException
+	 *             - If the name is not unique or any dependency has not been
+	 *             added before.
+	 */
+	public void add(String name, Task task, String... dependencies) {
+		if (nodes.containsKey(name))
+			throw new IllegalArgumentException("Task '" + name + "' has already been added.");
+		for (String dependency : dependencies) {
+			if (!nodes.containsKey(dependency))
+				throw new IllegalArgumentException(
+						"Task '" + name + "' depends on task '" + dependency + "', which has not been added before.");
+		}
+		nodes.put(name, new Node(name, task, Arrays.asList(dependencies)));
+	}
+
+	/**
+	 * @return Set<String> - The names of the tasks in the order they have
+	 *         been added.
+	 */
+	public Set<String> getNames() {
+		return nodes.keySet();
+	}
+
+	/**
+	 * @param name
+	 * @return double - The seconds the named task has taken to complete, or
+	 *         a negative value, if it has not completed.
+	 */
+	public double getSeconds(String name) {
+		long nanos = nodes.get(name).nanos;
+		return nanos < 0 ? -1.0 : nanos / 1e9;
+	}
+
+	/**
+	 * Runs all tasks, each with the Settings of the thread invoking this
+	 * method, using at most <code>numberOfThreads</code> threads. With at most
+	 * a single thread, the tasks are run one after the other in the order
+	 * they have been added, in the invoking thread. Otherwise each task is
+	 * started as soon as the tasks it depends on have completed and a thread
+	 * is free. Tasks waiting for others do not occupy a thread. As soon as any
+	 * task fails, the others are interrupted and no further tasks are started.
+	 *
+	 * @param numberOfThreads
+	 * @throws ExecutionException
+	 *             - Caused by the first task to fail
+	 * @throws InterruptedException
+	 */
+	public void run(int numberOfThreads) throws ExecutionException, InterruptedException {
+		if (numberOfThreads <= 1 || nodes.size() <= 1) {
+			for (Node node : nodes.values()) {
+				try {
+					node.run();
+				} catch (Exception e) {
+					throw new ExecutionException(e);
+				}
+			}
+			return;
+		}
+		final Settings settings = getSettings();
+		// The number of uncompleted dependencies of each task, and the tasks
+		// depending on each task:
+		Map<String, Integer> pending = new HashMap<String, Integer>();
+		Map<String, List<Node>> dependents = new HashMap<String, List<Node>>();
+		for (Node node : nodes.values()) {
+			pending.put(node.name, node.dependencies.size());
+			dependents.put(node.name, new ArrayList<Node>());
+			for (String dependency : node.dependencies)
+				dependents.get(dependency).add(node);
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(numberOfThreads, nodes.size()));
+		try {
+			CompletionService<Node> completed = new ExecutorCompletionService<Node>(pool);
+			int running = 0;
+			for (Node node : nodes.values()) {
+				if (node.dependencies.isEmpty()) {
+					submit(completed, node, settings);
+					running++;
+				}
+			}
+			while (running > 0) {
+				Node done = completed.take().get();
+				running--;
+				for (Node dependent : dependents.get(done.name)) {
+					int remaining = pending.get(dependent.name) - 1;
+					pending.put(dependent.name, remaining);
+					if (remaining == 0) {
+						submit(completed, dependent, settings);
+						running++;
+					}
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static void submit(CompletionService<Node> completed, final Node node, final Settings settings) {
+		completed.submit(new Callable<Node>() {
+			@Override
+			public Node call() throws Exception {
+				setSettings(settings);
+				node.run();
+				return node;
+			}
+		});
+	}
+}
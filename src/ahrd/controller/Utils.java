@@ -1,14 +1,19 @@
 package ahrd.controller;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Provides globally used utility-methods. E.g. for reading files or creating
@@ -35,7 +40,118 @@ public class Utils {
 				/ decPlacesFact;
 	}
 
+	/**
+	 * Compression formats of input files, recognized by their magic bytes.
+	 */
+	public enum Compression {
+		NONE, GZIP, BGZF, ZSTD
+	}
+
+	/**
+	 * Recognizes the compression format of the argument file by its magic
+	 * bytes. A gzip file is in BGZF format, if its first member has the 'BC'
+	 * extra field holding the block size.
+	 * 
+	 * @param path
+	 * @return Compression
+	 * @throws IOException
+	 */
+	public static Compression detectCompression(String path) throws IOException {
+		byte[] magic = new byte[16];
+		int read = 0;
+		FileInputStream stream = new FileInputStream(new File(path));
+		try {
+			int n;
+			while (read < magic.length && (n = stream.read(magic, read, magic.length - read)) > 0)
+				read += n;
+		} finally {
+			stream.close();
+		}
+		if (read >= 4 && (magic[0] & 0xFF) == 0x28 && (magic[1] & 0xFF) == 0xb5 && (magic[2] & 0xFF) == 0x2f
+				&& (magic[3] & 0xFF) == 0xfd)
+			return Compression.ZSTD;
+		if (read >= 3 && (magic[0] & 0xFF) == 0x1f && (magic[1] & 0xFF) == 0x8b && magic[2] == 8) {
+			if (read >= 16 && (magic[3] & 4) != 0 && magic[12] == 'B' && magic[13] == 'C' && magic[14] == 2
+					&& magic[15] == 0)
+				return Compression.BGZF;
+			return Compression.GZIP;
+		}
+		return Compression.NONE;
+	}
+
+	/**
+	 * Opens the argument file for reading. Files compressed with gzip are
+	 * transparently decompressed, and BGZF compressed files are decompressed
+	 * using the argument number of threads. Zstandard compressed files are
+	 * not supported.
+	 * 
+	 * @param path
+	 * @param numberOfThreads
+	 * @return InputStream
+	 * @throws IOException
+	 */
+	public static InputStream openInputStream(String path, int numberOfThreads) throws IOException {
+		Compression compression = detectCompression(path);
+		if (compression == Compression.ZSTD)
+			throw new IOException("File '" + path
+					+ "' is compressed with Zstandard, which AHRD does not support. Please, compress it with bgzip or gzip instead.");
+		InputStream stream = new FileInputStream(new File(path));
+		if (compression == Compression.BGZF)
+			return new BgzfInputStream(stream, numberOfThreads);
+		if (compression == Compression.GZIP)
+			return new GZIPInputStream(stream, 1 << 16);
+		return stream;
+	}
+
+	/**
+	 * See <code>openInputStream(String, int)</code>.
+	 * 
+	 * @param path
+	 * @param numberOfThreads
+	 * @return BufferedReader decoding the file with the default charset.
+	 * @throws IOException
+	 */
+	public static BufferedReader openReader(String path, int numberOfThreads) throws IOException {
+		return new BufferedReader(new InputStreamReader(openInputStream(path, numberOfThreads), Charset.defaultCharset()),
+				1 << 16);
+	}
+
+	/**
+	 * See <code>readFile(String, int)</code>, decompressing on a single
+	 * thread.
+	 * 
+	 * @param path
+	 * @return String - The file's content.
+	 * @throws IOException
+	 */
 	public static String readFile(String path) throws IOException {
+		return readFile(path, 1);
+	}
+
+	/**
+	 * Reads the file's whole content, decompressing it if necessary, see
+	 * <code>openInputStream(String, int)</code>.
+	 * 
+	 * @param path
+	 * @param numberOfThreads
+	 *            - The number of threads inflating a BGZF compressed file
+	 * @return String - The file's content.
+	 * @throws IOException
+	 */
+	public static String readFile(String path, int numberOfThreads) throws IOException {
+		if (detectCompression(path) != Compression.NONE) {
+			Reader reader = openReader(path, numberOfThreads);
+			try {
+				StringBuilder content = new StringBuilder();
+				char[] buffer = new char[1 << 16];
+				int read;
+				while ((read = reader.read(buffer)) >= 0)
+					content.append(buffer, 0, read);
+				return content.toString();
+			} finally {
+				reader.close();
+			}
+		}
 		FileInputStream stream = new FileInputStream(new File(path));
 		try {
 			FileChannel fc = stream.getChannel();
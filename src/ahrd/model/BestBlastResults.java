@@ -0,0 +1,180 @@
+package ahrd.model;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The at most maxSize best BlastResults, i.e. those with the lowest E-Values,
+ * of a single query Protein in a single Blast-Database. Of BlastResults with
+ * equal E-Values the one offered first is the better one.
+ *
+ * As long as no more than maxSize BlastResults have been offered, they are
+ * kept in the order they were offered. Once more have been offered, the worst
+ * kept BlastResult is found at the root of a heap and replaced in constant
+ * time, if the offered one is better. <code>finish()</code> then sorts the
+ * kept BlastResults. The result is exactly that of sorting all offered
+ * BlastResults by E-Value and taking the first maxSize, see
+ * <code>BlastResult.filterBestScoringBlastResults</code>, but memory does not
+ * grow beyond maxSize BlastResults.
+ *
+ * Elements can only be added with <code>offer</code>. As a List this is a
+ * read-only view of the kept BlastResults, all other modifications throw an
+ * UnsupportedOperationException, so that they cannot bypass maxSize and the
+ * bookkeeping of the heap.
+ *
+ * @author hallab
+ */
+public class BestBlastResults extends AbstractList<BlastResult> implements RandomAccess {
+
+	private final int maxSize;
+	/**
+	 * The kept BlastResults.
+	 */
+	private final List<BlastResult> kept = new ArrayList<BlastResult>();
+	/**
+	 * The number of BlastResults offered so far.
+	 */
+	private int offered = 0;
+	/**
+	 * The position in the sequence of offered BlastResults of each kept one.
+	 * NULL until more than maxSize BlastResults have been offered.
+	 */
+	private int[] offerPositions;
+	/**
+	 * Max-heap of the indices of the kept BlastResults, the worst at its
+	 * root. NULL until more than maxSize BlastResults have been offered.
+	 */
+	private int[] heap;
+
+	/**
+	 * @param maxSize
+	 *            - The maximum number of BlastResults to keep. Zero or less
+	 *            keeps all.
+	 */
+	public BestBlastResults(int maxSize) {
+		super();
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Keeps the argument BlastResult, if less than maxSize BlastResults are
+	 * kept or it is better than the worst one kept, which it then replaces.
+	 *
+	 * @param br
+	 * @return boolean - TRUE if and only if the argument is kept.
+	 */
+	public boolean offer(BlastResult br) {
+		int position = offered++;
+		if (maxSize <= 0 || size() < maxSize) {
+			kept.add(br);
+			return true;
+		}
+		if (heap == null)
+			buildHeap();
+		int worst = heap[0];
+		if (compare(br.getEValue(), position, get(worst).getEValue(), offerPositions[worst]) >= 0)
+			return false;
+		kept.set(worst, br);
+		offerPositions[worst] = position;
+		siftDown(0);
+		return true;
+	}
+
+	/**
+	 * @param br
+	 * @return boolean - TRUE if and only if <code>offer(br)</code> would keep
+	 *         the argument BlastResult, if offered next.
+	 */
+	public boolean wouldKeep(BlastResult br) {
+		if (maxSize <= 0 || size() < maxSize)
+			return true;
+		if (heap == null)
+			buildHeap();
+		int worst = heap[0];
+		return compare(br.getEValue(), offered, get(worst).getEValue(), offerPositions[worst]) < 0;
+	}
+
+	/**
+	 * Sorts the kept BlastResults by E-Value, if more than maxSize have been
+	 * offered. Otherwise they remain in the order they were offered.
+	 */
+	public void finish() {
+		if (heap == null)
+			return;
+		Integer[] order = new Integer[size()];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return BestBlastResults.compare(get(a).getEValue(), offerPositions[a], get(b).getEValue(),
+						offerPositions[b]);
+			}
+		});
+		BlastResult[] sorted = new BlastResult[order.length];
+		int[] sortedPositions = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			sorted[i] = get(order[i]);
+			sortedPositions[i] = offerPositions[order[i]];
+		}
+		kept.clear();
+		kept.addAll(Arrays.asList(sorted));
+		this.offerPositions = sortedPositions;
+		// The heap has to be rebuilt, should further BlastResults be offered:
+		this.heap = null;
+	}
+
+	@Override
+	public BlastResult get(int index) {
+		return kept.get(index);
+	}
+
+	@Override
+	public int size() {
+		return kept.size();
+	}
+
+	private static int compare(double eValue, int position, double otherEValue, int otherPosition) {
+		int byEValue = Double.compare(eValue, otherEValue);
+		return byEValue != 0 ? byEValue : Integer.compare(position, otherPosition);
+	}
+
+	private boolean isWorse(int i, int j) {
+		return compare(get(i).getEValue(), offerPositions[i], get(j).getEValue(), offerPositions[j]) > 0;
+	}
+
+	private void buildHeap() {
+		if (offerPositions == null) {
+			// All kept BlastResults are still in the order they were offered:
+			offerPositions = new int[size()];
+			for (int i = 0; i < offerPositions.length; i++)
+				offerPositions[i] = i;
+		}
+		heap = new int[size()];
+		for (int i = 0; i < heap.length; i++)
+			heap[i] = i;
+		for (int i = heap.length / 2 - 1; i >= 0; i--)
+			siftDown(i);
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int left = 2 * i + 1;
+			if (left >= heap.length)
+				return;
+			int worse = left;
+			if (left + 1 < heap.length && isWorse(heap[left + 1], heap[left]))
+				worse = left + 1;
+			if (!isWorse(heap[worse], heap[i]))
+				return;
+			int tmp = heap[i];
+			heap[i] = heap[worse];
+			heap[worse] = tmp;
+			i = worse;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package ahrd.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A list of regular expressions compiled once, so that a String can be tested
+ * against all of them in a single pass. A String is blacklisted, if and only
+ * if any of the regular expressions is found in it.
+ *
+ * Entries without any special regex characters are searched for as literals
+ * with an Aho-Corasick automaton. All other entries are combined into a single
+ * alternation. Entries referring to capturing groups by number are kept
+ * separately, as their numbering would change within the alternation.
+ *
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author hallab
+ */
+public class Blacklist {
+
+	public static final Blacklist EMPTY = new Blacklist(Collections.<String>emptyList());
+
+	/**
+	 * Characters that have a special meaning in regular expressions.
+	 */
+	private static final String REGEX_META_CHARACTERS = ".$|()[]{}^?*+\\";
+	private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\(\\d|k<)");
+
+	private final LiteralMatcher literals;
+	private final List<Pattern> patterns = new ArrayList<Pattern>();
+	private final int size;
+
+	/**
+	 * @param regexs
+	 *            - The blacklist's regular expressions
+	 * @throws PatternSyntaxException
+	 *             - If any entry is not a valid regular expression
+	 */
+	public Blacklist(List<String> regexs) {
+		super();
+		List<String> literalEntries = new ArrayList<String>();
+		List<String> combinableEntries = new ArrayList<String>();
+		for (String regex : regexs) {
+			if (isLiteral(regex))
+				literalEntries.add(regex);
+			else if (BACK_REFERENCE.matcher(regex).find())
+				patterns.add(Pattern.compile(regex));
+			else
+				combinableEntries.add(regex);
+		}
+		this.literals = literalEntries.isEmpty() ? null : new LiteralMatcher(literalEntries);
+		if (combinableEntries.size() == 1) {
+			patterns.add(Pattern.compile(combinableEntries.get(0)));
+		} else if (combinableEntries.size() > 1) {
+			StringBuilder alternation = new StringBuilder();
+			for (String regex : combinableEntries) {
+				// Validate each entry on its own, so that no entry can
+				// escape its group:
+				Pattern.compile(regex);
+				if (alternation.length() > 0)
+					alternation.append('|');
+				alternation.append("(?:").append(regex).append(')');
+			}
+			try {
+				patterns.add(Pattern.compile(alternation.toString()));
+			} catch (PatternSyntaxException e) {
+				// E.g. the same group name is used in several entries:
+				for (String regex : combinableEntries)
+					patterns.add(Pattern.compile(regex));
+			}
+		}
+		this.size = regexs.size();
+	}
+
+	/**
+	 * @param regex
+	 * @return TRUE if and only if the argument regular expression does not
+	 *         contain any special characters and thus matches itself only.
+	 */
+	public static boolean isLiteral(String regex) {
+		for (int i = 0; i < regex.length(); i++) {
+			if (REGEX_META_CHARACTERS.indexOf(regex.charAt(i)) >= 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param str
+	 * @return TRUE if and only if any of this blacklist's regular expressions
+	 *         is found in the argument String.
+	 */
+	public boolean isBlacklisted(CharSequence str) {
+		if (literals != null && literals.isFoundIn(str))
+			return true;
+		for (Pattern p : patterns) {
+			if (p.matcher(str).find())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return TRUE if and only if this blacklist has no entries.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Aho-Corasick automaton finding any of a set of literal Strings in a
+	 * single pass.
+	 */
+	private static class LiteralMatcher {
+
+		private final List<Map<Character, Integer>> transitions = new ArrayList<Map<Character, Integer>>();
+		private final List<Integer> failures = new ArrayList<Integer>();
+		/**
+		 * TRUE for each state, in which any of the literals ends.
+		 */
+		private final List<Boolean> accepting = new ArrayList<Boolean>();
+
+		public LiteralMatcher(List<String> literals) {
+			super();
+			newState();
+			for (String literal : literals) {
+				int state = 0;
+				for (int i = 0; i < literal.length(); i++) {
+					Integer next = transitions.get(state).get(literal.charAt(i));
+					if (next == null) {
+						next = newState();
+						transitions.get(state).put(literal.charAt(i), next);
+					}
+					state = next;
+				}
+				accepting.set(state, true);
+			}
+			// Breadth first, set each state's failure link to the longest
+			// proper suffix that is also a prefix of any literal:
+			Deque<Integer> queue = new ArrayDeque<Integer>();
+			for (int child : transitions.get(0).values()) {
+				failures.set(child, 0);
+				queue.add(child);
+			}
+			while (!queue.isEmpty()) {
+				int state = queue.poll();
+				for (Map.Entry<Character, Integer> transition : transitions.get(state).entrySet()) {
+					int child = transition.getValue();
+					int failure = failures.get(state);
+					while (failure > 0 && !transitions.get(failure).containsKey(transition.getKey()))
+						failure = failures.get(failure);
+					Integer next = transitions.get(failure).get(transition.getKey());
+					failures.set(child, next != null ? next : 0);
+					accepting.set(child, accepting.get(child) || accepting.get(failures.get(child)));
+					queue.add(child);
+				}
+			}
+		}
+
+		private int newState() {
+			transitions.add(new HashMap<Character, Integer>(4));
+			failures.add(0);
+			accepting.add(false);
+			return transitions.size() - 1;
+		}
+
+		public boolean isFoundIn(CharSequence str) {
+			int state = 0;
+			if (accepting.get(state))
+				return true;
+			for (int i = 0; i < str.length(); i++) {
+				char c = str.charAt(i);
+				while (state > 0 && !transitions.get(state).containsKey(c))
+					state = failures.get(state);
+				Integer next = transitions.get(state).get(c);
+				state = next != null ? next : 0;
+				if (accepting.get(state))
+					return true;
+			}
+			return false;
+		}
+	}
+}
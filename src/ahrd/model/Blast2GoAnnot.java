@@ -2,14 +2,13 @@ package ahrd.model;
 
 import static ahrd.model.TokenScoreCalculator.tokenize;
 
-import java.util.ArrayList;
 import java.util.Set;
 
 public class Blast2GoAnnot implements Comparable<Blast2GoAnnot> {
 
 	private String accession;
 	private String description;
-	private Set<String> evaluationTokens;
+	private TokenSet evaluationTokens;
 	private Double evaluationScore = 0.0;
 
 	public static Blast2GoAnnot fromBlast2GoEntry(String resultLine) {
@@ -27,7 +26,7 @@ public class Blast2GoAnnot implements Comparable<Blast2GoAnnot> {
 		super();
 		setAccession(accession);
 		setDescription(description);
-		setEvaluationTokens(tokenize(getDescription(), new ArrayList<String>()));
+		setEvaluationTokens(tokenize(getDescription(), Blacklist.EMPTY));
 	}
 
 	/**
@@ -83,12 +82,16 @@ public class Blast2GoAnnot implements Comparable<Blast2GoAnnot> {
 		this.description = description;
 	}
 
-	public Set<String> getEvaluationTokens() {
+	public TokenSet getEvaluationTokens() {
 		return evaluationTokens;
 	}
 
+	/**
+	 * @param evaluationTokens
+	 *            - Stored as TokenSet, see <code>TokenSet.of(Set)</code>
+	 */
 	public void setEvaluationTokens(Set<String> evaluationTokens) {
-		this.evaluationTokens = evaluationTokens;
+		this.evaluationTokens = TokenSet.of(evaluationTokens);
 	}
 
 	public Double getEvaluationScore() {
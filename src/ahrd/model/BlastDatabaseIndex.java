@@ -0,0 +1,567 @@
+package ahrd.model;
+
+import static ahrd.model.BlastResult.FASTA_PROTEIN_HEADER_ACCESSION_GROUP_NAME;
+import static ahrd.model.BlastResult.FASTA_PROTEIN_HEADER_DESCRIPTION_GROUP_NAME;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ahrd.controller.Settings;
+import ahrd.controller.Utils;
+
+/**
+ * Persistent index of a Blast-Database in FASTA format. For each accession the
+ * index holds the offset of the FASTA header, the offset and length of the
+ * Human Readable Description within the header and the length of the amino
+ * acid sequence. With such an index the lengths and descriptions of the Hits
+ * of a sequence similarity search are looked up directly, instead of scanning
+ * the complete FASTA file each time AHRD is run.
+ *
+ * The index is written once by <code>build(...)</code>, see
+ * <code>ahrd.controller.BlastDatabaseIndexer</code>, into a file next to the
+ * FASTA file, named like the latter plus the suffix INDEX_FILE_SUFFIX. It
+ * consists of a header, the records, one for each accession, and an open
+ * addressing hash table of record positions. The index is memory mapped read
+ * only, so AHRD processes running concurrently on the same host share it
+ * through the operating system's page cache.
+ *
+ * As accessions and descriptions are extracted with the Blast-Database's
+ * fasta_header_regex, an index is only used if it has been built with the
+ * same regular expression and the FASTA file has not been changed since.
+ *
+ * @author hallab
+ */
+public class BlastDatabaseIndex implements Closeable {
+
+	public static final String INDEX_FILE_SUFFIX = ".ahrdidx";
+
+	/**
+	 * "AHRDIDX1" in ASCII.
+	 */
+	private static final long MAGIC = 0x4148524449445831L;
+	private static final int VERSION = 1;
+	/**
+	 * magic, version, FASTA size and last modification, number of entries and
+	 * slots, offsets of records and slots, and the length of the regular
+	 * expression that follows.
+	 */
+	private static final int FIXED_HEADER_SIZE = 8 + 4 + 8 + 8 + 8 + 8 + 8 + 8 + 4;
+	/**
+	 * accession length, header offset, description offset, description length
+	 * and sequence length. The accession's bytes follow the accession length.
+	 */
+	private static final int RECORD_FIELDS_SIZE = 4 + 8 + 8 + 4 + 4;
+	/**
+	 * Maximum number of bytes mapped into memory at once. Must be a power of
+	 * two.
+	 */
+	private static final int WINDOW_SIZE = 1 << 30;
+	private static final int READ_BUFFER_SIZE = 1 << 16;
+
+	private final String pathToFasta;
+	private final Charset charset = Charset.defaultCharset();
+	private final long numberOfEntries;
+	private final long numberOfSlots;
+	private final MappedRegion records;
+	private final MappedRegion slots;
+	private final FileInputStream fastaIn;
+	private final FileChannel fasta;
+
+	/**
+	 * Location of a single FASTA entry in the Blast-Database.
+	 */
+	public static class Entry {
+		private final String accession;
+		private final long headerOffset;
+		private final long descriptionOffset;
+		private final int descriptionLength;
+		private final int sequenceLength;
+
+		public Entry(String accession, long headerOffset, long descriptionOffset, int descriptionLength,
+				int sequenceLength) {
+			super();
+			this.accession = accession;
+			this.headerOffset = headerOffset;
+			this.descriptionOffset = descriptionOffset;
+			this.descriptionLength = descriptionLength;
+			this.sequenceLength = sequenceLength;
+		}
+
+		public String getAccession() {
+			return accession;
+		}
+
+		public long getHeaderOffset() {
+			return headerOffset;
+		}
+
+		public long getDescriptionOffset() {
+			return descriptionOffset;
+		}
+
+		public int getDescriptionLength() {
+			return descriptionLength;
+		}
+
+		public int getSequenceLength() {
+			return sequenceLength;
+		}
+	}
+
+	private BlastDatabaseIndex(String pathToFasta, MappedRegion records, MappedRegion slots, long numberOfEntries,
+			long numberOfSlots) throws IOException {
+		super();
+		this.pathToFasta = pathToFasta;
+		this.records = records;
+		this.slots = slots;
+		this.numberOfEntries = numberOfEntries;
+		this.numberOfSlots = numberOfSlots;
+		this.fastaIn = new FileInputStream(pathToFasta);
+		this.fasta = fastaIn.getChannel();
+	}
+
+	/**
+	 * @param pathToFasta
+	 * @return String - The path of the index file of the argument FASTA file.
+	 */
+	public static String indexFilePath(String pathToFasta) {
+		return pathToFasta + INDEX_FILE_SUFFIX;
+	}
+
+	/**
+	 * Opens the index of the argument Blast-Database, if there is one, that
+	 * is up to date and has been built with the argument regular expression.
+	 *
+	 * @param pathToFasta
+	 * @param fastaHeaderRegex
+	 * @return BlastDatabaseIndex or NULL, if there is no usable index.
+	 * @throws IOException
+	 */
+	public static BlastDatabaseIndex open(String pathToFasta, Pattern fastaHeaderRegex) throws IOException {
+		File indexFile = new File(indexFilePath(pathToFasta));
+		if (!indexFile.isFile())
+			return null;
+		File fastaFile = new File(pathToFasta);
+		RandomAccessFile indexIn = new RandomAccessFile(indexFile, "r");
+		try {
+			if (indexIn.length() < FIXED_HEADER_SIZE || indexIn.readLong() != MAGIC || indexIn.readInt() != VERSION) {
+				System.err.println("WARNING: '" + indexFile + "' is not a valid index of Blast database '"
+						+ pathToFasta + "' and is ignored. Please, build it again.");
+				return null;
+			}
+			long fastaSize = indexIn.readLong();
+			long fastaLastModified = indexIn.readLong();
+			long numberOfEntries = indexIn.readLong();
+			long numberOfSlots = indexIn.readLong();
+			long recordsOffset = indexIn.readLong();
+			long slotsOffset = indexIn.readLong();
+			byte[] regex = new byte[indexIn.readInt()];
+			indexIn.readFully(regex);
+			if (fastaSize != fastaFile.length() || fastaLastModified != fastaFile.lastModified()) {
+				System.err.println("WARNING: Index '" + indexFile + "' is outdated, because Blast database '"
+						+ pathToFasta + "' has been changed since. The index is ignored. Please, build it again.");
+				return null;
+			}
+			if (!new String(regex, "UTF-8").equals(fastaHeaderRegex.pattern())) {
+				System.err.println("WARNING: Index '" + indexFile + "' has been built using another "
+						+ Settings.FASTA_HEADER_REGEX_KEY + " than the one set for Blast database '" + pathToFasta
+						+ "'. The index is ignored. Please, build it again.");
+				return null;
+			}
+			FileChannel channel = indexIn.getChannel();
+			// Mapped regions stay valid after the index file is closed:
+			return new BlastDatabaseIndex(pathToFasta,
+					new MappedRegion(channel, FileChannel.MapMode.READ_ONLY, recordsOffset,
+							slotsOffset - recordsOffset),
+					new MappedRegion(channel, FileChannel.MapMode.READ_ONLY, slotsOffset, numberOfSlots * 8),
+					numberOfEntries, numberOfSlots);
+		} finally {
+			indexIn.close();
+		}
+	}
+
+	/**
+	 * Looks up the argument accession.
+	 *
+	 * @param accession
+	 * @return Entry or NULL, if the accession is not in the Blast-Database.
+	 */
+	public Entry get(String accession) {
+		byte[] key = accession.getBytes(charset);
+		long record = find(key, records, slots, numberOfSlots);
+		if (record < 0)
+			return null;
+		long position = record + 4 + key.length;
+		return new Entry(accession, records.getLong(position), records.getLong(position + 8),
+				records.getInt(position + 16), records.getInt(position + 20));
+	}
+
+	/**
+	 * Reads the Human Readable Description of the argument entry from the
+	 * FASTA file.
+	 *
+	 * @param entry
+	 * @return String
+	 * @throws IOException
+	 */
+	public String readDescription(Entry entry) throws IOException {
+		ByteBuffer description = ByteBuffer.allocate(entry.getDescriptionLength());
+		while (description.hasRemaining()) {
+			if (fasta.read(description, entry.getDescriptionOffset() + description.position()) < 0)
+				throw new IOException("Unexpected end of Blast database '" + pathToFasta + "'.");
+		}
+		return new String(description.array(), charset);
+	}
+
+	public long getNumberOfEntries() {
+		return numberOfEntries;
+	}
+
+	@Override
+	public void close() throws IOException {
+		fastaIn.close();
+	}
+
+	/**
+	 * FNV-1a hash of the argument bytes.
+	 */
+	private static long hash(byte[] key) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : key) {
+			h ^= b & 0xFF;
+			h *= 0x100000001b3L;
+		}
+		return h ^ (h >>> 32);
+	}
+
+	/**
+	 * @return long - The position of the record with the argument accession
+	 *         within the records or -1, if there is no such record.
+	 */
+	private static long find(byte[] key, MappedRegion records, MappedRegion slots, long numberOfSlots) {
+		long mask = numberOfSlots - 1;
+		for (long slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+			long value = slots.getLong(slot * 8);
+			if (value == 0)
+				return -1;
+			// Slots hold record positions plus one, zero marks an empty slot:
+			long record = value - 1;
+			if (records.getInt(record) == key.length && records.equals(record + 4, key))
+				return record;
+		}
+	}
+
+	/**
+	 * Scans the argument Blast-Database in FASTA format once and writes its
+	 * index. The index is written into a temporary file which is renamed when
+	 * complete, so that AHRD processes running concurrently never see an
+	 * incomplete index. If an accession occurs more than once, only its first
+	 * entry is indexed. Compressed Blast-Databases cannot be indexed.
+	 *
+	 * @param pathToFasta
+	 * @param fastaHeaderRegex
+	 * @return long - The number of indexed entries
+	 * @throws IOException
+	 */
+	public static long build(String pathToFasta, Pattern fastaHeaderRegex) throws IOException {
+		if (Utils.detectCompression(pathToFasta) != Utils.Compression.NONE)
+			throw new IOException("Blast database '" + pathToFasta
+					+ "' is compressed. Only uncompressed Blast databases can be indexed, because the index points into the FASTA file.");
+		File fastaFile = new File(pathToFasta);
+		File indexFile = new File(indexFilePath(pathToFasta));
+		File tmpFile = new File(indexFile.getPath() + ".tmp");
+		byte[] regex = fastaHeaderRegex.pattern().getBytes("UTF-8");
+		long recordsOffset = FIXED_HEADER_SIZE + regex.length;
+		long fastaSize = fastaFile.length();
+		long fastaLastModified = fastaFile.lastModified();
+		RecordWriter writer = new RecordWriter(
+				new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), READ_BUFFER_SIZE)),
+				fastaHeaderRegex);
+		try {
+			writer.out.writeLong(MAGIC);
+			writer.out.writeInt(VERSION);
+			writer.out.writeLong(fastaSize);
+			writer.out.writeLong(fastaLastModified);
+			// Placeholders for numbers of entries and slots, and offsets:
+			for (int i = 0; i < 4; i++)
+				writer.out.writeLong(0);
+			writer.out.writeInt(regex.length);
+			writer.out.write(regex);
+			InputStream fastaIn = new FileInputStream(fastaFile);
+			try {
+				writer.scan(fastaIn);
+			} finally {
+				fastaIn.close();
+			}
+			// Align the hash table:
+			while ((recordsOffset + writer.recordsSize) % 8 != 0) {
+				writer.out.writeByte(0);
+				writer.recordsSize++;
+			}
+		} finally {
+			writer.out.close();
+		}
+		if (writer.unmatchedHeaders > 0) {
+			System.err.println("WARNING: " + writer.unmatchedHeaders + " FASTA header lines, e.g.\n"
+					+ writer.firstUnmatchedHeader + "\ndo not match provided regular expression\n"
+					+ fastaHeaderRegex.toString()
+					+ "\n. These entries are not indexed and thus ignored, including possibly respective matching BLAST Hits.\n"
+					+ "To fix this, please use - Blast database specific - parameter "
+					+ Settings.FASTA_HEADER_REGEX_KEY + " to provide a regular expression that matches ALL FASTA headers"
+					+ " in Blast database '" + pathToFasta + "' and build the index again.");
+		}
+		long numberOfSlots = 16;
+		while (numberOfSlots < writer.numberOfRecords * 2)
+			numberOfSlots <<= 1;
+		long slotsOffset = recordsOffset + writer.recordsSize;
+		long numberOfEntries = 0;
+		RandomAccessFile index = new RandomAccessFile(tmpFile, "rw");
+		try {
+			index.setLength(slotsOffset + numberOfSlots * 8);
+			FileChannel channel = index.getChannel();
+			MappedRegion records = new MappedRegion(channel, FileChannel.MapMode.READ_ONLY, recordsOffset,
+					writer.recordsSize);
+			MappedRegion slots = new MappedRegion(channel, FileChannel.MapMode.READ_WRITE, slotsOffset,
+					numberOfSlots * 8);
+			long mask = numberOfSlots - 1;
+			long record = 0;
+			for (long i = 0; i < writer.numberOfRecords; i++) {
+				int keyLength = records.getInt(record);
+				byte[] key = new byte[keyLength];
+				records.get(record + 4, key);
+				if (find(key, records, slots, numberOfSlots) < 0) {
+					long slot = hash(key) & mask;
+					while (slots.getLong(slot * 8) != 0)
+						slot = (slot + 1) & mask;
+					slots.putLong(slot * 8, record + 1);
+					numberOfEntries++;
+				}
+				record += RECORD_FIELDS_SIZE + keyLength;
+			}
+			slots.force();
+			index.seek(8 + 4 + 8 + 8);
+			index.writeLong(numberOfEntries);
+			index.writeLong(numberOfSlots);
+			index.writeLong(recordsOffset);
+			index.writeLong(slotsOffset);
+		} finally {
+			index.close();
+		}
+		if (indexFile.exists() && !indexFile.delete())
+			throw new IOException("Could not replace existing index '" + indexFile + "'.");
+		if (!tmpFile.renameTo(indexFile))
+			throw new IOException("Could not rename '" + tmpFile + "' to '" + indexFile + "'.");
+		return numberOfEntries;
+	}
+
+	/**
+	 * Scans a FASTA file byte by byte and writes a record for each entry whose
+	 * header matches the regular expression. Just as
+	 * <code>BlastResult.parseBlastDatabase</code> the sequence length is the
+	 * sum of the lengths of the trimmed sequence lines.
+	 */
+	private static class RecordWriter {
+		private final DataOutputStream out;
+		private final Matcher headerMatcher;
+		private final Charset charset = Charset.defaultCharset();
+		private long recordsSize = 0;
+		private long numberOfRecords = 0;
+		private long unmatchedHeaders = 0;
+		private String firstUnmatchedHeader;
+		/**
+		 * The entry currently read, waiting for its sequence length:
+		 */
+		private byte[] accession;
+		private long headerOffset;
+		private long descriptionOffset;
+		private int descriptionLength;
+		private int sequenceLength;
+
+		public RecordWriter(DataOutputStream out, Pattern fastaHeaderRegex) {
+			super();
+			this.out = out;
+			this.headerMatcher = fastaHeaderRegex.matcher("");
+		}
+
+		public void scan(InputStream fastaIn) throws IOException {
+			byte[] buffer = new byte[READ_BUFFER_SIZE];
+			byte[] header = new byte[256];
+			int headerLength = 0;
+			boolean lineStart = true;
+			boolean inHeader = false;
+			// Positions of the first and last non blank byte of the current
+			// sequence line:
+			long first = -1;
+			long last = -1;
+			long offset = 0;
+			int read;
+			while ((read = fastaIn.read(buffer)) > 0) {
+				for (int i = 0; i < read; i++, offset++) {
+					byte b = buffer[i];
+					if (b == '\n') {
+						if (inHeader) {
+							processHeader(header, headerLength);
+							inHeader = false;
+						} else if (first >= 0) {
+							sequenceLength += (int) (last - first + 1);
+						}
+						first = -1;
+						lineStart = true;
+						continue;
+					}
+					if (lineStart && b == '>') {
+						finishRecord();
+						inHeader = true;
+						headerOffset = offset;
+						headerLength = 0;
+					}
+					lineStart = false;
+					if (inHeader) {
+						if (headerLength == header.length)
+							header = Arrays.copyOf(header, header.length * 2);
+						header[headerLength++] = b;
+					} else if ((b & 0xFF) > ' ') {
+						if (first < 0)
+							first = offset;
+						last = offset;
+					}
+				}
+			}
+			if (inHeader)
+				processHeader(header, headerLength);
+			else if (first >= 0)
+				sequenceLength += (int) (last - first + 1);
+			finishRecord();
+		}
+
+		private void processHeader(byte[] header, int length) {
+			// Just as BufferedReader.readLine, treat '\r' as part of the line
+			// break:
+			if (length > 0 && header[length - 1] == '\r')
+				length--;
+			String line = new String(header, 0, length, charset);
+			headerMatcher.reset(line);
+			if (!headerMatcher.matches()) {
+				if (unmatchedHeaders++ == 0)
+					firstUnmatchedHeader = line.trim();
+				return;
+			}
+			accession = headerMatcher.group(FASTA_PROTEIN_HEADER_ACCESSION_GROUP_NAME).trim().getBytes(charset);
+			int start = headerMatcher.start(FASTA_PROTEIN_HEADER_DESCRIPTION_GROUP_NAME);
+			int end = headerMatcher.end(FASTA_PROTEIN_HEADER_DESCRIPTION_GROUP_NAME);
+			while (start < end && line.charAt(start) <= ' ')
+				start++;
+			while (end > start && line.charAt(end - 1) <= ' ')
+				end--;
+			boolean ascii = true;
+			for (int i = 0; i < length && ascii; i++)
+				ascii = header[i] >= 0;
+			if (ascii) {
+				descriptionOffset = headerOffset + start;
+				descriptionLength = end - start;
+			} else {
+				descriptionOffset = headerOffset + line.substring(0, start).getBytes(charset).length;
+				descriptionLength = line.substring(start, end).getBytes(charset).length;
+			}
+			sequenceLength = 0;
+		}
+
+		private void finishRecord() throws IOException {
+			if (accession == null)
+				return;
+			out.writeInt(accession.length);
+			out.write(accession);
+			out.writeLong(headerOffset);
+			out.writeLong(descriptionOffset);
+			out.writeInt(descriptionLength);
+			out.writeInt(sequenceLength);
+			recordsSize += RECORD_FIELDS_SIZE + accession.length;
+			numberOfRecords++;
+			accession = null;
+		}
+	}
+
+	/**
+	 * A region of a file mapped into memory in windows of at most WINDOW_SIZE
+	 * bytes. Positions are relative to the region's start. Values crossing
+	 * the border of two windows are assembled byte by byte.
+	 */
+	private static class MappedRegion {
+		private final MappedByteBuffer[] windows;
+
+		public MappedRegion(FileChannel channel, FileChannel.MapMode mode, long start, long length)
+				throws IOException {
+			windows = new MappedByteBuffer[(int) ((length + WINDOW_SIZE - 1) / WINDOW_SIZE)];
+			for (int i = 0; i < windows.length; i++) {
+				long windowStart = (long) i * WINDOW_SIZE;
+				windows[i] = channel.map(mode, start + windowStart, Math.min(WINDOW_SIZE, length - windowStart));
+			}
+		}
+
+		public byte get(long position) {
+			return windows[(int) (position / WINDOW_SIZE)].get((int) (position % WINDOW_SIZE));
+		}
+
+		public void get(long position, byte[] dst) {
+			for (int i = 0; i < dst.length; i++)
+				dst[i] = get(position + i);
+		}
+
+		public boolean equals(long position, byte[] bytes) {
+			for (int i = 0; i < bytes.length; i++) {
+				if (get(position + i) != bytes[i])
+					return false;
+			}
+			return true;
+		}
+
+		public int getInt(long position) {
+			MappedByteBuffer window = windows[(int) (position / WINDOW_SIZE)];
+			int offset = (int) (position % WINDOW_SIZE);
+			if (offset + 4 <= window.limit())
+				return window.getInt(offset);
+			int value = 0;
+			for (int i = 0; i < 4; i++)
+				value = (value << 8) | (get(position + i) & 0xFF);
+			return value;
+		}
+
+		public long getLong(long position) {
+			MappedByteBuffer window = windows[(int) (position / WINDOW_SIZE)];
+			int offset = (int) (position % WINDOW_SIZE);
+			if (offset + 8 <= window.limit())
+				return window.getLong(offset);
+			long value = 0;
+			for (int i = 0; i < 8; i++)
+				value = (value << 8) | (get(position + i) & 0xFF);
+			return value;
+		}
+
+		/**
+		 * Only used for the hash table, whose slots never cross the border of
+		 * two windows.
+		 */
+		public void putLong(long position, long value) {
+			windows[(int) (position / WINDOW_SIZE)].putLong((int) (position % WINDOW_SIZE), value);
+		}
+
+		public void force() {
+			for (MappedByteBuffer window : windows)
+				window.force();
+		}
+	}
+}
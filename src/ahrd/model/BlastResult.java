@@ -1,12 +1,12 @@
 package ahrd.model;
 
-import static ahrd.controller.Settings.getSettings;
+import static ahrd.controller.Utils.openReader;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -62,7 +62,7 @@ public class BlastResult implements Comparable<BlastResult> {
 	 * The descriptionScore is calculated by AHRD.
 	 */
 	private Double descriptionScore;
-	private Set<String> tokens = new HashSet<String>();
+	private TokenSet tokens = new TokenSet();
 	/**
 	 * The evaluationScore is calculated while training or evaluating AHRD's
 	 * performance in comparison with the "Best Blast Hit"-Method:
@@ -75,10 +75,11 @@ public class BlastResult implements Comparable<BlastResult> {
 	 * and this BlastResult is the best scoring of the Blast-Search-Result, it
 	 * is obtained from.
 	 */
-	private Set<String> evaluationTokens;
+	private TokenSet evaluationTokens;
 	/**
-	 * The query accession is only stored during the parsing of tabular sequence
-	 * similarity search results. It should only be used in that context.
+	 * The query Protein is set while parsing tabular sequence similarity
+	 * search results. Its Settings are those this BlastResult is processed
+	 * with, see <code>getSettings()</code>.
 	 */
 	private Protein protein;
 
@@ -193,37 +194,7 @@ public class BlastResult implements Comparable<BlastResult> {
 	 */
 	public static Map<String, List<BlastResult>> parseBlastResults(Map<String, Protein> proteinDb, String blastDbName,
 			Set<String> uniqueShortAccessions) throws MissingProteinException, IOException {
-		Map<String, List<BlastResult>> brs = new HashMap<String, List<BlastResult>>();
-		BufferedReader fastaIn = null;
-		try {
-			fastaIn = new BufferedReader(new FileReader(getSettings().getPathToBlastResults(blastDbName)));
-			String str;
-			while ((str = fastaIn.readLine()) != null) {
-				// Only evaluate current line, either if there is no
-				// comment-line-regex given, or if it is given AND it does not
-				// match:
-				if (getSettings().getSeqSimSearchTableCommentLineRegex() == null
-						|| !getSettings().getSeqSimSearchTableCommentLineRegex().matcher(str).matches()) {
-					String[] brFields = str.split(getSettings().getSeqSimSearchTableSep());
-					if (!proteinDb.containsKey(brFields[getSettings().getSeqSimSearchTableQueryCol()])) {
-						throw new MissingProteinException("Could not find Protein for Accession '"
-								+ brFields[getSettings().getSeqSimSearchTableQueryCol()] + "' in Protein Database.");
-					} // ELSE
-					BlastResult br = new BlastResult(brFields[getSettings().getSeqSimSearchTableSubjectCol()],
-							Double.parseDouble(validateDouble(brFields[getSettings().getSeqSimSearchTableEValueCol()])),
-							Integer.parseInt(brFields[getSettings().getSeqSimSearchTableQueryStartCol()]),
-							Integer.parseInt(brFields[getSettings().getSeqSimSearchTableQueryEndCol()]),
-							Integer.parseInt(brFields[getSettings().getSeqSimSearchTableSubjectStartCol()]),
-							Integer.parseInt(brFields[getSettings().getSeqSimSearchTableSubjectEndCol()]),
-							Double.parseDouble(brFields[getSettings().getSeqSimSearchTableBitScoreCol()]), blastDbName,
-							proteinDb.get(brFields[getSettings().getSeqSimSearchTableQueryCol()]));
-					addBlastResult(brs, br, uniqueShortAccessions);
-				}
-			}
-		} finally {
-			fastaIn.close();
-		}
-		return brs;
+		return new SequenceSimilarityTabularSearchResultParser(proteinDb, blastDbName).parse(uniqueShortAccessions);
 	}
 
 	/**
@@ -239,37 +210,42 @@ public class BlastResult implements Comparable<BlastResult> {
 	 */
 	public static void addBlastResult(Map<String, List<BlastResult>> brs, BlastResult br,
 			Set<String> uniqueShortAccessions) {
-		if (brs.containsKey(br.getAccession())) {
-			boolean isMultipleHsp = false;
-			List<BlastResult> sameHitBrs = brs.get(br.getAccession());
-			for (BlastResult iterBr : sameHitBrs) {
-				// If and only if there is a BlastResult of same Hit and Query
-				// that also has a better Bit-Score, replace the one of lower
-				// Bit-Score with the higher one:
-				if (iterBr.getProtein().equals(br.getProtein())) {
-					isMultipleHsp = true;
-					if (iterBr.getBitScore() < br.getBitScore()) {
-						sameHitBrs.remove(iterBr);
-						sameHitBrs.add(br);
-					}
-				}
-			}
-			// If this a Hit for another Protein, add it:
-			if (!isMultipleHsp) {
-				sameHitBrs.add(br);
-			}
+		addBlastResult(brs, br, uniqueShortAccessions, br.getSettings().hasGeneOntologyAnnotations());
+	}
 
-		} else {
-			// Add a new List<BlastResult> containing the argument BlastResult
-			// br to the argument Map brs:
-			List<BlastResult> sameHitBrs = new ArrayList<BlastResult>();
-			sameHitBrs.add(br);
-			brs.put(br.getAccession(), sameHitBrs);
+	/**
+	 * See <code>addBlastResult(Map, BlastResult, Set)</code>. Instead of
+	 * looking it up in the Settings, the caller decides whether the short
+	 * accessions are to be collected.
+	 * 
+	 * @param brs
+	 * @param br
+	 * @param uniqueShortAccessions
+	 * @param collectShortAccessions
+	 *            - TRUE if and only if AHRD is requested to annotate Gene
+	 *            Ontology terms
+	 */
+	public static void addBlastResult(Map<String, List<BlastResult>> brs, BlastResult br,
+			Set<String> uniqueShortAccessions, boolean collectShortAccessions) {
+		List<BlastResult> sameHitBrs = brs.get(br.getAccession());
+		if (!(sameHitBrs instanceof SameHitBlastResults)) {
+			// Add a new List<BlastResult> for the argument BlastResult's Hit
+			// to the argument Map brs:
+			SameHitBlastResults indexedBrs = new SameHitBlastResults();
+			if (sameHitBrs != null) {
+				for (BlastResult iterBr : sameHitBrs)
+					indexedBrs.addHsp(iterBr);
+			}
+			brs.put(br.getAccession(), indexedBrs);
+			sameHitBrs = indexedBrs;
 		}
+		// There is at most a single BlastResult per Query, the one with the
+		// highest Bit-Score:
+		((SameHitBlastResults) sameHitBrs).addHsp(br);
 		// Finally, if AHRD is requested to annotate Gene Ontology Terms, we
 		// need to extract all unique short reference protein (BlastResult)
 		// accessions:
-		if (getSettings().hasGeneOntologyAnnotations()) {
+		if (collectShortAccessions) {
 			uniqueShortAccessions.add(br.getShortAccession());
 		}
 	}
@@ -301,7 +277,9 @@ public class BlastResult implements Comparable<BlastResult> {
 	 * (Subjects) in the argument blastResults. Each time such a Hit is found
 	 * the mentioned measurements are set in the respective instance of
 	 * BlastResult and subsequently the method 'Protein.addBlastResult' is
-	 * invoked.
+	 * invoked. If the Blast-Database has an up to date index, see
+	 * <code>BlastDatabaseIndex</code>, the Hits are looked up in the index
+	 * instead of scanning the whole FASTA file.
 	 * 
 	 * @param proteinDb
 	 * @param blastDbName
@@ -310,14 +288,31 @@ public class BlastResult implements Comparable<BlastResult> {
 	 */
 	public static void parseBlastDatabase(Map<String, Protein> proteinDb, String blastDbName,
 			Map<String, List<BlastResult>> blastResults) throws IOException {
+		Settings settings = Settings.getSettings();
+		BlastDatabaseIndex index = BlastDatabaseIndex.open(settings.getPathToBlastDatabase(blastDbName),
+				settings.getFastaHeaderRegex(blastDbName));
+		if (index != null) {
+			try {
+				parseBlastDatabase(index, blastResults);
+			} finally {
+				index.close();
+			}
+			return;
+		}
 		// Parse line by line FASTA Blast search DB. Extract Subject Lengths and
 		// Subject HRDs.
+		Pattern fastaHeaderRegex = settings.getFastaHeaderRegex(blastDbName);
+		Matcher m = fastaHeaderRegex.matcher("");
+		String accessionDelimiter = settings.getFastaHeaderAccessionDelimiter(blastDbName);
+		Set<String> unresolvedHits = new HashSet<String>(blastResults.keySet());
+		long unmatchedHeaders = 0;
+		String firstUnmatchedHeader = null;
 		BufferedReader fastaIn = null;
 		try {
-			fastaIn = new BufferedReader(new FileReader(getSettings().getPathToBlastDatabase(blastDbName)));
+			fastaIn = openReader(settings.getPathToBlastDatabase(blastDbName), settings.getNumberOfThreads());
 			String str, hrd = new String();
 			String acc = "";
-			Integer hitAALength = new Integer(0);
+			int hitAALength = 0;
 			boolean hit = false;
 			while ((str = fastaIn.readLine()) != null) {
 				if (str.startsWith(">")) {
@@ -326,36 +321,32 @@ public class BlastResult implements Comparable<BlastResult> {
 					if (hit) {
 						fastaEntryValuesForBlastHit(blastResults, acc, hitAALength, hrd);
 						// Clean up to enable processing the next Hit
-						hitAALength = new Integer(0);
-						// Note, that the boolean 'hit' will be set in the
-						// following If-Else-Block.
-
+						hitAALength = 0;
+						hit = false;
+						// Stop reading, once all Hits have been found:
+						if (unresolvedHits.isEmpty())
+							break;
 					}
-
+					// Skip headers of Proteins in the FASTA database, that are
+					// of no relevance within this context, without matching
+					// the regular expression:
+					if (accessionDelimiter != null
+							&& !blastResults.containsKey(extractAccession(str, accessionDelimiter)))
+						continue;
 					// Process the current Fasta-Header-Line:
-					Matcher m = getSettings().getFastaHeaderRegex(blastDbName).matcher(str);
-					if (!m.matches()) {
+					if (!m.reset(str).matches()) {
 						// Provided REGEX to parse FASTA header does not work in
 						// this case:
-						System.err.println("WARNING: FASTA header line\n" + str.trim()
-								+ "\ndoes not match provided regular expression\n"
-								+ getSettings().getFastaHeaderRegex(blastDbName).toString()
-								+ "\n. The header and the following entry, including possibly respective matching BLAST Hits, are ignored and discarded.\n"
-								+ "To fix this, please use - Blast database specific - parameter "
-								+ Settings.FASTA_HEADER_REGEX_KEY
-								+ " to provide a regular expression that matches ALL FASTA headers in Blast database '"
-								+ blastDbName + "'.");
+						if (unmatchedHeaders++ == 0)
+							firstUnmatchedHeader = str.trim();
 					} else if (blastResults.containsKey(m.group(FASTA_PROTEIN_HEADER_ACCESSION_GROUP_NAME).trim())) {
 						// Found the next Blast HIT:
 						acc = m.group(FASTA_PROTEIN_HEADER_ACCESSION_GROUP_NAME).trim();
 						hrd = m.group(FASTA_PROTEIN_HEADER_DESCRIPTION_GROUP_NAME).trim();
+						unresolvedHits.remove(acc);
 						// Following lines, until the next header, contain
 						// information to be collected:
 						hit = true;
-					} else {
-						// Found a Protein in the FASTA database, that is of no
-						// relevance within this context:
-						hit = false;
 					}
 				} else if (hit) {
 					// Process non header-line, if and only if, we are reading
@@ -370,34 +361,87 @@ public class BlastResult implements Comparable<BlastResult> {
 		} finally {
 			fastaIn.close();
 		}
+		if (unmatchedHeaders > 0) {
+			System.err.println("WARNING: " + unmatchedHeaders + " FASTA header line(s), e.g.\n" + firstUnmatchedHeader
+					+ "\ndo not match provided regular expression\n" + fastaHeaderRegex.toString()
+					+ "\n. These headers and the following entries, including possibly respective matching BLAST Hits, are ignored and discarded.\n"
+					+ "To fix this, please use - Blast database specific - parameter "
+					+ Settings.FASTA_HEADER_REGEX_KEY
+					+ " to provide a regular expression that matches ALL FASTA headers in Blast database '"
+					+ blastDbName + "'.");
+		}
 	}
 
-	public static List<BlastResult> filterBestScoringBlastResults(List<BlastResult> blastResults, int howMany) {
-		if (blastResults.size() > howMany) {
-			List<BlastResult> sortedBlastResults = new ArrayList<BlastResult>(blastResults);
-			Collections.sort(sortedBlastResults);
-			blastResults = sortedBlastResults.subList(0, howMany);
-		}
-		return blastResults;
+	/**
+	 * Extracts the accession from a FASTA header line without using a regular
+	 * expression. See <code>Settings.getFastaHeaderAccessionDelimiter</code>.
+	 * 
+	 * @param fastaHeader
+	 *            - starting with '>'
+	 * @param accessionDelimiter
+	 *            - Each of these characters ends the accession
+	 * @return String - The text following the '>' up to the first delimiter,
+	 *         trimmed.
+	 */
+	public static String extractAccession(String fastaHeader, String accessionDelimiter) {
+		int end = 1;
+		while (end < fastaHeader.length() && accessionDelimiter.indexOf(fastaHeader.charAt(end)) < 0)
+			end++;
+		return fastaHeader.substring(1, end).trim();
 	}
 
 	/**
-	 * Sorts unique tokens and returns them concatenated. @NOTE: As this is
-	 * expectedly fast, we do not need to store the generated pattern in the
-	 * BlastResult. We can just generate it again, when needed.
+	 * Looks up the length and human readable description of each Hit in
+	 * argument blastResults in the argument index of the Blast-Database. Hits
+	 * are processed in the order of their entries in the FASTA file, just as
+	 * if the file had been scanned.
 	 * 
-	 * @return String pattern
-	 */
-	public String patternize() {
-		String pattern = "";
-		if (getTokens().size() > 0) {
-			List<String> sortedTkns = new ArrayList<String>(getTokens());
-			Collections.sort(sortedTkns);
-			for (String tkn : sortedTkns) {
-				pattern += tkn;
+	 * @param index
+	 * @param blastResults
+	 * @throws IOException
+	 */
+	public static void parseBlastDatabase(BlastDatabaseIndex index, Map<String, List<BlastResult>> blastResults)
+			throws IOException {
+		List<BlastDatabaseIndex.Entry> hits = new ArrayList<BlastDatabaseIndex.Entry>();
+		for (String acc : blastResults.keySet()) {
+			BlastDatabaseIndex.Entry hit = index.get(acc);
+			if (hit != null)
+				hits.add(hit);
+		}
+		Collections.sort(hits, new Comparator<BlastDatabaseIndex.Entry>() {
+			@Override
+			public int compare(BlastDatabaseIndex.Entry a, BlastDatabaseIndex.Entry b) {
+				return Long.compare(a.getHeaderOffset(), b.getHeaderOffset());
 			}
+		});
+		for (BlastDatabaseIndex.Entry hit : hits) {
+			fastaEntryValuesForBlastHit(blastResults, hit.getAccession(), hit.getSequenceLength(),
+					index.readDescription(hit));
+		}
+	}
+
+	/**
+	 * @param blastResults
+	 * @param howMany
+	 *            - Zero or less keeps all
+	 * @return List - The argument BlastResults, if there are no more than
+	 *         howMany, otherwise the howMany ones with the lowest E-Values
+	 *         sorted by E-Value. These are selected with a bounded heap, see
+	 *         <code>BestBlastResults</code>, instead of sorting all
+	 *         BlastResults.
+	 */
+	public static List<BlastResult> filterBestScoringBlastResults(List<BlastResult> blastResults, int howMany) {
+		// Already bounded during parsing, but possibly not yet sorted:
+		if (blastResults instanceof BestBlastResults)
+			((BestBlastResults) blastResults).finish();
+		if (howMany > 0 && blastResults.size() > howMany) {
+			BestBlastResults bestBlastResults = new BestBlastResults(howMany);
+			for (BlastResult br : blastResults)
+				bestBlastResults.offer(br);
+			bestBlastResults.finish();
+			blastResults = bestBlastResults;
 		}
-		return pattern;
+		return blastResults;
 	}
 
 	/**
@@ -405,7 +449,7 @@ public class BlastResult implements Comparable<BlastResult> {
 	 * in this' tokens field.
 	 */
 	public void tokenize() {
-		List<String> tknBlackList = getSettings().getTokenBlackList(getBlastDatabaseName());
+		Blacklist tknBlackList = getSettings().getCompiledTokenBlacklist(getBlastDatabaseName());
 		this.setTokens(TokenScoreCalculator.tokenize(this.getDescription(), tknBlackList));
 	}
 
@@ -418,7 +462,7 @@ public class BlastResult implements Comparable<BlastResult> {
 	 *         the respective blacklist. FALSE otherwise.
 	 */
 	public boolean passesBlacklist(String blastResultDescriptionLine) {
-		List<String> blacklist = getSettings().getBlastResultsBlackList(getBlastDatabaseName());
+		Blacklist blacklist = getSettings().getCompiledBlastResultsBlacklist(getBlastDatabaseName());
 		return DescriptionScoreCalculator.passesBlacklist(blastResultDescriptionLine, blacklist);
 	}
 
@@ -431,8 +475,7 @@ public class BlastResult implements Comparable<BlastResult> {
 	 *         in which all matches to the respective filters are deleted.
 	 */
 	public String filter(String blastResultDescriptionLine) {
-		List<String> filter = getSettings().getBlastResultsFilter(getBlastDatabaseName());
-		return DescriptionScoreCalculator.filter(blastResultDescriptionLine, filter);
+		return getSettings().getCompiledBlastResultsFilter(getBlastDatabaseName()).filter(blastResultDescriptionLine);
 	}
 
 	/**
@@ -451,16 +494,25 @@ public class BlastResult implements Comparable<BlastResult> {
 		if (getSettings().getEvaluateValidTokens())
 			setEvaluationTokens(getTokens());
 		else
-			setEvaluationTokens(TokenScoreCalculator.tokenize(getDescription(), new ArrayList<String>()));
+			setEvaluationTokens(TokenScoreCalculator.tokenize(getDescription(), Blacklist.EMPTY));
 	}
 
 	public boolean isValid() {
+		return (isValidHit() && getDescription() != null && (!getDescription().equals("")) && getTokens() != null
+				&& getTokens().size() > 0);
+	}
+
+	/**
+	 * @return boolean - TRUE if and only if this' numeric properties, i.e.
+	 *         E-Value, Bit-Score, coordinates and lengths, are valid. Unlike
+	 *         <code>isValid()</code> the Description and Tokens are not
+	 *         checked.
+	 */
+	public boolean isValidHit() {
 		return (getAccession() != null && (!getAccession().equals("")) && getBitScore() != null
-				&& getDescription() != null && (!getDescription().equals("")) && getQueryEnd() != null
-				&& getQueryStart() != null && (getQueryStart() < getQueryEnd()) && getSubjectEnd() != null
-				&& getSubjectStart() != null && (getSubjectEnd() > getSubjectStart()) && getSubjectLength() != null
-				&& getEValue() != null && getTokens() != null && getTokens().size() > 0
-				&& getBlastDatabaseName() != null
+				&& getQueryEnd() != null && getQueryStart() != null && (getQueryStart() < getQueryEnd())
+				&& getSubjectEnd() != null && getSubjectStart() != null && (getSubjectEnd() > getSubjectStart())
+				&& getSubjectLength() != null && getEValue() != null && getBlastDatabaseName() != null
 				&& getSettings().getBlastDatabases().contains(getBlastDatabaseName()));
 	}
 
@@ -478,49 +530,66 @@ public class BlastResult implements Comparable<BlastResult> {
 	 *         descriptionScore, tokens and evaluationScore.
 	 */
 	public BlastResult clone() {
-		return new BlastResult(new String(this.getAccession()), new Double(eValue), new String(description),
-				new Integer(queryStart), new Integer(queryEnd), new Integer(subjectStart), new Integer(subjectEnd),
-				new Integer(subjectLength), new Double(bitScore), new String(blastDatabaseName));
+		BlastResult clone = new BlastResult(new String(this.getAccession()), new Double(eValue),
+				new String(description), new Integer(queryStart), new Integer(queryEnd), new Integer(subjectStart),
+				new Integer(subjectEnd), new Integer(subjectLength), new Double(bitScore),
+				new String(blastDatabaseName));
+		// The clone belongs to the same query Protein and hence the same run:
+		clone.setProtein(getProtein());
+		return clone;
 	}
 
 	/**
-	 * Investigates this instance's properties, especially the Description. If
-	 * the instance is valid and its description passes the Blacklist, it will
-	 * be added as a candidate HRD to the respective query Protein's
-	 * BlastResults.
+	 * Investigates this instance's numeric properties. If they are valid, it
+	 * will be offered as a candidate HRD to the respective query Protein's
+	 * BlastResults, which only keep the best ones. The Description is passed
+	 * through Blacklist and Filter and tokenized later, only if this instance
+	 * is kept, see <code>processDescription()</code> and
+	 * <code>Protein.measureScores()</code>.
 	 */
 	public void generateHRDCandidateForProtein() {
 		// For Training-Purposes:
 		if (getSettings().getWriteBestBlastHitsToOutput()) {
 			// Of course we do have to treat this best-blast-hit
 			// differently than the further to process one below, so
-			// clone:
-			BlastResult theClone = clone();
-			// Pass best Blast-Hit's Description through filter:
-			theClone.setDescription(filter(theClone.getDescription()));
-			// Tokenize without filtering tokens through the Blacklist:
-			theClone.setTokens(TokenScoreCalculator.tokenize(theClone.getDescription(), new ArrayList<String>()));
-			getProtein().getEvaluationScoreCalculator().addUnchangedBlastResult(getBlastDatabaseName(), theClone);
+			// clone. Its Description is filtered and tokenized, once it is
+			// known to be the best, see processUnchangedDescription():
+			getProtein().getEvaluationScoreCalculator().addUnchangedBlastResult(getBlastDatabaseName(), clone());
 		}
-		if (passesBlacklist(getDescription())) {
-			// Pass bestScoringHSP through filter:
-			setDescription(filter(getDescription()));
-			// Tokenize the filtered Description-Line:
-			tokenize();
-			// Pass bestScoringHSP through Blacklist and add it, if it
-			// is still valid:
-			if (isValid()) {
-				// Generate the pattern of the Description's unique
-				// tokens:
-				patternize();
-				// Adds the BlastResult to the getProtein()'s set and
-				// measures the cumulative and total scores later needed
-				// to calculate the Token-Scores:
-				getProtein().addBlastResult(this);
-			}
+		if (isValidHit()) {
+			// Adds the BlastResult to the getProtein()'s set, if it is among
+			// the best:
+			getProtein().addBlastResult(this);
 		}
 	}
 
+	/**
+	 * Passes this' Description through Blacklist and Filter and tokenizes it.
+	 * 
+	 * @return boolean - TRUE if and only if this is still a valid candidate
+	 *         HRD, i.e. its Description passes the Blacklist and has at least
+	 *         a single Token passing the Token-Blacklist.
+	 */
+	public boolean processDescription() {
+		if (!passesBlacklist(getDescription()))
+			return false;
+		// Pass bestScoringHSP through filter:
+		setDescription(filter(getDescription()));
+		// Tokenize the filtered Description-Line:
+		tokenize();
+		return isValid();
+	}
+
+	/**
+	 * Passes the Description of the best unchanged Blast-Hit, used for
+	 * training and evaluation, through the Filter and tokenizes it without
+	 * filtering the Tokens through the Blacklist.
+	 */
+	public void processUnchangedDescription() {
+		setDescription(filter(getDescription()));
+		setTokens(TokenScoreCalculator.tokenize(getDescription(), Blacklist.EMPTY));
+	}
+
 	/**
 	 * Extracts from the possibly longer Accession the shorter one which is used
 	 * in the reference Gene Ontology Annotation (GOA) file. This is required
@@ -528,20 +597,16 @@ public class BlastResult implements Comparable<BlastResult> {
 	 * provides long accessions in the Blast Databases. A very unfortunate lack
 	 * of standardization, indeed!
 	 * 
+	 * Each distinct accession is matched only once, see
+	 * <code>ShortAccessions</code>. Accessions not matched are reported in a
+	 * single summary, see <code>Settings.reportShortAccessionMisses()</code>.
+	 * 
 	 * @return String
 	 */
 	public String getShortAccession() {
 		if (shortAccession == null) {
-			Pattern p = getSettings().getShortAccessionRegex(getBlastDatabaseName());
-			Matcher m = p.matcher(getAccession());
-			setShortAccession(getAccession());
-			if (!m.find()) {
-				System.err.println("WARNING: Regular Expression '" + p.toString()
-						+ "' does NOT match - using pattern.find(...) - Blast Hit Accession '" + getAccession()
-						+ "' - continuing with the original accession. This might lead to unrecognized reference GO annotations!");
-			} else {
-				shortAccession = m.group(SHORT_ACCESSION_GROUP_NAME);
-			}
+			setShortAccession(
+					getSettings().getShortAccessions(getBlastDatabaseName()).shortAccession(getAccession()));
 		}
 		return (shortAccession);
 	}
@@ -598,12 +663,16 @@ public class BlastResult implements Comparable<BlastResult> {
 		this.bitScore = bitScore;
 	}
 
-	public Set<String> getTokens() {
+	public TokenSet getTokens() {
 		return tokens;
 	}
 
+	/**
+	 * @param tokens
+	 *            - Stored as TokenSet, see <code>TokenSet.of(Set)</code>
+	 */
 	public void setTokens(Set<String> tokens) {
-		this.tokens = tokens;
+		this.tokens = TokenSet.of(tokens);
 	}
 
 	public Double getDescriptionScore() {
@@ -632,12 +701,16 @@ public class BlastResult implements Comparable<BlastResult> {
 		this.evaluationScore = evaluationScore;
 	}
 
-	public Set<String> getEvaluationTokens() {
+	public TokenSet getEvaluationTokens() {
 		return evaluationTokens;
 	}
 
+	/**
+	 * @param evaluationTokens
+	 *            - Stored as TokenSet, see <code>TokenSet.of(Set)</code>
+	 */
 	public void setEvaluationTokens(Set<String> evaluationTokens) {
-		this.evaluationTokens = evaluationTokens;
+		this.evaluationTokens = TokenSet.of(evaluationTokens);
 	}
 
 	public Integer getSubjectStart() {
@@ -664,6 +737,15 @@ public class BlastResult implements Comparable<BlastResult> {
 		this.subjectLength = subjectLength;
 	}
 
+	/**
+	 * @return Settings - Those of the run the query Protein is annotated in,
+	 *         see <code>Protein.getSettings()</code>. BlastResults without
+	 *         query Protein use the Settings of the current thread.
+	 */
+	private Settings getSettings() {
+		return getProtein() != null ? getProtein().getSettings() : Settings.getSettings();
+	}
+
 	public Protein getProtein() {
 		return protein;
 	}
@@ -0,0 +1,56 @@
+package ahrd.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A list of regular expressions compiled once, whose matches are deleted from
+ * Human Readable Descriptions. The expressions are applied one after the
+ * other, each to the result of the previous one, so that each sees exactly
+ * the text it always did.
+ *
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author hallab
+ */
+public class DescriptionFilter {
+
+	private static final Pattern MULTIPLE_WHITESPACES = Pattern.compile("\\s{2,}");
+
+	private final List<Pattern> patterns = new ArrayList<Pattern>();
+
+	/**
+	 * @param regexs
+	 *            - The filter's regular expressions
+	 */
+	public DescriptionFilter(List<String> regexs) {
+		super();
+		for (String regex : regexs)
+			patterns.add(Pattern.compile(regex));
+	}
+
+	/**
+	 * @param description
+	 * @return A modified version of argument description in which all matches
+	 *         to any of this filter's regular expressions are deleted.
+	 *         Finally the filtered description is trimmed and multiple
+	 *         white-spaces are condensed into a single white-spaces.
+	 */
+	public String filter(String description) {
+		String filteredDescLine = description;
+		for (Pattern p : patterns) {
+			// Replace with whitespace, so word-boundaries are kept up
+			filteredDescLine = p.matcher(filteredDescLine).replaceAll(" ");
+		}
+		// Condense multiple whitespaces into one and trim the description-line:
+		return MULTIPLE_WHITESPACES.matcher(filteredDescLine).replaceAll(" ").trim();
+	}
+
+	/**
+	 * @return TRUE if and only if this filter has no regular expressions.
+	 */
+	public boolean isEmpty() {
+		return patterns.isEmpty();
+	}
+}
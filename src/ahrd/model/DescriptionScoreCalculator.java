@@ -1,16 +1,13 @@
 package ahrd.model;
 
-import static ahrd.controller.Settings.getSettings;
-
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+
+import ahrd.controller.Settings;
 
 public class DescriptionScoreCalculator {
 
@@ -23,13 +20,20 @@ public class DescriptionScoreCalculator {
 	 *         matches the argument description. FALSE otherwise.
 	 */
 	public static boolean passesBlacklist(String description, List<String> blacklist) {
-		boolean passesBlacklist = (description != null && !description.equals(""));
-		for (Iterator<String> i = blacklist.iterator(); (i.hasNext() && passesBlacklist);) {
-			Pattern p = Pattern.compile(i.next());
-			Matcher m = p.matcher(description);
-			passesBlacklist = !m.find();
-		}
-		return passesBlacklist;
+		return passesBlacklist(description, new Blacklist(blacklist));
+	}
+
+	/**
+	 * Global implementation of the Description Blacklist using a compiled
+	 * Blacklist, see <code>Settings.getCompiledBlastResultsBlacklist</code>.
+	 * 
+	 * @param description
+	 * @param blacklist
+	 * @return TRUE if and only if none of the regular expressions in blacklist
+	 *         matches the argument description. FALSE otherwise.
+	 */
+	public static boolean passesBlacklist(String description, Blacklist blacklist) {
+		return description != null && !description.equals("") && !blacklist.isBlacklisted(description);
 	}
 
 	/**
@@ -43,21 +47,18 @@ public class DescriptionScoreCalculator {
 	 *         white-spaces are condensed into a single white-spaces.
 	 */
 	public static String filter(String description, List<String> filter) {
-		String filteredDescLine = description;
-		for (Iterator<String> i = filter.iterator(); i.hasNext();) {
-			Pattern p = Pattern.compile(i.next());
-			// Replace with whitespace, so word-boundaries are kept up
-			filteredDescLine = p.matcher(filteredDescLine).replaceAll(" ");
-		}
-		// Condense multiple whitespaces into one and trim the description-line:
-		filteredDescLine = filteredDescLine.replaceAll("\\s{2,}", " ").trim();
-		return filteredDescLine;
+		return new DescriptionFilter(filter).filter(description);
 	}
 
 	private Protein protein;
 	private double maxBitScore = 0.0;
 	private BlastResult highestScoringBlastResult;
 	private Double descriptionHighScore;
+	/**
+	 * The reference GO annotations the highest scoring BlastResult has been
+	 * found with, see <code>topScoringBlastResults(int)</code>.
+	 */
+	private Map<String, Set<String>> referenceGoAnnotations;
 
 	public DescriptionScoreCalculator(Protein protein) {
 		super();
@@ -76,32 +77,108 @@ public class DescriptionScoreCalculator {
 	 *            query.
 	 */
 	public void findHighestScoringBlastResult(Map<String, Set<String>> referenceGoAnnotations) {
+		setReferenceGoAnnotations(referenceGoAnnotations);
+		boolean preferGoAnnotated = referenceGoAnnotations != null && !referenceGoAnnotations.isEmpty()
+				&& getSettings().getPreferReferenceWithGoAnnos();
 		BlastResult bestScoringBr = null;
-		Set<Double> scoreRankingWithGoAnnos = new HashSet<Double>();
-		Map<Double, BlastResult> scoreRanking = new HashMap<Double, BlastResult>();
+		BlastResult bestScoringBrWithGoAnnos = null;
 		for (String blastDb : getProtein().getBlastResults().keySet()) {
 			for (BlastResult iterBlastResult : getProtein().getBlastResults().get(blastDb)) {
 				getProtein().getDescriptionScoreCalculator().calcDescriptionScore(iterBlastResult);
 				// Only take Description-Lines into account
-				// that have at least a single non-blacklisted Token:
+				// that have at least a single non-blacklisted Token. Of equally
+				// scoring ones the later wins:
 				if (iterBlastResult.getTokens().size() > 0) {
-					scoreRanking.put(iterBlastResult.getDescriptionScore(), iterBlastResult);
-					if (referenceGoAnnotations != null && !referenceGoAnnotations.isEmpty()
-							&& referenceGoAnnotations.containsKey(iterBlastResult.getShortAccession())
-							&& getSettings().getPreferReferenceWithGoAnnos())
-						scoreRankingWithGoAnnos.add(iterBlastResult.getDescriptionScore());
+					if (bestScoringBr == null || Double.compare(iterBlastResult.getDescriptionScore(),
+							bestScoringBr.getDescriptionScore()) >= 0)
+						bestScoringBr = iterBlastResult;
+					if (preferGoAnnotated && referenceGoAnnotations.containsKey(iterBlastResult.getShortAccession())
+							&& (bestScoringBrWithGoAnnos == null
+									|| Double.compare(iterBlastResult.getDescriptionScore(),
+											bestScoringBrWithGoAnnos.getDescriptionScore()) >= 0))
+						bestScoringBrWithGoAnnos = iterBlastResult;
 				}
 			}
 		}
-		if (scoreRanking.size() > 0) {
-			Set<Double> usedScoreRankin = scoreRankingWithGoAnnos.isEmpty() ? scoreRanking.keySet()
-					: scoreRankingWithGoAnnos;
-			setDescriptionHighScore(Collections.max(usedScoreRankin));
-			bestScoringBr = scoreRanking.get(getDescriptionHighScore());
-		}
+		if (bestScoringBrWithGoAnnos != null)
+			bestScoringBr = bestScoringBrWithGoAnnos;
+		if (bestScoringBr != null)
+			setDescriptionHighScore(bestScoringBr.getDescriptionScore());
 		setHighestScoringBlastResult(bestScoringBr);
 	}
 
+	/**
+	 * Ranks the BlastResults by their Description-Scores, which must have
+	 * been calculated before, e.g. by <code>ScoringKernel.score(Map)</code>.
+	 * Just like <code>findHighestScoringBlastResult(Map)</code> only
+	 * BlastResults having at least a single non-blacklisted Token are taken
+	 * into account and of equally scoring BlastResults the one visited later
+	 * ranks higher. The BlastResults are visited in the order of
+	 * <code>getProtein().getBlastResults()</code>. If the highest scoring
+	 * BlastResult has been found preferring those with GO annotations, these
+	 * rank above all others, so that the highest scoring BlastResult ranks
+	 * first. The ranking is computed in a single pass using a heap holding at
+	 * most k BlastResults.
+	 * 
+	 * @param k
+	 *            - The maximum number of BlastResults to return
+	 * @return List - The at most k best scoring BlastResults, best first.
+	 */
+	public List<BlastResult> topScoringBlastResults(int k) {
+		boolean preferGoAnnotated = referenceGoAnnotations != null && !referenceGoAnnotations.isEmpty()
+				&& getSettings().getPreferReferenceWithGoAnnos();
+		PriorityQueue<RankedBlastResult> heap = new PriorityQueue<RankedBlastResult>(Math.max(1, k));
+		int rank = 0;
+		for (List<BlastResult> blastResults : getProtein().getBlastResults().values()) {
+			for (BlastResult br : blastResults) {
+				if (br.getTokens().size() > 0 && br.getDescriptionScore() != null) {
+					RankedBlastResult candidate = new RankedBlastResult(br, rank,
+							preferGoAnnotated && referenceGoAnnotations.containsKey(br.getShortAccession()));
+					if (heap.size() < k) {
+						heap.add(candidate);
+					} else if (k > 0 && candidate.compareTo(heap.peek()) > 0) {
+						heap.poll();
+						heap.add(candidate);
+					}
+				}
+				rank++;
+			}
+		}
+		List<BlastResult> best = new ArrayList<BlastResult>(heap.size());
+		while (!heap.isEmpty())
+			best.add(heap.poll().blastResult);
+		Collections.reverse(best);
+		return best;
+	}
+
+	/**
+	 * A BlastResult and the position it was visited at, ordered by
+	 * preference, Description-Score and then by position.
+	 */
+	private static class RankedBlastResult implements Comparable<RankedBlastResult> {
+
+		private final BlastResult blastResult;
+		private final double descriptionScore;
+		private final int position;
+		private final boolean preferred;
+
+		public RankedBlastResult(BlastResult blastResult, int position, boolean preferred) {
+			super();
+			this.blastResult = blastResult;
+			this.descriptionScore = blastResult.getDescriptionScore();
+			this.position = position;
+			this.preferred = preferred;
+		}
+
+		@Override
+		public int compareTo(RankedBlastResult other) {
+			if (preferred != other.preferred)
+				return preferred ? 1 : -1;
+			int byScore = Double.compare(descriptionScore, other.descriptionScore);
+			return byScore != 0 ? byScore : Integer.compare(position, other.position);
+		}
+	}
+
 	public void calcDescriptionScore(BlastResult blastResult) {
 		blastResult.setDescriptionScore(
 				getProtein().getLexicalScoreCalculator().lexicalScore(blastResult) + relativeBlastScore(blastResult));
@@ -112,11 +189,15 @@ public class DescriptionScoreCalculator {
 				/ getMaxBitScore();
 	}
 
-	public void measureMaxBitScore(double bitScore) {
+	public synchronized void measureMaxBitScore(double bitScore) {
 		if (bitScore > getMaxBitScore())
 			setMaxBitScore(bitScore);
 	}
 
+	private Settings getSettings() {
+		return getProtein().getSettings();
+	}
+
 	/**
 	 * Get protein.
 	 * 
@@ -170,4 +251,12 @@ public class DescriptionScoreCalculator {
 	public void setDescriptionHighScore(Double descriptionHighScore) {
 		this.descriptionHighScore = descriptionHighScore;
 	}
+
+	public Map<String, Set<String>> getReferenceGoAnnotations() {
+		return referenceGoAnnotations;
+	}
+
+	public void setReferenceGoAnnotations(Map<String, Set<String>> referenceGoAnnotations) {
+		this.referenceGoAnnotations = referenceGoAnnotations;
+	}
 }
\ No newline at end of file
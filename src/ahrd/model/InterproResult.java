@@ -1,11 +1,10 @@
 package ahrd.model;
 
 import static ahrd.controller.Settings.getSettings;
+import static ahrd.controller.Utils.openInputStream;
+import static ahrd.controller.Utils.openReader;
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -38,7 +37,10 @@ public class InterproResult implements Comparable<InterproResult> {
 	private String parentId;
 	private Set<String> contains = new HashSet<String>();
 
-	private static Map<String, InterproResult> interproDb = new HashMap<String, InterproResult>();
+	/**
+	 * Kind of the Interpro-Database in the <code>ReferenceDataRegistry</code>.
+	 */
+	public static final String INTERPRO_DATABASE_KIND = "interpro_database";
 
 	public InterproResult(String id, String shortName, String type) {
 		super();
@@ -71,12 +73,42 @@ public class InterproResult implements Comparable<InterproResult> {
 		return res;
 	}
 
-	public static void initialiseInterproDb() throws IOException,
-			ParsingException {
+	/**
+	 * Loads the Interpro-Database into memory. As it is only read afterwards,
+	 * it is acquired from the <code>ReferenceDataRegistry</code> and thus
+	 * shared by all AHRD runs within the same JVM, e.g. the batches run by the
+	 * <code>Batcher</code>. Each run holds the acquired Interpro-Database
+	 * itself and passes it on, see <code>AHRD.getInterproDb()</code>.
+	 * 
+	 * @return Handle - To be released, when the run no longer needs the
+	 *         Interpro-Database.
+	 */
+	public static ReferenceDataRegistry.Handle<Map<String, InterproResult>> initialiseInterproDb()
+			throws IOException, ParsingException {
+		ReferenceDataRegistry.Handle<Map<String, InterproResult>> handle = ReferenceDataRegistry
+				.getRegistry().acquire(INTERPRO_DATABASE_KIND,
+						getSettings().getPathToInterproDatabase(),
+						new ReferenceDataRegistry.Loader<Map<String, InterproResult>, ParsingException>() {
+							public Map<String, InterproResult> load(String path) throws IOException,
+									ParsingException {
+								return parseInterproDb(path);
+							}
+						});
+		return handle;
+	}
+
+	/**
+	 * Parses the Interpro-Database.
+	 * 
+	 * @param path
+	 * @return Map<String, InterproResult> - The InterproResults by their IDs
+	 */
+	protected static Map<String, InterproResult> parseInterproDb(String path)
+			throws IOException, ParsingException {
+		Map<String, InterproResult> interproDb = new HashMap<String, InterproResult>();
 		Builder parser = new Builder();
-		Document doc = parser.build(new BufferedInputStream(
-				new FileInputStream(new File(getSettings()
-						.getPathToInterproDatabase()))));
+		Document doc = parser.build(new BufferedInputStream(openInputStream(
+				path, getSettings().getNumberOfThreads())));
 		Nodes ipr_nodes = doc.query("//interpro");
 		for (int i = 0; i < ipr_nodes.size(); i++) {
 			Element ipr_el = (Element) ipr_nodes.get(i);
@@ -111,8 +143,9 @@ public class InterproResult implements Comparable<InterproResult> {
 				}
 			}
 			// Add new InterproResult to the Interpro-Memory-Database:
-			getInterproDb().put(ipr.getId(), ipr);
+			interproDb.put(ipr.getId(), ipr);
 		}
+		return interproDb;
 	}
 
 	/**
@@ -121,14 +154,17 @@ public class InterproResult implements Comparable<InterproResult> {
 	 * Gene-Accessions.
 	 * 
 	 * @param proteinDb
+	 * @param interproDb
+	 *            - The Interpro-Database, see <code>initialiseInterproDb()</code>
 	 * @throws IOException
 	 */
-	public static void parseInterproResult(Map<String, Protein> proteinDb)
-			throws IOException, MissingProteinException {
+	public static void parseInterproResult(Map<String, Protein> proteinDb,
+			Map<String, InterproResult> interproDb) throws IOException,
+			MissingProteinException {
 		Set<String> missingInterproIds = new HashSet<String>();
 
-		BufferedReader br = new BufferedReader(new FileReader(new File(
-				getSettings().getPathToInterproResults())));
+		BufferedReader br = openReader(getSettings()
+				.getPathToInterproResults(), getSettings().getNumberOfThreads());
 		String iterLine = null;
 		while ((iterLine = br.readLine()) != null) {
 			Pattern p = Pattern.compile("(\\S+)\\s+.*\\s(IPR\\d{6})\\s.*");
@@ -143,8 +179,8 @@ public class InterproResult implements Comparable<InterproResult> {
 						InterproResult ipr = null;
 						// WARN, if an Interpro-Result is not found in the
 						// memory-database:
-						if (getInterproDb().containsKey(iprId))
-							ipr = getInterproDb().get(iprId);
+						if (interproDb.containsKey(iprId))
+							ipr = interproDb.get(iprId);
 						else
 							missingInterproIds.add(iprId);
 						if (prot != null && ipr != null) {
@@ -161,20 +197,17 @@ public class InterproResult implements Comparable<InterproResult> {
 		br.close();
 	}
 
-	public static Map<String, InterproResult> getInterproDb() {
-		return interproDb;
-	}
-
-	public static void setInterproDb(Map<String, InterproResult> interproDb) {
-		InterproResult.interproDb = interproDb;
-	}
-
 	/**
 	 * Filters out all those Protein's InterproResults, who are parents of or
 	 * contained by any other of the protein's InterproResults. Unfortunately
 	 * this is of O(n^2)!
+	 * 
+	 * @param p
+	 * @param interproDb
+	 *            - The Interpro-Database, see <code>initialiseInterproDb()</code>
 	 */
-	public static void filterForMostInforming(Protein p)
+	public static void filterForMostInforming(Protein p,
+			Map<String, InterproResult> interproDb)
 			throws MissingInterproResultException {
 		Set<InterproResult> mostInformatives = new HashSet<InterproResult>(p
 				.getInterproResults());
@@ -183,8 +216,8 @@ public class InterproResult implements Comparable<InterproResult> {
 					.getInterproResults());
 			iprsToCompare.remove(iprToValidate);
 			for (InterproResult iprToCompare : iprsToCompare) {
-				if (iprToValidate.isParent(iprToCompare)
-						|| iprToCompare.contains(iprToValidate))
+				if (iprToValidate.isParent(iprToCompare, interproDb)
+						|| iprToCompare.contains(iprToValidate, interproDb))
 					mostInformatives.remove(iprToValidate);
 			}
 		}
@@ -195,22 +228,23 @@ public class InterproResult implements Comparable<InterproResult> {
 		return this.getId().compareTo(iprToComapre.getId());
 	}
 
-	public boolean contains(InterproResult container)
+	public boolean contains(InterproResult container,
+			Map<String, InterproResult> interproDb)
 			throws MissingInterproResultException {
 		boolean isContained = false;
-		if (getInterproDb().containsKey(container.getId())) {
+		if (interproDb.containsKey(container.getId())) {
 			isContained = this.getContains().contains(container.getId());
 			// Try to find container recursively
 			// in this Instance's contained InterproResults:
 			if (!isContained && !this.getContains().isEmpty()) {
 				for (String iterContainedId : this.getContains()) {
-					if (!getInterproDb().containsKey(iterContainedId))
+					if (!interproDb.containsKey(iterContainedId))
 						throw new MissingInterproResultException(
 								"Could not find Interpro-Result for ID '"
 										+ iterContainedId
 										+ "' in Memory-Database.");
-					isContained = getInterproDb().get(iterContainedId)
-							.contains(container);
+					isContained = interproDb.get(iterContainedId)
+							.contains(container, interproDb);
 					if (isContained)
 						return true;
 				}
@@ -223,21 +257,22 @@ public class InterproResult implements Comparable<InterproResult> {
 	 * Recursively infers if the argument InterproResult is among the ancestors
 	 * of this InterproResult.
 	 */
-	public boolean isParent(InterproResult parent)
+	public boolean isParent(InterproResult parent,
+			Map<String, InterproResult> interproDb)
 			throws MissingInterproResultException {
 		boolean isParent = false;
-		if (getInterproDb().containsKey(parent.getId())) {
+		if (interproDb.containsKey(parent.getId())) {
 			isParent = getParentId() != null
 					&& getParentId().equals(parent.getId());
 			// try recursive search
 			if (!isParent && getParentId() != null) {
-				if (!getInterproDb().containsKey(this.getParentId()))
+				if (!interproDb.containsKey(this.getParentId()))
 					throw new MissingInterproResultException(
 							"Could not find Interpro-Result for ID '"
 									+ this.getParentId()
 									+ "' in Memory-Database.");
-				isParent = getInterproDb().get(this.getParentId()).isParent(
-						parent);
+				isParent = interproDb.get(this.getParentId()).isParent(
+						parent, interproDb);
 			}
 		}
 		return isParent;
@@ -1,21 +1,35 @@
 package ahrd.model;
 
 import static ahrd.controller.Settings.DEFAULT_LINE_SEP;
-import static ahrd.controller.Settings.getSettings;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import ahrd.controller.Settings;
 import ahrd.exception.MissingAccessionException;
 
 public class Protein {
 
+	/**
+	 * The Settings of the run this Protein is annotated in. All model classes
+	 * working on this Protein, e.g. its BlastResults and calculators, read
+	 * their configuration from here instead of the thread-local Settings, so
+	 * that the Protein can be processed in any thread.
+	 */
+	private final Settings settings;
 	private String accession;
 	private String sequence;
 	private Integer sequenceLength;
@@ -27,8 +41,17 @@ public class Protein {
 	private DescriptionScoreCalculator descriptionScoreCalculator;
 	private EvaluationScoreCalculator evaluationScoreCalculator;
 
+	/**
+	 * Constructs a Protein of the run whose Settings are those of the current
+	 * thread, see <code>Settings.getSettings()</code>.
+	 */
 	public Protein(String accession, Integer sequenceLength) {
+		this(accession, sequenceLength, Settings.getSettings());
+	}
+
+	public Protein(String accession, Integer sequenceLength, Settings settings) {
 		super();
+		this.settings = settings;
 		setAccession(accession);
 		setSequenceLength(sequenceLength);
 		setBlastResults(new HashMap<String, List<BlastResult>>());
@@ -43,21 +66,17 @@ public class Protein {
 			setEvaluationScoreCalculator(new EvaluationScoreCalculator(this));
 	}
 
+	/**
+	 * Constructs a Protein of the run whose Settings are those of the current
+	 * thread, see <code>Settings.getSettings()</code>.
+	 */
 	public Protein(String accession, String aaSequence) {
-		super();
-		setAccession(accession);
+		this(accession, aaSequence, Settings.getSettings());
+	}
+
+	public Protein(String accession, String aaSequence, Settings settings) {
+		this(accession, aaSequence.length(), settings);
 		setSequence(aaSequence);
-		setSequenceLength(aaSequence.length());
-		setBlastResults(new HashMap<String, List<BlastResult>>());
-		setTokenScoreCalculator(new TokenScoreCalculator(this));
-		setLexicalScoreCalculator(new LexicalScoreCalculator(this));
-		setDescriptionScoreCalculator(new DescriptionScoreCalculator(this));
-		// If current Settings require evaluation of AHRD's performance or are
-		// set to train AHRD's parameters, a EvaluationScoreCalculator is
-		// needed:
-		if (getSettings().getWriteBestBlastHitsToOutput()
-				|| getSettings().isInTrainingMode())
-			setEvaluationScoreCalculator(new EvaluationScoreCalculator(this));
 	}
 
 	public static List<String> splitFasta(String fastaStr) {
@@ -85,7 +104,7 @@ public class Protein {
 		// Construct the new Protein, either storing its AA-sequence or just the
 		// sequence's length:
 		Protein p = null;
-		if (getSettings().doOutputFasta())
+		if (Settings.getSettings().doOutputFasta())
 			p = new Protein(accession, sequence);
 		else
 			p = new Protein(accession, sequence.length());
@@ -112,6 +131,107 @@ public class Protein {
 		return proteins;
 	}
 
+	/**
+	 * Construct Memory-Database of Proteins reading the FASTA entries one at a
+	 * time from the argument channel. In contrast to
+	 * <code>initializeProteins(String)</code> the FASTA file is never held in
+	 * memory as a whole. Of each entry only the accession and the sequence
+	 * length are kept, the AA-sequence itself is only held in memory, if
+	 * output is requested to be written in FASTA format.
+	 * 
+	 * @param fasta
+	 *            - The channel to read the FASTA formatted query proteins
+	 *            from. It is <em>not</em> closed by this method.
+	 * @return Map<String, Protein> - Accessions (keys) and the Proteins
+	 *         (values) in the order of the FASTA file
+	 * @throws IOException
+	 * @throws MissingAccessionException
+	 */
+	public static Map<String, Protein> initializeProteins(
+			ReadableByteChannel fasta) throws IOException,
+			MissingAccessionException {
+		return initializeProteins(fasta, Settings.getSettings());
+	}
+
+	/**
+	 * See <code>initializeProteins(ReadableByteChannel)</code>. The Proteins
+	 * are constructed for the run of the argument Settings.
+	 * 
+	 * @param fasta
+	 * @param settings
+	 * @return Map<String, Protein>
+	 * @throws IOException
+	 * @throws MissingAccessionException
+	 */
+	public static Map<String, Protein> initializeProteins(
+			ReadableByteChannel fasta, Settings settings) throws IOException,
+			MissingAccessionException {
+		Map<String, Protein> proteins = new LinkedHashMap<String, Protein>();
+		boolean keepSequence = settings.doOutputFasta();
+		// Like Charset.decode(ByteBuffer), replace malformed and unmappable
+		// bytes, e.g. of Latin-1 encoded headers, instead of failing:
+		BufferedReader fastaIn = new BufferedReader(Channels.newReader(fasta,
+				Charset.defaultCharset().newDecoder()
+						.onMalformedInput(CodingErrorAction.REPLACE)
+						.onUnmappableCharacter(CodingErrorAction.REPLACE), -1));
+		StringBuilder sequence = keepSequence ? new StringBuilder() : null;
+		String header = null;
+		int sequenceLength = 0;
+		String line;
+		while ((line = fastaIn.readLine()) != null) {
+			if (line.startsWith(">")) {
+				if (header != null) {
+					Protein prot = constructFromFastaHeader(header,
+							sequenceLength, sequence, settings);
+					proteins.put(prot.getAccession(), prot);
+				}
+				header = line.substring(1);
+				sequenceLength = 0;
+				if (keepSequence)
+					sequence.setLength(0);
+			} else if (header != null) {
+				// Sequence lines are trimmed, just as in
+				// constructFromFastaEntry(String):
+				String sequencePart = line.trim();
+				sequenceLength += sequencePart.length();
+				if (keepSequence)
+					sequence.append(sequencePart);
+			}
+		}
+		// The last entry is terminated by the end of the file:
+		if (header != null) {
+			Protein prot = constructFromFastaHeader(header, sequenceLength,
+					sequence, settings);
+			proteins.put(prot.getAccession(), prot);
+		}
+		return proteins;
+	}
+
+	/**
+	 * Constructs a Protein from the header line of a FASTA entry (without the
+	 * leading '&gt;') and its already measured sequence length.
+	 * 
+	 * @param header
+	 * @param sequenceLength
+	 * @param sequence
+	 *            - NULL, if the AA-sequence is not to be held in memory.
+	 * @param settings
+	 * @return Protein
+	 * @throws MissingAccessionException
+	 */
+	protected static Protein constructFromFastaHeader(String header,
+			int sequenceLength, StringBuilder sequence, Settings settings)
+			throws MissingAccessionException {
+		String accession = header.split(" ")[0].trim();
+		if (accession.equals("")) {
+			throw new MissingAccessionException(
+					"Missing protein-accession in FASTA header:\n>" + header);
+		}
+		if (sequence != null)
+			return new Protein(accession, sequence.toString(), settings);
+		return new Protein(accession, sequenceLength, settings);
+	}
+
 	/**
 	 * Extracts all unique Gene Ontology (GO) terms annotated to the Proteins in
 	 * argument prots.
@@ -128,26 +248,84 @@ public class Protein {
 	}
 
 	/**
-	 * Adds the BlastResult to the Protein's set and measures the cumulative and
-	 * total scores later needed to calculate the Token-Scores. Also finds the
-	 * highest BitScore and Description-Line-Frequency. The argument BlastResult
-	 * is expected to have passed Blacklist and Filter and is expected to have
-	 * been token- and patternized.
+	 * Offers the BlastResult to the Protein's set, which keeps only the best
+	 * <code>max_blast_results_per_database</code> valid BlastResults of each
+	 * Blast-Database, see <code>BestBlastResults</code>. The argument
+	 * BlastResult is expected to have valid numeric properties. Only if it is
+	 * among the best so far, its Description is passed through Blacklist and
+	 * Filter and tokenized, see <code>BlastResult.processDescription()</code>.
+	 * If it is no longer valid afterwards, it is discarded, so that it does not
+	 * take the place of a valid one. As the Blast-Databases are processed
+	 * concurrently this method is thread-safe. Note, that the scores needed
+	 * to calculate the Token-Scores are measured afterwards by
+	 * <code>measureScores()</code>.
 	 * 
 	 * @param BlastResult
 	 */
-	public void addBlastResult(BlastResult br) {
+	public synchronized void addBlastResult(BlastResult br) {
 		String blastDb = br.getBlastDatabaseName();
-		if (!getBlastResults().containsKey(blastDb)) {
-			getBlastResults().put(blastDb, new ArrayList<BlastResult>());
+		List<BlastResult> brs = getBlastResults().get(blastDb);
+		if (!(brs instanceof BestBlastResults)) {
+			// E.g. set by setBlastResults(Map) or already measured, hence
+			// re-wrapped to again keep only the best BlastResults:
+			BestBlastResults best = new BestBlastResults(getSettings().getMaxBlastResultsPerDatabase());
+			if (brs != null) {
+				for (BlastResult kept : brs)
+					best.offer(kept);
+			}
+			getBlastResults().put(blastDb, best);
+			brs = best;
+		}
+		BestBlastResults best = (BestBlastResults) brs;
+		if (best.wouldKeep(br) && br.processDescription())
+			best.offer(br);
+	}
+
+	/**
+	 * Measures the cumulative and total scores later needed to calculate the
+	 * Token-Scores and finds the highest BitScore of the BlastResults kept by
+	 * <code>addBlastResult</code>, whose Descriptions have already been
+	 * processed. BlastResults set otherwise, see
+	 * <code>setBlastResults(Map)</code>, are first passed through Blacklist and
+	 * Filter and tokenized, and discarded if no longer valid. The
+	 * BlastResults are visited in the order of the Blast-Databases and,
+	 * within each database, sorted by E-Value, if some had to be discarded,
+	 * or otherwise in the order they were added. Hence the floating point sums
+	 * are always computed in the same order, regardless of how the concurrent
+	 * processing of the Blast-Databases was interleaved.
+	 */
+	public synchronized void measureScores() {
+		for (String blastDb : getSettings().getBlastDatabases()) {
+			if (getBlastResults().containsKey(blastDb)) {
+				List<BlastResult> candidates = getBlastResults().get(blastDb);
+				boolean processed = candidates instanceof BestBlastResults;
+				if (processed)
+					((BestBlastResults) candidates).finish();
+				List<BlastResult> brs = new ArrayList<BlastResult>(candidates.size());
+				for (BlastResult br : candidates) {
+					if (processed || br.processDescription()) {
+						brs.add(br);
+						// Measure TokenScore related cumulative and total
+						// Scores:
+						getTokenScoreCalculator().measureScores(br);
+						// Measure highest BitScore:
+						getDescriptionScoreCalculator().measureMaxBitScore(br.getBitScore());
+					}
+				}
+				if (brs.isEmpty())
+					getBlastResults().remove(blastDb);
+				else
+					getBlastResults().put(blastDb, brs);
+			}
 		}
-		getBlastResults().get(blastDb).add(br);
-		// Measure TokenScore related cumulative Scores:
-		getTokenScoreCalculator().measureCumulativeScores(br);
-		// Measure TokenScore related total Scores:
-		getTokenScoreCalculator().measureTotalScores(br);
-		// Measure highest BitScore:
-		getDescriptionScoreCalculator().measureMaxBitScore(br.getBitScore());
+		if (getEvaluationScoreCalculator() != null) {
+			for (BlastResult unchangedBr : getEvaluationScoreCalculator().getUnchangedBlastResults().values())
+				unchangedBr.processUnchangedDescription();
+		}
+	}
+
+	public Settings getSettings() {
+		return settings;
 	}
 
 	public String getAccession() {
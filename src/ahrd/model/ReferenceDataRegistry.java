@@ -0,0 +1,180 @@
+package ahrd.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Holds reference datasets, e.g. the Interpro-Database or the reference Gene
+ * Ontology annotations, that are parsed from a file once and afterwards only
+ * read. All AHRD runs within the same JVM, e.g. the batches run by the
+ * <code>Batcher</code>, acquire them from the single registry
+ * <code>getRegistry()</code>, so that a dataset is parsed only once and then
+ * shared.
+ *
+ * A dataset is identified by its kind, the path of the file it is parsed from
+ * and the file's modification time, so that a changed file is parsed again.
+ * The kind names the dataset and everything besides the file it depends on,
+ * e.g. a regular expression. Each acquired dataset is counted as referenced
+ * until its <code>Handle</code> is released. Datasets no longer referenced
+ * stay registered, so that subsequent runs can reuse them, until
+ * <code>evictUnused()</code> is invoked.
+ *
+ * Datasets must not be modified once loaded.
+ *
+ * @author hallab
+ */
+public class ReferenceDataRegistry {
+
+	private static final ReferenceDataRegistry REGISTRY = new ReferenceDataRegistry();
+
+	/**
+	 * Parses a dataset from a file.
+	 *
+	 * @param <T>
+	 *            - The dataset
+	 * @param <E>
+	 *            - The checked exception parsing may throw besides
+	 *            IOException, use RuntimeException if none
+	 */
+	public interface Loader<T, E extends Exception> {
+		T load(String path) throws IOException, E;
+	}
+
+	/**
+	 * A single reference to a registered dataset.
+	 */
+	public class Handle<T> {
+
+		private final Entry entry;
+		private boolean released = false;
+
+		private Handle(Entry entry) {
+			super();
+			this.entry = entry;
+		}
+
+		@SuppressWarnings("unchecked")
+		public T get() {
+			return (T) entry.dataset;
+		}
+
+		/**
+		 * Releases this reference. Releasing a Handle more than once has no
+		 * effect.
+		 */
+		public void release() {
+			synchronized (ReferenceDataRegistry.this) {
+				if (!released) {
+					released = true;
+					entry.references--;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A registered dataset. Field <code>references</code> is guarded by the
+	 * registry, the dataset is loaded while holding the Entry's own lock.
+	 */
+	private static class Entry {
+
+		private final long lastModified;
+		private int references = 0;
+		private boolean loaded = false;
+		private Object dataset;
+
+		private Entry(long lastModified) {
+			super();
+			this.lastModified = lastModified;
+		}
+	}
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	public static ReferenceDataRegistry getRegistry() {
+		return REGISTRY;
+	}
+
+	/**
+	 * Acquires a reference to the dataset <code>kind</code> parsed from file
+	 * <code>path</code>. If it is not registered yet, or has been parsed
+	 * before the file was last modified, it is parsed with
+	 * <code>loader</code>. Concurrent acquisitions of the same dataset parse
+	 * it only once, different datasets are parsed in parallel. If parsing
+	 * fails, the next acquisition tries again.
+	 *
+	 * @param kind
+	 * @param path
+	 * @param loader
+	 * @return Handle - To be released as soon as the dataset is no longer
+	 *         needed.
+	 * @throws IOException
+	 * @throws E
+	 */
+	public <T, E extends Exception> Handle<T> acquire(String kind, String path, Loader<T, E> loader)
+			throws IOException, E {
+		String key = key(kind, path);
+		long lastModified = new File(path).lastModified();
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null || entry.lastModified != lastModified) {
+				entry = new Entry(lastModified);
+				entries.put(key, entry);
+			}
+			entry.references++;
+		}
+		boolean acquired = false;
+		try {
+			synchronized (entry) {
+				if (!entry.loaded) {
+					entry.dataset = loader.load(path);
+					entry.loaded = true;
+				}
+			}
+			acquired = true;
+		} finally {
+			if (!acquired) {
+				synchronized (this) {
+					entry.references--;
+				}
+			}
+		}
+		return new Handle<T>(entry);
+	}
+
+	/**
+	 * @param kind
+	 * @param path
+	 * @return int - The number of unreleased references to the registered
+	 *         dataset, or -1 if it is not registered.
+	 */
+	public synchronized int getReferences(String kind, String path) {
+		Entry entry = entries.get(key(kind, path));
+		return entry == null ? -1 : entry.references;
+	}
+
+	/**
+	 * Removes all datasets no longer referenced, so that they can be garbage
+	 * collected.
+	 *
+	 * @return int - The number of removed datasets
+	 */
+	public synchronized int evictUnused() {
+		int evicted = 0;
+		for (Iterator<Entry> i = entries.values().iterator(); i.hasNext();) {
+			if (i.next().references <= 0) {
+				i.remove();
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+
+	private static String key(String kind, String path) {
+		return kind + "\t" + new File(path).getAbsolutePath();
+	}
+}
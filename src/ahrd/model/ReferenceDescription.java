@@ -1,12 +1,23 @@
 package ahrd.model;
 
 import static ahrd.controller.Settings.getSettings;
-import java.util.HashSet;
+import static ahrd.controller.Utils.readFile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 public class ReferenceDescription {
 
-	private Set<String> tokens = new HashSet<String>();
+	/**
+	 * Kind of the reference descriptions in the
+	 * <code>ReferenceDataRegistry</code>.
+	 */
+	public static final String REFERENCE_DESCRIPTIONS_KIND = "reference_descriptions";
+
+	private TokenSet tokens = new TokenSet();
 	private String accession;
 	private String description;
 
@@ -27,31 +38,65 @@ public class ReferenceDescription {
 		// the user (Settings) -
 		// NOTE, if the HRD passes the Blacklist and no filtering is
 		// requested the HRD does not have to be processed any further.
-		if (getSettings().getReferencesDescriptionBlacklist() != null
-				&& !getSettings().getReferencesDescriptionBlacklist().isEmpty()) {
+		if (getSettings().getCompiledReferencesDescriptionBlacklist() != null
+				&& !getSettings().getCompiledReferencesDescriptionBlacklist().isEmpty()) {
 			if (!DescriptionScoreCalculator.passesBlacklist(rd.getDescription(),
-					getSettings().getReferencesDescriptionBlacklist())) {
+					getSettings().getCompiledReferencesDescriptionBlacklist())) {
 				// Does NOT pass blacklist
 				rd.setDescription("");
-			} else if (getSettings().getReferencesDescriptionFilter() != null
-					&& !getSettings().getReferencesDescriptionFilter().isEmpty()) {
+			} else if (getSettings().getCompiledReferencesDescriptionFilter() != null
+					&& !getSettings().getCompiledReferencesDescriptionFilter().isEmpty()) {
 				// Passes Blacklist AND is requested to be filtered:
-				rd.setDescription(DescriptionScoreCalculator.filter(rd.getDescription(),
-						getSettings().getReferencesDescriptionFilter()));
+				rd.setDescription(getSettings().getCompiledReferencesDescriptionFilter().filter(rd.getDescription()));
 			}
 		}
 		// Tokenize, and if requested in Settings retain only those tokens that
 		// pass the Blacklist:
-		rd.setTokens(TokenScoreCalculator.tokenize(rd.getDescription(), getSettings().getReferencesTokenBlacklist()));
+		rd.setTokens(TokenScoreCalculator.tokenize(rd.getDescription(),
+				getSettings().getCompiledReferencesTokenBlacklist()));
 		return rd;
 	}
 
-	public Set<String> getTokens() {
+	/**
+	 * Acquires the reference descriptions parsed from the references FASTA
+	 * file from the <code>ReferenceDataRegistry</code>, so that Evaluator runs
+	 * within the same JVM processing the same references with the same
+	 * blacklists and filter share them.
+	 * 
+	 * @return Handle - Of the unmodifiable List of reference descriptions, to
+	 *         be released, when the run no longer needs them.
+	 * @throws IOException
+	 */
+	public static ReferenceDataRegistry.Handle<List<ReferenceDescription>> acquireReferenceDescriptions()
+			throws IOException {
+		String kind = REFERENCE_DESCRIPTIONS_KIND + " "
+				+ getSettings().getPathToReferencesDescriptionBlacklist() + " "
+				+ getSettings().getPathToReferencesDescriptionFilter() + " "
+				+ getSettings().getPathToReferencesTokenBlacklist();
+		final int numberOfThreads = getSettings().getNumberOfThreads();
+		return ReferenceDataRegistry.getRegistry().acquire(kind, getSettings().getPathToReferencesFasta(),
+				new ReferenceDataRegistry.Loader<List<ReferenceDescription>, RuntimeException>() {
+					public List<ReferenceDescription> load(String path) throws IOException {
+						List<ReferenceDescription> rds = new ArrayList<ReferenceDescription>();
+						for (String fastaEntry : Protein.splitFasta(readFile(path, numberOfThreads))) {
+							if (fastaEntry != null && !fastaEntry.trim().equals(""))
+								rds.add(constructFromFastaEntry(fastaEntry.trim()));
+						}
+						return Collections.unmodifiableList(rds);
+					}
+				});
+	}
+
+	public TokenSet getTokens() {
 		return tokens;
 	}
 
+	/**
+	 * @param tokens
+	 *            - Stored as TokenSet, see <code>TokenSet.of(Set)</code>
+	 */
 	public void setTokens(Set<String> tokens) {
-		this.tokens = tokens;
+		this.tokens = TokenSet.of(tokens);
 	}
 
 	public String getAccession() {
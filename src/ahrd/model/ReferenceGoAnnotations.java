@@ -1,10 +1,11 @@
 package ahrd.model;
 
 import static ahrd.controller.Settings.getSettings;
+import static ahrd.controller.Utils.openReader;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -16,6 +17,11 @@ public class ReferenceGoAnnotations {
 
 	public static final String SHORT_ACCESSION_GROUP_NAME = "shortAccession";
 	public static final String GO_TERM_GROUP_NAME = "goTerm";
+	/**
+	 * Kind of the reference GO annotations in the
+	 * <code>ReferenceDataRegistry</code>.
+	 */
+	public static final String REFERENCE_GO_ANNOTATIONS_KIND = "reference_go_annotations";
 
 	/**
 	 * Parses the tabular reference Gene Ontology term annotations (GOA) for
@@ -34,18 +40,56 @@ public class ReferenceGoAnnotations {
 	 */
 	public static Map<String, Set<String>> parseReferenceGoAnnotations(
 			Set<String> uniqueShortAccessions) throws IOException {
+		return parseReferenceGoAnnotations(getSettings()
+				.getPathToGeneOntologyResults(), uniqueShortAccessions);
+	}
+
+	/**
+	 * Acquires all reference Gene Ontology term annotations from the
+	 * <code>ReferenceDataRegistry</code>, so that AHRD runs within the same JVM
+	 * parsing the same reference GOA file with the same regular expression
+	 * share them. Other than <code>parseReferenceGoAnnotations(Set)</code> the
+	 * annotations of all proteins are kept, not only of those found in the
+	 * respective Blast searches.
+	 * 
+	 * @return Handle - Of the unmodifiable short-accessions mapped to Sets of
+	 *         GO terms, to be released, when the run no longer needs them.
+	 * @throws IOException
+	 */
+	public static ReferenceDataRegistry.Handle<Map<String, Set<String>>> acquireReferenceGoAnnotations()
+			throws IOException {
+		return ReferenceDataRegistry.getRegistry().acquire(
+				REFERENCE_GO_ANNOTATIONS_KIND + " " + getSettings().getReferenceGoRegex().pattern(),
+				getSettings().getPathToGeneOntologyResults(),
+				new ReferenceDataRegistry.Loader<Map<String, Set<String>>, RuntimeException>() {
+					public Map<String, Set<String>> load(String path) throws IOException {
+						return Collections.unmodifiableMap(parseReferenceGoAnnotations(path, null));
+					}
+				});
+	}
+
+	/**
+	 * @param path
+	 * @param uniqueShortAccessions
+	 *            - If NULL all reference GO annotations are extracted
+	 * @return Map<String, Set<String>> - short-accessions mapped to Sets of GO
+	 *         terms
+	 * @throws IOException
+	 */
+	protected static Map<String, Set<String>> parseReferenceGoAnnotations(
+			String path, Set<String> uniqueShortAccessions) throws IOException {
 		Map<String, Set<String>> goa = new HashMap<String, Set<String>>();
 		BufferedReader goaIn = null;
 		try {
-			goaIn = new BufferedReader(new FileReader(getSettings()
-					.getPathToGeneOntologyResults()));
+			goaIn = openReader(path, getSettings().getNumberOfThreads());
 			Pattern p = getSettings().getReferenceGoRegex();
 			String line, shortAcc, goTerm = "";
 			while ((line = goaIn.readLine()) != null) {
 				Matcher m = p.matcher(line);
 				if (m.find()) {
 					shortAcc = m.group(SHORT_ACCESSION_GROUP_NAME);
-					if (uniqueShortAccessions.contains(shortAcc)) {
+					if (uniqueShortAccessions == null
+							|| uniqueShortAccessions.contains(shortAcc)) {
 						goTerm = m.group(GO_TERM_GROUP_NAME);
 						addGoAnnotation(goa, shortAcc, goTerm);
 					}
@@ -0,0 +1,99 @@
+package ahrd.model;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * The BlastResults of a single Hit (subject) with at most one BlastResult per
+ * query Protein, in the order the queries have first been seen. Popular Hits
+ * are found by tens of thousands of queries, so once this list exceeds
+ * MIN_INDEXED_SIZE elements the position of each query's BlastResult is kept
+ * in an index, instead of scanning the list for every new High Scoring Pair.
+ *
+ * Elements can only be added with <code>addHsp</code>. As a List this is a
+ * read-only view, all other modifications throw an
+ * UnsupportedOperationException, so that the index cannot get out of step
+ * with the list.
+ *
+ * @author hallab
+ */
+public class SameHitBlastResults extends AbstractList<BlastResult> implements RandomAccess {
+
+	/**
+	 * Lists of at most this many BlastResults are scanned linearly for the
+	 * query Protein.
+	 */
+	public static final int MIN_INDEXED_SIZE = 8;
+
+	/**
+	 * Query Protein (key) to the position of its BlastResult (value). NULL as
+	 * long as this list is small.
+	 */
+	private Map<Protein, Integer> queryIndex;
+	/**
+	 * The BlastResults, at most one per query Protein.
+	 */
+	private final List<BlastResult> brs = new ArrayList<BlastResult>(2);
+
+	public SameHitBlastResults() {
+		super();
+	}
+
+	/**
+	 * Adds the argument High Scoring Pair (HSP), if there is no BlastResult
+	 * for the same query Protein yet. Otherwise the argument replaces the
+	 * present BlastResult, if and only if it has a better Bit-Score.
+	 *
+	 * @param br
+	 */
+	public void addHsp(BlastResult br) {
+		int i = indexOfQuery(br.getProtein());
+		if (i < 0) {
+			brs.add(br);
+			if (queryIndex != null)
+				queryIndex.put(br.getProtein(), size() - 1);
+			else if (size() > MIN_INDEXED_SIZE)
+				indexQueries();
+		} else if (get(i).getBitScore() < br.getBitScore()) {
+			brs.set(i, br);
+		}
+	}
+
+	@Override
+	public BlastResult get(int index) {
+		return brs.get(index);
+	}
+
+	@Override
+	public int size() {
+		return brs.size();
+	}
+
+	/**
+	 * @param query
+	 * @return int - The position of the BlastResult of the argument query
+	 *         Protein, or -1 if there is none.
+	 */
+	public int indexOfQuery(Protein query) {
+		if (queryIndex != null) {
+			Integer i = queryIndex.get(query);
+			return i == null ? -1 : i;
+		}
+		for (int i = 0; i < size(); i++) {
+			if (get(i).getProtein() == query)
+				return i;
+		}
+		return -1;
+	}
+
+	private void indexQueries() {
+		queryIndex = new IdentityHashMap<Protein, Integer>(size() * 2);
+		for (int i = 0; i < size(); i++) {
+			queryIndex.put(get(i).getProtein(), i);
+		}
+	}
+}
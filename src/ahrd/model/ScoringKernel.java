@@ -0,0 +1,220 @@
+package ahrd.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ahrd.controller.Settings;
+
+/**
+ * Scores all candidate BlastResults of a single Protein in a few passes over a
+ * columnar table. On construction the candidates are packed into parallel
+ * arrays holding their Bit-Scores, the weights of their Blast-Databases and
+ * their patterns. A pattern is a distinct set of Tokens, stored as the slots
+ * its Tokens occupy in the Protein's <code>TokenScoreTable</code>. Many
+ * candidates often share a pattern, e.g. "uncharacterized protein".
+ * <code>score(Map)</code> then computes the Token-Scores, filters the
+ * non-informative ones, computes each pattern's Lexical-Score, each
+ * candidate's Description-Score, and finds the highest scoring candidate.
+ *
+ * The results are exactly those of <code>assignTokenScores()</code>,
+ * <code>filterTokenScores()</code> and
+ * <code>findHighestScoringBlastResult(Map)</code> invoked one after the
+ * other: Every sum is computed in the same order and ties are broken the same
+ * way, see <code>DescriptionScoreCalculator.topScoringBlastResults(int)</code>.
+ *
+ * @author hallab
+ */
+public class ScoringKernel {
+
+	private final Protein protein;
+	private final Settings settings;
+	private final BlastResult[] candidates;
+	private final double[] bitScores;
+	private final double[] descriptionScoreBitScoreWeights;
+	/**
+	 * The pattern of each candidate.
+	 */
+	private final int[] candidatePatterns;
+	/**
+	 * The Tokens of pattern p occupy the elements patternOffsets[p] to
+	 * patternOffsets[p + 1] - 1 of patternSlots, in the order of the Tokens
+	 * themselves, see <code>TokenSet.idsInTokenOrder()</code>.
+	 */
+	private final int[] patternOffsets;
+	private final int[] patternSlots;
+
+	public ScoringKernel(Protein protein) {
+		super();
+		this.protein = protein;
+		this.settings = protein.getSettings();
+		int noCandidates = 0;
+		for (List<BlastResult> blastResults : protein.getBlastResults().values())
+			noCandidates += blastResults.size();
+		this.candidates = new BlastResult[noCandidates];
+		this.bitScores = new double[noCandidates];
+		this.descriptionScoreBitScoreWeights = new double[noCandidates];
+		this.candidatePatterns = new int[noCandidates];
+		Map<Pattern, Integer> patterns = new HashMap<Pattern, Integer>();
+		List<int[]> patternIds = new ArrayList<int[]>();
+		int noPatternTokens = 0;
+		int i = 0;
+		for (String blastDb : protein.getBlastResults().keySet()) {
+			double descriptionScoreBitScoreWeight = settings.getDescriptionScoreBitScoreWeight(blastDb);
+			for (BlastResult br : protein.getBlastResults().get(blastDb)) {
+				candidates[i] = br;
+				bitScores[i] = br.getBitScore();
+				descriptionScoreBitScoreWeights[i] = descriptionScoreBitScoreWeight;
+				TokenSet tokens = br.getTokens();
+				int[] ids = new int[tokens.size()];
+				for (int t = 0; t < ids.length; t++)
+					ids[t] = tokens.idAt(t);
+				Pattern pattern = new Pattern(ids);
+				Integer p = patterns.get(pattern);
+				if (p == null) {
+					p = patternIds.size();
+					patterns.put(pattern, p);
+					patternIds.add(tokens.idsInTokenOrder());
+					noPatternTokens += ids.length;
+				}
+				candidatePatterns[i] = p;
+				i++;
+			}
+		}
+		this.patternOffsets = new int[patternIds.size() + 1];
+		this.patternSlots = new int[noPatternTokens];
+		TokenScoreTable scoreTable = protein.getTokenScoreCalculator().getScoreTable();
+		int k = 0;
+		for (int p = 0; p < patternIds.size(); p++) {
+			patternOffsets[p] = k;
+			for (int id : patternIds.get(p))
+				patternSlots[k++] = scoreTable.slotFor(id);
+		}
+		patternOffsets[patternIds.size()] = k;
+	}
+
+	/**
+	 * @return int - The number of distinct patterns of the candidates.
+	 */
+	public int getNumberOfPatterns() {
+		return patternOffsets.length - 1;
+	}
+
+	/**
+	 * @param p
+	 * @return boolean - TRUE if and only if pattern p has at least a single
+	 *         Token.
+	 */
+	private boolean hasTokens(int p) {
+		return patternOffsets[p + 1] > patternOffsets[p];
+	}
+
+	/**
+	 * Assigns the Protein's Tokens their Token-Scores, the candidates their
+	 * Description-Scores and the Protein's DescriptionScoreCalculator the
+	 * highest scoring candidate.
+	 *
+	 * @param referenceGoAnnotations
+	 *            See
+	 *            <code>DescriptionScoreCalculator.findHighestScoringBlastResult(Map)</code>
+	 */
+	public void score(Map<String, Set<String>> referenceGoAnnotations) {
+		TokenScoreCalculator tsc = protein.getTokenScoreCalculator();
+		TokenScoreTable scoreTable = tsc.getScoreTable();
+		// Token-Scores:
+		TokenScoreCalculator.validateTokenScoreWeights(settings);
+		double bitScoreWeight = settings.getTokenScoreBitScoreWeight();
+		double databaseScoreWeight = settings.getTokenScoreDatabaseScoreWeight();
+		double overlapScoreWeight = settings.getTokenScoreOverlapScoreWeight();
+		double tokenHighScore = tsc.getTokenHighScore();
+		for (int slot : patternSlots) {
+			if (!scoreTable.isPresent(TokenScoreTable.TOKEN_SCORE, slot)) {
+				double tokenScore = tsc.tokenScore(slot, bitScoreWeight, databaseScoreWeight, overlapScoreWeight);
+				scoreTable.set(TokenScoreTable.TOKEN_SCORE, slot, tokenScore);
+				if (tokenScore > tokenHighScore)
+					tokenHighScore = tokenScore;
+			}
+		}
+		tsc.setTokenHighScore(tokenHighScore);
+		// Lower the scores of non-informative Tokens:
+		tsc.filterTokenScores();
+		// Lexical- and Description-Scores:
+		double halfTokenHighScore = tokenHighScore / 2;
+		double maxBitScore = protein.getDescriptionScoreCalculator().getMaxBitScore();
+		// Once per pattern:
+		double[] lexicalScores = new double[getNumberOfPatterns()];
+		for (int p = 0; p < lexicalScores.length; p++) {
+			double sumOfTokenScores = 0.0;
+			double noInformativeTokens = 0.0;
+			for (int k = patternOffsets[p]; k < patternOffsets[p + 1]; k++) {
+				double tokenScore = scoreTable.get(TokenScoreTable.TOKEN_SCORE, patternSlots[k]);
+				sumOfTokenScores += tokenScore;
+				if (tokenScore > halfTokenHighScore)
+					noInformativeTokens += 1.0;
+			}
+			double correctionFactor = ((double) (patternOffsets[p + 1] - patternOffsets[p])) / noInformativeTokens;
+			lexicalScores[p] = (sumOfTokenScores / tokenHighScore) / correctionFactor;
+		}
+		// Once per candidate:
+		double[] descriptionScores = new double[candidates.length];
+		for (int i = 0; i < candidates.length; i++) {
+			double relativeBlastScore = descriptionScoreBitScoreWeights[i] * bitScores[i] / maxBitScore;
+			descriptionScores[i] = lexicalScores[candidatePatterns[i]] + relativeBlastScore;
+			candidates[i].setDescriptionScore(descriptionScores[i]);
+		}
+		// Highest scoring candidate having at least a single non-blacklisted
+		// Token. Of equally scoring ones the later wins. If requested, prefer
+		// candidates with GO annotations:
+		boolean preferGoAnnotated = referenceGoAnnotations != null && !referenceGoAnnotations.isEmpty()
+				&& settings.getPreferReferenceWithGoAnnos();
+		int best = -1;
+		int bestWithGoAnnos = -1;
+		for (int i = 0; i < candidates.length; i++) {
+			if (hasTokens(candidatePatterns[i])) {
+				if (best < 0 || Double.compare(descriptionScores[i], descriptionScores[best]) >= 0)
+					best = i;
+				if (preferGoAnnotated && referenceGoAnnotations.containsKey(candidates[i].getShortAccession())
+						&& (bestWithGoAnnos < 0
+								|| Double.compare(descriptionScores[i], descriptionScores[bestWithGoAnnos]) >= 0))
+					bestWithGoAnnos = i;
+			}
+		}
+		if (bestWithGoAnnos >= 0)
+			best = bestWithGoAnnos;
+		protein.getDescriptionScoreCalculator().setReferenceGoAnnotations(referenceGoAnnotations);
+		BlastResult bestScoringBr = null;
+		if (best >= 0) {
+			bestScoringBr = candidates[best];
+			protein.getDescriptionScoreCalculator().setDescriptionHighScore(descriptionScores[best]);
+		}
+		protein.getDescriptionScoreCalculator().setHighestScoringBlastResult(bestScoringBr);
+	}
+
+	/**
+	 * The sorted Token-IDs of a pattern as key of a HashMap.
+	 */
+	private static class Pattern {
+
+		private final int[] ids;
+		private final int hashCode;
+
+		public Pattern(int[] ids) {
+			super();
+			this.ids = ids;
+			this.hashCode = Arrays.hashCode(ids);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Pattern && Arrays.equals(ids, ((Pattern) other).ids);
+		}
+	}
+}
@@ -1,5 +1,951 @@
 package ahrd.model;
 
+import static ahrd.controller.Settings.getSettings;
+import static ahrd.controller.Settings.setSettings;
+import static ahrd.controller.Utils.detectCompression;
+import static ahrd.controller.Utils.openInputStream;
+import static ahrd.controller.Utils.openReader;
+import static ahrd.model.BlastResult.addBlastResult;
+import static ahrd.model.BlastResult.validateDouble;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ahrd.controller.Settings;
+import ahrd.controller.Utils.Compression;
+import ahrd.exception.MissingProteinException;
+
+/**
+ * Parses tabular sequence similarity search results (e.g. Blast8 or DIAMOND
+ * output) directly from a memory mapped file. Lines are scanned byte by byte
+ * for the configured separator and only the configured columns (query,
+ * subject, e-value, bit-score, query- and subject-start and -end) are decoded
+ * straight into primitives. Scanning of a line stops after the last needed
+ * column. Query accessions are looked up in the protein database without
+ * creating any Strings, subject accessions are only converted to Strings once
+ * per unique accession.
+ *
+ * If the separator is not a single literal character, the table is parsed
+ * line by line splitting on the separator as a regular expression, just as
+ * AHRD always did.
+ *
+ * Large tables are split into chunks of complete lines, which are parsed in
+ * parallel. Compressed tables (gzip or BGZF) are decompressed while streaming
+ * through them, see <code>Utils.openInputStream</code>.
+ *
+ * All required settings are read once on construction, so that parsing does
+ * not need to consult the (thread local) Settings.
+ *
+ * @author hallab
+ */
 public class SequenceSimilarityTabularSearchResultParser {
 
+	/**
+	 * Maximum number of bytes mapped into memory at once. The table is mapped
+	 * in consecutive windows, each ending at a line break.
+	 */
+	public static final int MAX_MAPPED_WINDOW_SIZE = 1 << 30;
+
+	/**
+	 * Tables are only split into chunks parsed in parallel, if each chunk has
+	 * at least this many bytes.
+	 */
+	public static final long MIN_CHUNK_SIZE = 16L << 20;
+
+	/**
+	 * Initial size of the buffer compressed tables are decompressed into.
+	 */
+	public static final int STREAM_BUFFER_SIZE = 1 << 22;
+
+	/**
+	 * Characters that have a special meaning in regular expressions. A single
+	 * character separator is only scanned for literally, if it is none of
+	 * these.
+	 */
+	private static final String REGEX_META_CHARACTERS = ".$|()[]{}^?*+\\";
+
+	/**
+	 * Powers of ten exactly representable as doubles. Used by the fast path of
+	 * <code>parseDouble</code>.
+	 */
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private final Map<String, Protein> proteinDb;
+	private final String blastDbName;
+	private final String pathToTable;
+	private final Charset charset = Charset.defaultCharset();
+	private final String sep;
+	private final Pattern commentLineRegex;
+	private final boolean collectShortAccessions;
+	private final int queryCol;
+	private final int subjectCol;
+	private final int queryStartCol;
+	private final int queryEndCol;
+	private final int subjectStartCol;
+	private final int subjectEndCol;
+	private final int eValueCol;
+	private final int bitScoreCol;
+	/**
+	 * The highest index of all columns that need to be decoded.
+	 */
+	private final int lastNeededCol;
+	/**
+	 * Query protein accessions encoded as bytes. Built on first use, see
+	 * <code>proteinIndex()</code>.
+	 */
+	private ByteKeyIndex<Protein> proteinIndex;
+	/**
+	 * Parsing large tables is done in parallel by this number of threads.
+	 */
+	private final int numberOfThreads;
+	/**
+	 * The Settings are needed in the worker threads to extract short
+	 * accessions, if AHRD is requested to annotate Gene Ontology terms.
+	 */
+	private final Settings settings;
+
+	/**
+	 * Reads all parameters required to parse the sequence similarity search
+	 * result table of the argument Blast-Database from the current Settings.
+	 *
+	 * @param proteinDb
+	 * @param blastDbName
+	 */
+	public SequenceSimilarityTabularSearchResultParser(Map<String, Protein> proteinDb, String blastDbName) {
+		super();
+		Settings settings = getSettings();
+		this.settings = settings;
+		this.numberOfThreads = settings.getNumberOfThreads();
+		this.proteinDb = proteinDb;
+		this.blastDbName = blastDbName;
+		this.pathToTable = settings.getPathToBlastResults(blastDbName);
+		this.sep = settings.getSeqSimSearchTableSep();
+		this.commentLineRegex = settings.getSeqSimSearchTableCommentLineRegex();
+		this.collectShortAccessions = settings.hasGeneOntologyAnnotations();
+		this.queryCol = settings.getSeqSimSearchTableQueryCol();
+		this.subjectCol = settings.getSeqSimSearchTableSubjectCol();
+		this.queryStartCol = settings.getSeqSimSearchTableQueryStartCol();
+		this.queryEndCol = settings.getSeqSimSearchTableQueryEndCol();
+		this.subjectStartCol = settings.getSeqSimSearchTableSubjectStartCol();
+		this.subjectEndCol = settings.getSeqSimSearchTableSubjectEndCol();
+		this.eValueCol = settings.getSeqSimSearchTableEValueCol();
+		this.bitScoreCol = settings.getSeqSimSearchTableBitScoreCol();
+		int maxCol = 0;
+		for (int col : new int[] { queryCol, subjectCol, queryStartCol, queryEndCol, subjectStartCol, subjectEndCol,
+				eValueCol, bitScoreCol }) {
+			maxCol = Math.max(maxCol, col);
+		}
+		this.lastNeededCol = maxCol;
+	}
+
+	/**
+	 * @return ByteKeyIndex<Protein> - The query Proteins keyed by their
+	 *         accessions encoded as bytes. Only needed to parse whole tables
+	 *         byte by byte, hence built on first use.
+	 */
+	protected synchronized ByteKeyIndex<Protein> proteinIndex() {
+		if (proteinIndex == null) {
+			proteinIndex = new ByteKeyIndex<Protein>(proteinDb.size());
+			for (Map.Entry<String, Protein> entry : proteinDb.entrySet()) {
+				byte[] key = entry.getKey().getBytes(charset);
+				proteinIndex.put(key, 0, key.length, entry.getValue());
+			}
+		}
+		return proteinIndex;
+	}
+
+	/**
+	 * @return TRUE if and only if the configured separator is a single
+	 *         character that can be scanned for byte by byte.
+	 */
+	public boolean isLiteralSingleByteSeparator() {
+		return sep.length() == 1 && sep.charAt(0) < 128 && REGEX_META_CHARACTERS.indexOf(sep.charAt(0)) < 0;
+	}
+
+	/**
+	 * Parses the whole sequence similarity search result table. Tables larger
+	 * than MIN_CHUNK_SIZE are split into chunks parsed in parallel, see
+	 * <code>parse(Set, int)</code>.
+	 *
+	 * @param uniqueShortAccessions
+	 *            - Used only if AHRD is requested to generate Gene Ontology
+	 *            term annotations
+	 * @return Map<String,List<BlastResult>> Set of Hit-Accessions (Key) to the
+	 *         full BlastResult(s) (Value)
+	 * @throws IOException
+	 * @throws MissingProteinException
+	 */
+	public Map<String, List<BlastResult>> parse(Set<String> uniqueShortAccessions)
+			throws IOException, MissingProteinException {
+		long tableSize = new File(pathToTable).length();
+		int numberOfChunks = (int) Math.max(1, Math.min(numberOfThreads, tableSize / MIN_CHUNK_SIZE));
+		return parse(uniqueShortAccessions, numberOfChunks);
+	}
+
+	/**
+	 * Parses the whole sequence similarity search result table split into the
+	 * argument number of chunks. Each chunk is a range of complete lines and
+	 * is parsed into its own Map on a fork join pool, the one of the invoking
+	 * thread, if any, or otherwise one of at most <code>numberOfThreads</code>
+	 * threads. The chunks' results are
+	 * merged in the order of the chunks applying the same rule as
+	 * <code>BlastResult.addBlastResult</code>. Hence the result is identical
+	 * to the one obtained by parsing the table sequentially.
+	 *
+	 * @param uniqueShortAccessions
+	 *            - Used only if AHRD is requested to generate Gene Ontology
+	 *            term annotations
+	 * @param numberOfChunks
+	 * @return Map<String,List<BlastResult>> Set of Hit-Accessions (Key) to the
+	 *         full BlastResult(s) (Value)
+	 * @throws IOException
+	 * @throws MissingProteinException
+	 */
+	public Map<String, List<BlastResult>> parse(final Set<String> uniqueShortAccessions, int numberOfChunks)
+			throws IOException, MissingProteinException {
+		Map<String, List<BlastResult>> brs = new HashMap<String, List<BlastResult>>();
+		if (!isLiteralSingleByteSeparator()) {
+			parseSplittingLines(brs, uniqueShortAccessions);
+			return brs;
+		}
+		if (detectCompression(pathToTable) != Compression.NONE) {
+			parseStream(brs, uniqueShortAccessions);
+			return brs;
+		}
+		FileInputStream tableIn = new FileInputStream(pathToTable);
+		try {
+			final FileChannel table = tableIn.getChannel();
+			final long[] boundaries = chunkBoundaries(table, numberOfChunks);
+			if (boundaries.length == 2) {
+				parse(table, boundaries[0], boundaries[1], brs, uniqueShortAccessions,
+						new ByteKeyIndex<String>(1024));
+				return brs;
+			}
+			// Invoked on a fork join pool, e.g. by AHRD.parseBlastResults(), the
+			// chunks are forked into that pool, so that they share its
+			// threads with the caller's other tasks:
+			boolean ownPool = !ForkJoinTask.inForkJoinPool();
+			ForkJoinPool pool = ownPool ? new ForkJoinPool(Math.min(numberOfThreads, boundaries.length - 1)) : null;
+			List<Future<Map<String, List<BlastResult>>>> chunks = new ArrayList<Future<Map<String, List<BlastResult>>>>();
+			try {
+				for (int i = 0; i < boundaries.length - 1; i++) {
+					final long from = boundaries[i];
+					final long to = boundaries[i + 1];
+					Callable<Map<String, List<BlastResult>>> parseChunk = new Callable<Map<String, List<BlastResult>>>() {
+						@Override
+						public Map<String, List<BlastResult>> call() throws Exception {
+							setSettings(settings);
+							Map<String, List<BlastResult>> chunkBrs = new HashMap<String, List<BlastResult>>();
+							Set<String> chunkShortAccessions = new HashSet<String>();
+							parse(table, from, to, chunkBrs, chunkShortAccessions, new ByteKeyIndex<String>(1024));
+							synchronized (uniqueShortAccessions) {
+								uniqueShortAccessions.addAll(chunkShortAccessions);
+							}
+							return chunkBrs;
+						}
+					};
+					ForkJoinTask<Map<String, List<BlastResult>>> chunk = ForkJoinTask.adapt(parseChunk);
+					chunks.add(ownPool ? pool.submit(chunk) : chunk.fork());
+				}
+				// Merge in the order of the chunks:
+				for (Future<Map<String, List<BlastResult>>> chunk : chunks) {
+					merge(brs, getChunk(chunk));
+				}
+			} finally {
+				if (ownPool) {
+					pool.shutdownNow();
+				} else {
+					// Chunks not yet parsed, should another chunk have failed:
+					for (Future<Map<String, List<BlastResult>>> chunk : chunks)
+						chunk.cancel(true);
+				}
+			}
+		} finally {
+			tableIn.close();
+		}
+		return brs;
+	}
+
+	/**
+	 * Waits for the argument chunk to be parsed and passes on any exception
+	 * thrown while doing so.
+	 */
+	private static Map<String, List<BlastResult>> getChunk(Future<Map<String, List<BlastResult>>> chunk)
+			throws IOException, MissingProteinException {
+		try {
+			return chunk.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while parsing sequence similarity search results.", e);
+		} catch (ExecutionException e) {
+			// The fork join pool wraps checked exceptions into
+			// RuntimeExceptions:
+			Throwable cause = e.getCause();
+			for (Throwable t = cause; t != null; t = t.getCause()) {
+				if (t instanceof MissingProteinException)
+					throw (MissingProteinException) t;
+				if (t instanceof IOException)
+					throw (IOException) t;
+			}
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Adds all BlastResults of the argument chunk to the argument Map brs
+	 * using <code>BlastResult.addBlastResult</code>. So for each pair of Query
+	 * and Hit only the first High Scoring Pair with the best Bit-Score is
+	 * kept.
+	 *
+	 * @param brs
+	 * @param chunk
+	 */
+	protected static void merge(Map<String, List<BlastResult>> brs, Map<String, List<BlastResult>> chunk) {
+		for (List<BlastResult> sameHitBrs : chunk.values()) {
+			for (BlastResult br : sameHitBrs) {
+				addBlastResult(brs, br, null, false);
+			}
+		}
+	}
+
+	/**
+	 * Splits the argument table into the argument number of byte ranges, each
+	 * starting at the beginning of a line. Empty ranges are omitted.
+	 *
+	 * @param table
+	 * @param numberOfChunks
+	 * @return long[] - The first byte of each chunk followed by the table's
+	 *         size.
+	 * @throws IOException
+	 */
+	protected static long[] chunkBoundaries(FileChannel table, int numberOfChunks) throws IOException {
+		long size = table.size();
+		List<Long> boundaries = new ArrayList<Long>();
+		boundaries.add(0L);
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		for (int i = 1; i < numberOfChunks; i++) {
+			long position = Math.max(size / numberOfChunks * i, boundaries.get(boundaries.size() - 1));
+			// Move forward to the start of the next line:
+			long boundary = size;
+			while (position < size && boundary == size) {
+				buffer.clear();
+				int read = table.read(buffer, position);
+				if (read <= 0)
+					break;
+				for (int j = 0; j < read; j++) {
+					if (buffer.get(j) == '\n') {
+						boundary = position + j + 1;
+						break;
+					}
+				}
+				position += read;
+			}
+			if (boundary > boundaries.get(boundaries.size() - 1) && boundary < size)
+				boundaries.add(boundary);
+		}
+		boundaries.add(size);
+		long[] result = new long[boundaries.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = boundaries.get(i);
+		return result;
+	}
+
+	/**
+	 * Parses all lines in the argument byte range of the table. The range is
+	 * expected to start at the beginning of a line and to end after a line
+	 * break or at the end of the file. The range is mapped into memory in
+	 * windows of at most MAX_MAPPED_WINDOW_SIZE bytes.
+	 *
+	 * @param table
+	 * @param from
+	 * @param to
+	 * @param brs
+	 * @param uniqueShortAccessions
+	 * @param subjectAccessions
+	 *            - Hit accessions seen so far
+	 * @throws IOException
+	 * @throws MissingProteinException
+	 */
+	protected void parse(FileChannel table, long from, long to, Map<String, List<BlastResult>> brs,
+			Set<String> uniqueShortAccessions, ByteKeyIndex<String> subjectAccessions)
+			throws IOException, MissingProteinException {
+		long windowStart = from;
+		while (windowStart < to) {
+			int windowSize = (int) Math.min(MAX_MAPPED_WINDOW_SIZE, to - windowStart);
+			MappedByteBuffer window = table.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+			int limit = windowSize;
+			if (windowStart + windowSize < to) {
+				// Do not cut the last line of the window:
+				limit = lastLineBreak(window, windowSize) + 1;
+				if (limit == 0) {
+					throw new IOException("Line starting at byte " + windowStart + " in '" + pathToTable
+							+ "' exceeds the maximum supported line length of " + MAX_MAPPED_WINDOW_SIZE + " bytes.");
+				}
+			}
+			parseLines(window, limit, brs, uniqueShortAccessions, subjectAccessions);
+			windowStart += limit;
+		}
+	}
+
+	/**
+	 * Parses a compressed table, decompressing it into a buffer, whose
+	 * complete lines are parsed each time it has been filled.
+	 *
+	 * @param brs
+	 * @param uniqueShortAccessions
+	 * @throws IOException
+	 * @throws MissingProteinException
+	 */
+	protected void parseStream(Map<String, List<BlastResult>> brs, Set<String> uniqueShortAccessions)
+			throws IOException, MissingProteinException {
+		ByteKeyIndex<String> subjectAccessions = new ByteKeyIndex<String>(1024);
+		InputStream tableIn = openInputStream(pathToTable, numberOfThreads);
+		try {
+			byte[] bytes = new byte[STREAM_BUFFER_SIZE];
+			int filled = 0;
+			int read;
+			while (true) {
+				if (filled == bytes.length) {
+					// A single line does not fit into the buffer:
+					bytes = Arrays.copyOf(bytes, bytes.length * 2);
+				}
+				read = tableIn.read(bytes, filled, bytes.length - filled);
+				if (read < 0)
+					break;
+				filled += read;
+				ByteBuffer buffer = ByteBuffer.wrap(bytes);
+				int limit = lastLineBreak(buffer, filled) + 1;
+				if (limit > 0) {
+					parseLines(buffer, limit, brs, uniqueShortAccessions, subjectAccessions);
+					System.arraycopy(bytes, limit, bytes, 0, filled - limit);
+					filled -= limit;
+				}
+			}
+			if (filled > 0)
+				parseLines(ByteBuffer.wrap(bytes), filled, brs, uniqueShortAccessions, subjectAccessions);
+		} finally {
+			tableIn.close();
+		}
+	}
+
+	private static int lastLineBreak(ByteBuffer buffer, int limit) {
+		for (int i = limit - 1; i >= 0; i--) {
+			if (buffer.get(i) == '\n')
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Parses all lines of the argument buffer up to the argument limit.
+	 *
+	 * @param buffer
+	 * @param limit
+	 * @param brs
+	 * @param uniqueShortAccessions
+	 * @param subjectAccessions
+	 *            - Hit accessions seen so far
+	 * @throws MissingProteinException
+	 */
+	protected void parseLines(ByteBuffer buffer, int limit, Map<String, List<BlastResult>> brs,
+			Set<String> uniqueShortAccessions, ByteKeyIndex<String> subjectAccessions)
+			throws MissingProteinException {
+		byte sepByte = (byte) sep.charAt(0);
+		ByteKeyIndex<Protein> proteinIndex = proteinIndex();
+		int[] fieldStarts = new int[lastNeededCol + 1];
+		int[] fieldEnds = new int[lastNeededCol + 1];
+		ByteSequence lineView = commentLineRegex != null ? new ByteSequence(buffer) : null;
+		Matcher commentLineMatcher = commentLineRegex != null ? commentLineRegex.matcher("") : null;
+		int lineStart = 0;
+		while (lineStart < limit) {
+			int lineEnd = lineStart;
+			while (lineEnd < limit && buffer.get(lineEnd) != '\n')
+				lineEnd++;
+			int nextLineStart = lineEnd + 1;
+			// Just as BufferedReader.readLine, treat '\r' as part of the line
+			// break:
+			while (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r')
+				lineEnd--;
+			if (lineEnd > lineStart && (commentLineMatcher == null
+					|| !commentLineMatcher.reset(lineView.slice(lineStart, lineEnd)).matches())) {
+				// Split only up to the last needed column:
+				int col = 0;
+				int fieldStart = lineStart;
+				for (int i = lineStart; col <= lastNeededCol; i++) {
+					if (i == lineEnd || buffer.get(i) == sepByte) {
+						fieldStarts[col] = fieldStart;
+						fieldEnds[col] = i;
+						col++;
+						fieldStart = i + 1;
+						if (i == lineEnd)
+							break;
+					}
+				}
+				if (col <= lastNeededCol) {
+					throw new IllegalArgumentException("Line '" + decode(buffer, lineStart, lineEnd) + "' in '"
+							+ pathToTable + "' has only " + col + " columns, but column " + lastNeededCol
+							+ " is required.");
+				}
+				Protein prot = proteinIndex.get(buffer, fieldStarts[queryCol], fieldEnds[queryCol]);
+				if (prot == null) {
+					throw new MissingProteinException("Could not find Protein for Accession '"
+							+ decode(buffer, fieldStarts[queryCol], fieldEnds[queryCol]) + "' in Protein Database.");
+				} // ELSE
+				BlastResult br = new BlastResult(subjectAccession(subjectAccessions, buffer, fieldStarts[subjectCol], fieldEnds[subjectCol]),
+						parseDouble(buffer, fieldStarts[eValueCol], fieldEnds[eValueCol]),
+						parseInt(buffer, fieldStarts[queryStartCol], fieldEnds[queryStartCol]),
+						parseInt(buffer, fieldStarts[queryEndCol], fieldEnds[queryEndCol]),
+						parseInt(buffer, fieldStarts[subjectStartCol], fieldEnds[subjectStartCol]),
+						parseInt(buffer, fieldStarts[subjectEndCol], fieldEnds[subjectEndCol]),
+						parseDouble(buffer, fieldStarts[bitScoreCol], fieldEnds[bitScoreCol]), blastDbName, prot);
+				addBlastResult(brs, br, uniqueShortAccessions, collectShortAccessions);
+			}
+			lineStart = nextLineStart;
+		}
+	}
+
+	/**
+	 * Parses the table line by line, splitting each line with the configured
+	 * separator interpreted as regular expression.
+	 *
+	 * @param brs
+	 * @param uniqueShortAccessions
+	 * @throws IOException
+	 * @throws MissingProteinException
+	 */
+	protected void parseSplittingLines(Map<String, List<BlastResult>> brs, Set<String> uniqueShortAccessions)
+			throws IOException, MissingProteinException {
+		Pattern sepRegex = Pattern.compile(sep);
+		BufferedReader tableIn = openReader(pathToTable, numberOfThreads);
+		try {
+			String str;
+			while ((str = tableIn.readLine()) != null) {
+				// Only evaluate current line, either if there is no
+				// comment-line-regex given, or if it is given AND it does not
+				// match:
+				if (commentLineRegex == null || !commentLineRegex.matcher(str).matches()) {
+					addBlastResult(brs, newBlastResult(sepRegex.split(str)), uniqueShortAccessions,
+							collectShortAccessions);
+				}
+			}
+		} finally {
+			tableIn.close();
+		}
+	}
+
+	/**
+	 * @param brFields
+	 *            - The columns of a single line of the table
+	 * @return BlastResult - The HSP (High Scoring Pair) described by the
+	 *         argument columns.
+	 * @throws MissingProteinException
+	 *             - If the query is not in the protein database.
+	 */
+	protected BlastResult newBlastResult(String[] brFields) throws MissingProteinException {
+		Protein prot = proteinDb.get(brFields[queryCol]);
+		if (prot == null) {
+			throw new MissingProteinException(
+					"Could not find Protein for Accession '" + brFields[queryCol] + "' in Protein Database.");
+		} // ELSE
+		return new BlastResult(brFields[subjectCol], Double.parseDouble(validateDouble(brFields[eValueCol])),
+				Integer.parseInt(brFields[queryStartCol]), Integer.parseInt(brFields[queryEndCol]),
+				Integer.parseInt(brFields[subjectStartCol]), Integer.parseInt(brFields[subjectEndCol]),
+				Double.parseDouble(brFields[bitScoreCol]), blastDbName, prot);
+	}
+
+	/**
+	 * Opens the table to be read one query at a time. See
+	 * <code>QueryGroupReader</code>.
+	 *
+	 * @return QueryGroupReader
+	 * @throws IOException
+	 */
+	public QueryGroupReader openQueryGroupReader() throws IOException {
+		return new QueryGroupReader();
+	}
+
+	/**
+	 * Reads a table, in which all lines of the same query are consecutive,
+	 * one query at a time. Only the lines of the current query are held in
+	 * memory. Lines are split with the configured separator interpreted as
+	 * regular expression, just as in <code>parseSplittingLines</code>.
+	 */
+	public class QueryGroupReader implements Closeable {
+
+		private final BufferedReader tableIn;
+		private final Pattern sepRegex = Pattern.compile(sep);
+		/**
+		 * The columns of the next line not yet returned, NULL at the end of
+		 * the table.
+		 */
+		private String[] nextFields;
+
+		protected QueryGroupReader() throws IOException {
+			super();
+			this.tableIn = openReader(pathToTable, numberOfThreads);
+			readNextLine();
+		}
+
+		private void readNextLine() throws IOException {
+			String str;
+			while ((str = tableIn.readLine()) != null) {
+				if (!str.isEmpty() && (commentLineRegex == null || !commentLineRegex.matcher(str).matches())) {
+					nextFields = sepRegex.split(str);
+					if (nextFields.length <= lastNeededCol) {
+						throw new IllegalArgumentException("Line '" + str + "' in '" + pathToTable + "' has only "
+								+ nextFields.length + " columns, but column " + lastNeededCol + " is required.");
+					}
+					return;
+				}
+			}
+			nextFields = null;
+		}
+
+		/**
+		 * @return String - The accession of the query, whose Hits are returned
+		 *         by the next invocation of <code>next</code>, or NULL if all
+		 *         queries have been read.
+		 */
+		public String peekQuery() {
+			return nextFields == null ? null : nextFields[queryCol];
+		}
+
+		/**
+		 * Reads all consecutive lines of the current query, see
+		 * <code>peekQuery</code>.
+		 *
+		 * @param uniqueShortAccessions
+		 *            - Used only if AHRD is requested to generate Gene
+		 *            Ontology term annotations
+		 * @return Map<String,List<BlastResult>> Set of Hit-Accessions (Key)
+		 *         to the full BlastResult(s) (Value), empty if all queries
+		 *         have been read.
+		 * @throws IOException
+		 * @throws MissingProteinException
+		 */
+		public Map<String, List<BlastResult>> next(Set<String> uniqueShortAccessions)
+				throws IOException, MissingProteinException {
+			Map<String, List<BlastResult>> brs = new HashMap<String, List<BlastResult>>();
+			String query = peekQuery();
+			while (nextFields != null && nextFields[queryCol].equals(query)) {
+				addBlastResult(brs, newBlastResult(nextFields), uniqueShortAccessions, collectShortAccessions);
+				readNextLine();
+			}
+			return brs;
+		}
+
+		@Override
+		public void close() throws IOException {
+			tableIn.close();
+		}
+	}
+
+	/**
+	 * Looks up the subject accession in the argument byte range and only
+	 * creates a new String, if the accession has not been seen before.
+	 */
+	private String subjectAccession(ByteKeyIndex<String> subjectAccessions, ByteBuffer buffer, int start,
+			int end) {
+		String accession = subjectAccessions.get(buffer, start, end);
+		if (accession == null) {
+			byte[] key = copy(buffer, start, end);
+			accession = new String(key, charset);
+			subjectAccessions.put(key, 0, key.length, accession);
+		}
+		return accession;
+	}
+
+	protected static byte[] copy(ByteBuffer buffer, int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int i = start; i < end; i++)
+			bytes[i - start] = buffer.get(i);
+		return bytes;
+	}
+
+	private static String decode(ByteBuffer buffer, int start, int end) {
+		return new String(copy(buffer, start, end), Charset.defaultCharset());
+	}
+
+	private static boolean isBlank(byte b) {
+		return b == ' ' || b == '\t' || b == '\r';
+	}
+
+	/**
+	 * Parses an integer directly from the argument byte range. Surrounding
+	 * blanks are ignored.
+	 *
+	 * @throws NumberFormatException
+	 */
+	public static int parseInt(ByteBuffer buffer, int start, int end) {
+		while (start < end && isBlank(buffer.get(start)))
+			start++;
+		while (end > start && isBlank(buffer.get(end - 1)))
+			end--;
+		int i = start;
+		boolean negative = false;
+		if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+			negative = buffer.get(i) == '-';
+			i++;
+		}
+		if (i == end || end - i > 9) {
+			// Empty or possibly overflowing, let Integer report or parse it:
+			return Integer.parseInt(decode(buffer, start, end));
+		}
+		int value = 0;
+		for (; i < end; i++) {
+			int digit = buffer.get(i) - '0';
+			if (digit < 0 || digit > 9)
+				throw new NumberFormatException("For input string: \"" + decode(buffer, start, end) + "\"");
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parses a double directly from the argument byte range. Surrounding blanks
+	 * are ignored, and just as in <code>BlastResult.validateDouble</code> a
+	 * missing mantissa (e.g. 'e-10') is interpreted as one. Values with at most
+	 * 15 significant digits and a decimal exponent of at most 22 are computed
+	 * with a single correctly rounded floating point operation, so the result
+	 * is identical to the one of <code>Double.parseDouble</code>. All other
+	 * values are passed on to <code>Double.parseDouble</code>.
+	 *
+	 * @throws NumberFormatException
+	 */
+	public static double parseDouble(ByteBuffer buffer, int start, int end) {
+		while (start < end && isBlank(buffer.get(start)))
+			start++;
+		while (end > start && isBlank(buffer.get(end - 1)))
+			end--;
+		int i = start;
+		boolean negative = false;
+		if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+			negative = buffer.get(i) == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int significantDigits = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean fastPath = true;
+		for (; i < end && buffer.get(i) >= '0' && buffer.get(i) <= '9'; i++, digits++) {
+			if (mantissa > 0 || buffer.get(i) != '0') {
+				mantissa = mantissa * 10 + (buffer.get(i) - '0');
+				significantDigits++;
+			}
+			if (significantDigits > 15) {
+				fastPath = false;
+				break;
+			}
+		}
+		if (fastPath && i < end && buffer.get(i) == '.') {
+			i++;
+			for (; i < end && buffer.get(i) >= '0' && buffer.get(i) <= '9'; i++, digits++) {
+				if (mantissa > 0 || buffer.get(i) != '0') {
+					mantissa = mantissa * 10 + (buffer.get(i) - '0');
+					significantDigits++;
+				}
+				exponent--;
+				if (significantDigits > 15) {
+					fastPath = false;
+					break;
+				}
+			}
+		}
+		if (fastPath && i < end && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+			if (digits == 0 && i == start) {
+				// See BlastResult.validateDouble:
+				mantissa = 1;
+				digits = 1;
+			}
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+				negativeExponent = buffer.get(i) == '-';
+				i++;
+			}
+			int explicitExponent = 0;
+			int exponentDigits = 0;
+			for (; i < end && buffer.get(i) >= '0' && buffer.get(i) <= '9' && exponentDigits < 4; i++, exponentDigits++)
+				explicitExponent = explicitExponent * 10 + (buffer.get(i) - '0');
+			if (exponentDigits == 0)
+				fastPath = false;
+			exponent += negativeExponent ? -explicitExponent : explicitExponent;
+		}
+		if (fastPath && i == end && digits > 0) {
+			double value;
+			if (mantissa == 0)
+				value = 0.0;
+			else if (exponent >= 0 && exponent <= 22)
+				value = mantissa * POWERS_OF_TEN[exponent];
+			else if (exponent < 0 && exponent >= -22)
+				value = mantissa / POWERS_OF_TEN[-exponent];
+			else
+				return Double.parseDouble(validateDouble(decode(buffer, start, end)));
+			return negative ? -value : value;
+		}
+		return Double.parseDouble(validateDouble(decode(buffer, start, end)));
+	}
+
+	/**
+	 * Read only CharSequence view on a range of a byte buffer, used to match
+	 * regular expressions without decoding lines into Strings. Each byte is
+	 * interpreted as a single ISO-8859-1 character.
+	 */
+	protected static class ByteSequence implements CharSequence {
+		private final ByteBuffer buffer;
+		private int start;
+		private int end;
+
+		public ByteSequence(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public ByteSequence slice(int start, int end) {
+			this.start = start;
+			this.end = end;
+			return this;
+		}
+
+		@Override
+		public int length() {
+			return end - start;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char) (buffer.get(start + index) & 0xFF);
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to) {
+			return new ByteSequence(buffer).slice(start + from, start + to);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder str = new StringBuilder(length());
+			for (int i = 0; i < length(); i++)
+				str.append(charAt(i));
+			return str.toString();
+		}
+	}
+
+	/**
+	 * Minimal open addressing hash map using byte sequences as keys. Lookups
+	 * are done directly on ranges of a byte buffer.
+	 */
+	protected static class ByteKeyIndex<V> {
+		private byte[][] keys;
+		private Object[] values;
+		private int size = 0;
+
+		public ByteKeyIndex(int expectedSize) {
+			int capacity = 16;
+			while (capacity < expectedSize * 2)
+				capacity <<= 1;
+			keys = new byte[capacity][];
+			values = new Object[capacity];
+		}
+
+		private static int hash(byte[] bytes, int start, int end) {
+			int h = 1;
+			for (int i = start; i < end; i++)
+				h = 31 * h + bytes[i];
+			return h ^ (h >>> 16);
+		}
+
+		private static int hash(ByteBuffer buffer, int start, int end) {
+			int h = 1;
+			for (int i = start; i < end; i++)
+				h = 31 * h + buffer.get(i);
+			return h ^ (h >>> 16);
+		}
+
+		private static boolean equal(byte[] key, ByteBuffer buffer, int start, int end) {
+			if (key.length != end - start)
+				return false;
+			for (int i = 0; i < key.length; i++) {
+				if (key[i] != buffer.get(start + i))
+					return false;
+			}
+			return true;
+		}
+
+		@SuppressWarnings("unchecked")
+		public V get(ByteBuffer buffer, int start, int end) {
+			int mask = keys.length - 1;
+			for (int slot = hash(buffer, start, end) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+				if (equal(keys[slot], buffer, start, end))
+					return (V) values[slot];
+			}
+			return null;
+		}
+
+		public void put(byte[] bytes, int start, int end, V value) {
+			if ((size + 1) * 2 > keys.length)
+				resize();
+			byte[] key = (start == 0 && end == bytes.length) ? bytes : Arrays.copyOfRange(bytes, start, end);
+			int mask = keys.length - 1;
+			int slot = hash(key, 0, key.length) & mask;
+			while (keys[slot] != null) {
+				if (Arrays.equals(keys[slot], key)) {
+					values[slot] = value;
+					return;
+				}
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = key;
+			values[slot] = value;
+			size++;
+		}
+
+		private void resize() {
+			byte[][] oldKeys = keys;
+			Object[] oldValues = values;
+			keys = new byte[oldKeys.length * 2][];
+			values = new Object[oldKeys.length * 2];
+			int mask = keys.length - 1;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != null) {
+					int slot = hash(oldKeys[i], 0, oldKeys[i].length) & mask;
+					while (keys[slot] != null)
+						slot = (slot + 1) & mask;
+					keys[slot] = oldKeys[i];
+					values[slot] = oldValues[i];
+				}
+			}
+		}
+
+		public int size() {
+			return size;
+		}
+	}
 }
@@ -0,0 +1,126 @@
+package ahrd.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the short accessions from the long accessions of a single
+ * Blast-Database's Hits, see <code>BlastResult.getShortAccession()</code>.
+ * Each distinct long accession is matched against the regular expression only
+ * once, its short accession is cached and shared by all BlastResults of the
+ * respective Hit.
+ *
+ * Long accessions the regular expression does not match are their own short
+ * accessions. Instead of warning about each of them, they are counted and a
+ * few are kept as samples, so that a single summary can be reported at the
+ * end of a phase, see <code>reportMisses(String)</code>. The cache is meant
+ * for a single phase, see <code>Settings.reportShortAccessionMisses()</code>.
+ *
+ * Instances can be shared between threads.
+ *
+ * @author hallab
+ */
+public class ShortAccessions {
+
+	/**
+	 * The maximum number of unmatched accessions reported as samples.
+	 */
+	public static final int MAX_SAMPLE_MISSES = 5;
+
+	private final Pattern regex;
+	private final ConcurrentMap<String, String> cache = new ConcurrentHashMap<String, String>();
+	/**
+	 * Guarded by sampleMisses:
+	 */
+	private int misses = 0;
+	private final List<String> sampleMisses = new ArrayList<String>();
+
+	/**
+	 * @param regex
+	 *            - Must have a named group
+	 *            <code>BlastResult.SHORT_ACCESSION_GROUP_NAME</code>
+	 */
+	public ShortAccessions(Pattern regex) {
+		super();
+		this.regex = regex;
+	}
+
+	public Pattern getRegex() {
+		return regex;
+	}
+
+	/**
+	 * @param accession
+	 * @return String - The short accession extracted from the argument one, or
+	 *         the argument itself, if the regular expression does not match.
+	 */
+	public String shortAccession(String accession) {
+		String shortAccession = cache.get(accession);
+		if (shortAccession == null) {
+			Matcher m = regex.matcher(accession);
+			boolean matches = m.find();
+			shortAccession = matches ? m.group(BlastResult.SHORT_ACCESSION_GROUP_NAME) : accession;
+			String cached = cache.putIfAbsent(accession, shortAccession);
+			if (cached != null)
+				return cached;
+			if (!matches)
+				addMiss(accession);
+		}
+		return shortAccession;
+	}
+
+	private void addMiss(String accession) {
+		synchronized (sampleMisses) {
+			misses++;
+			if (sampleMisses.size() < MAX_SAMPLE_MISSES)
+				sampleMisses.add(accession);
+		}
+	}
+
+	/**
+	 * @return int - The number of distinct accessions the regular expression
+	 *         did not match since the last report.
+	 */
+	public int getNumberOfMisses() {
+		synchronized (sampleMisses) {
+			return misses;
+		}
+	}
+
+	/**
+	 * @return List - At most <code>MAX_SAMPLE_MISSES</code> of the accessions
+	 *         the regular expression did not match since the last report.
+	 */
+	public List<String> getSampleMisses() {
+		synchronized (sampleMisses) {
+			return new ArrayList<String>(sampleMisses);
+		}
+	}
+
+	/**
+	 * Prints a single warning summarizing the accessions the regular
+	 * expression did not match since the last report, if any, and resets the
+	 * count.
+	 *
+	 * @param blastDatabaseName
+	 */
+	public void reportMisses(String blastDatabaseName) {
+		List<String> samples;
+		int noMisses;
+		synchronized (sampleMisses) {
+			noMisses = misses;
+			misses = 0;
+			samples = new ArrayList<String>(sampleMisses);
+			sampleMisses.clear();
+		}
+		if (noMisses > 0)
+			System.err.println("WARNING: Regular Expression '" + regex.toString() + "' of Blast-Database '"
+					+ blastDatabaseName + "' does NOT match - using pattern.find(...) - " + noMisses
+					+ " distinct Blast Hit Accessions, e.g. " + samples
+					+ " - continuing with the original accessions. This might lead to unrecognized reference GO annotations!");
+	}
+}
@@ -0,0 +1,81 @@
+package ahrd.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JVM-wide dictionary interning each distinct Token to a dense integer ID.
+ * Tokens such as "protein" or "kinase" occur in millions of descriptions, but
+ * are held in memory only once. The IDs are assigned in the order the Tokens
+ * are first seen, starting at zero, and are never reused. Hence the IDs of
+ * the same Tokens can differ from run to run, and scores must not depend on
+ * them, see <code>TokenSet.idsInTokenOrder()</code>.
+ *
+ * The dictionary is shared by all runs within the same JVM, because the
+ * TokenSets of reference data shared between runs, see
+ * <code>ReferenceDataRegistry</code>, are compared by ID with those of each
+ * run. It is never cleared, as any TokenSet still referenced might hold any
+ * ID, and hence grows with the distinct Tokens of all runs' descriptions.
+ *
+ * The dictionary can be used concurrently by any number of threads.
+ *
+ * @author hallab
+ */
+public class TokenDictionary {
+
+	private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	private static volatile String[] tokens = new String[1024];
+	private static int size = 0;
+
+	private TokenDictionary() {
+		super();
+	}
+
+	/**
+	 * @param token
+	 * @return int - The ID of the argument Token. Tokens not seen before are
+	 *         assigned the next free ID.
+	 */
+	public static int id(String token) {
+		Integer id = ids.get(token);
+		if (id != null)
+			return id;
+		synchronized (TokenDictionary.class) {
+			id = ids.get(token);
+			if (id == null) {
+				if (size == tokens.length)
+					tokens = Arrays.copyOf(tokens, size * 2);
+				tokens[size] = token;
+				id = size++;
+				ids.put(token, id);
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * @param token
+	 * @return int - The ID of the argument Token, or -1 if it has never been
+	 *         seen. Unlike <code>id(String)</code> this does not add the
+	 *         Token to the dictionary.
+	 */
+	public static int lookup(Object token) {
+		Integer id = ids.get(token);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @param id
+	 * @return String - The Token of the argument ID.
+	 */
+	public static String token(int id) {
+		return tokens[id];
+	}
+
+	/**
+	 * @return int - The number of distinct Tokens seen so far.
+	 */
+	public static int size() {
+		return ids.size();
+	}
+}
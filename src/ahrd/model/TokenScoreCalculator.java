@@ -1,45 +1,52 @@
 package ahrd.model;
 
-import static ahrd.controller.Settings.getSettings;
 import static ahrd.controller.Utils.roundToNDecimalPlaces;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+
+import ahrd.controller.Settings;
 
 /**
  * Functions calculating Token-Scores.
  */
 public class TokenScoreCalculator {
 
-	private Map<String, Double> cumulativeTokenBitScores = new HashMap<String, Double>();
-	private Map<String, Double> cumulativeTokenBlastDatabaseScores = new HashMap<String, Double>();
-	private Map<String, Double> cumulativeTokenOverlapScores = new HashMap<String, Double>();
+	/**
+	 * Holds the cumulative scores and the Token-Scores of all Tokens. The Maps
+	 * below are views of its columns.
+	 */
+	private final TokenScoreTable scoreTable = new TokenScoreTable();
+	private final Map<String, Double> cumulativeTokenBitScores = scoreTable
+			.column(TokenScoreTable.CUMULATIVE_BIT_SCORE);
+	private final Map<String, Double> cumulativeTokenBlastDatabaseScores = scoreTable
+			.column(TokenScoreTable.CUMULATIVE_BLAST_DATABASE_SCORE);
+	private final Map<String, Double> cumulativeTokenOverlapScores = scoreTable
+			.column(TokenScoreTable.CUMULATIVE_OVERLAP_SCORE);
 	private double totalTokenBitScore = 0;
 	private double totalTokenBlastDatabaseScore = 0;
 	private double totalTokenOverlapScore = 0;
-	private Map<String, Double> tokenScores = new HashMap<String, Double>();
+	private final Map<String, Double> tokenScores = scoreTable.column(TokenScoreTable.TOKEN_SCORE);
 	private Protein protein;
 	// Please enter your initials ___
 	private double tokenHighScore = 0.0;
 
 	public static boolean tokenPassesBlacklist(String token, List<String> blacklist) {
+		return tokenPassesBlacklist(token, new Blacklist(blacklist));
+	}
+
+	/**
+	 * See <code>tokenPassesBlacklist(String, List)</code>. Uses a compiled
+	 * Blacklist, e.g. <code>Settings.getCompiledTokenBlacklist</code>.
+	 * 
+	 * @param token
+	 * @param blacklist
+	 * @return boolean TRUE if and only if the token is not NULL, not empty and
+	 *         does not match any of the blacklist's regular expressions.
+	 */
+	public static boolean tokenPassesBlacklist(String token, Blacklist blacklist) {
 		// No Token passes being NULL or empty String
-		boolean passed = (token != null && !token.equals(""));
-		Iterator<String> i = blacklist.iterator();
-		while (i.hasNext() && passed) {
-			Pattern p = Pattern.compile(i.next());
-			Matcher m = p.matcher(token);
-			// A Match against a blacklisted RegExp lets the token fail:
-			passed = !m.find();
-		}
-		return passed;
+		return token != null && !token.equals("") && !blacklist.isBlacklisted(token);
 	}
 
 	/**
@@ -51,18 +58,77 @@ public class TokenScoreCalculator {
 	 * @param tokenBlacklist
 	 * @return An instance of Set holding all tokens extracted from description
 	 */
-	public static Set<String> tokenize(String description, List<String> tokenBlacklist) {
-		Set<String> tkns = new HashSet<String>();
-		for (String tokenCandidate : new HashSet<String>(
-				Arrays.asList(description.split(BlastResult.TOKEN_SPLITTER_REGEX)))) {
-			tokenCandidate = tokenCandidate.toLowerCase();
-			if (tokenCandidate != null && !tokenCandidate.equals("")
-					&& tokenPassesBlacklist(tokenCandidate, tokenBlacklist))
-				tkns.add(tokenCandidate);
+	public static TokenSet tokenize(String description, List<String> tokenBlacklist) {
+		return tokenize(description, tokenBlacklist.isEmpty() ? Blacklist.EMPTY : new Blacklist(tokenBlacklist));
+	}
+
+	/**
+	 * See <code>tokenize(String, List)</code>. The description is scanned
+	 * once, character by character, for the delimiters of
+	 * <code>BlastResult.TOKEN_SPLITTER_REGEX</code>. Only tokens containing
+	 * upper case or non ASCII characters are lower cased with
+	 * <code>String.toLowerCase()</code>, all others are taken as they are.
+	 * 
+	 * @param description
+	 * @param tokenBlacklist
+	 * @return TokenSet holding all tokens extracted from description
+	 */
+	public static TokenSet tokenize(String description, Blacklist tokenBlacklist) {
+		TokenSet tkns = new TokenSet();
+		int length = description.length();
+		int tokenStart = 0;
+		boolean toLowerCase = false;
+		for (int i = 0; i <= length; i++) {
+			char c = i < length ? description.charAt(i) : ' ';
+			if (isTokenDelimiter(c)) {
+				if (i > tokenStart) {
+					String tokenCandidate = description.substring(tokenStart, i);
+					if (toLowerCase)
+						tokenCandidate = tokenCandidate.toLowerCase();
+					if (!tkns.contains(tokenCandidate) && tokenPassesBlacklist(tokenCandidate, tokenBlacklist))
+						tkns.add(tokenCandidate);
+				}
+				tokenStart = i + 1;
+				toLowerCase = false;
+			} else if (c > 'z' || (c >= 'A' && c <= 'Z')) {
+				toLowerCase = true;
+			}
 		}
 		return tkns;
 	}
 
+	/**
+	 * @param c
+	 * @return TRUE if and only if the argument character separates tokens,
+	 *         i.e. it is matched by <code>BlastResult.TOKEN_SPLITTER_REGEX</code>
+	 */
+	public static boolean isTokenDelimiter(char c) {
+		switch (c) {
+		case '-':
+		case '/':
+		case ';':
+		case '\\':
+		case ',':
+		case ':':
+		case '"':
+		case '\'':
+		case '.':
+		case '|':
+		case '(':
+		case ')':
+			// The whitespace characters matched by '\s':
+		case ' ':
+		case '\t':
+		case '\n':
+		case '\u000B':
+		case '\f':
+		case '\r':
+			return true;
+		default:
+			return false;
+		}
+	}
+
 	/**
 	 * Computes the quality of the local sequence alignment between the Query
 	 * and a Subject (see BLAST for details). This quality is assessed as the
@@ -91,11 +157,7 @@ public class TokenScoreCalculator {
 	 * Returns the sum of BlastResult's Tokens' Scores.
 	 */
 	public double descriptionLineSummedTokenScore(BlastResult br) {
-		double sum = 0.0;
-		for (String token : br.getTokens()) {
-			sum += getTokenScores().get(token);
-		}
-		return sum;
+		return sumOfAllTokenScores(br);
 	}
 
 	/**
@@ -109,10 +171,12 @@ public class TokenScoreCalculator {
 			// databases
 			for (BlastResult iterResult : getProtein().getBlastResults().get(iterBlastDb)) {
 				// iterate through tokens in different blast result desc-lines
-				for (String token : iterResult.getTokens()) {
-					if (!(getTokenScores().containsKey(token))) {
-						double tokenscore = tokenScore(token, iterBlastDb);
-						getTokenScores().put(token, new Double(tokenscore));
+				TokenSet tokens = iterResult.getTokens();
+				for (int i = 0; i < tokens.size(); i++) {
+					int slot = scoreTable.slotFor(tokens.idAt(i));
+					if (!scoreTable.isPresent(TokenScoreTable.TOKEN_SCORE, slot)) {
+						double tokenscore = tokenScore(slot);
+						scoreTable.set(TokenScoreTable.TOKEN_SCORE, slot, tokenscore);
 						// remember highest token score
 						if (tokenscore > getTokenHighScore()) {
 							setTokenHighScore(tokenscore);
@@ -129,9 +193,12 @@ public class TokenScoreCalculator {
 	 * (old TokenScore) - (tokenHighScore / 2).
 	 */
 	public void filterTokenScores() {
-		for (String token : getTokenScores().keySet()) {
-			if (!isInformativeToken(token)) {
-				getTokenScores().put(token, new Double(getTokenScores().get(token) - getTokenHighScore() / 2));
+		double halfTokenHighScore = getTokenHighScore() / 2;
+		for (int slot = 0; slot < scoreTable.slots(); slot++) {
+			if (scoreTable.isPresent(TokenScoreTable.TOKEN_SCORE, slot)) {
+				double tokenScore = scoreTable.get(TokenScoreTable.TOKEN_SCORE, slot);
+				if (!(tokenScore > halfTokenHighScore))
+					scoreTable.set(TokenScoreTable.TOKEN_SCORE, slot, tokenScore - halfTokenHighScore);
 			}
 		}
 	}
@@ -147,6 +214,22 @@ public class TokenScoreCalculator {
 		return getTokenScores().get(token) > getTokenHighScore() / 2;
 	}
 
+	/**
+	 * Measures both the <em>cumulative</em> and the <em>total</em> scores of
+	 * the argument BlastResult, see <code>measureCumulativeScores</code> and
+	 * <code>measureTotalScores</code>. The OverlapScore and the
+	 * Blast-Database's weight are computed only once.
+	 * 
+	 * @param BlastResult
+	 *            br
+	 */
+	public synchronized void measureScores(BlastResult br) {
+		double overlapScore = overlapScore(br);
+		double blastDatabaseWeight = getSettings().getBlastDbWeight(br.getBlastDatabaseName());
+		measureCumulativeScores(br, overlapScore, blastDatabaseWeight);
+		measureTotalScores(br, overlapScore, blastDatabaseWeight);
+	}
+
 	/**
 	 * Once per BlastResult's unique token the following <em>cumulative</em>
 	 * scores are measured: 1. BitScore 2. DatabaseScore 3. OverlapScore
@@ -154,13 +237,18 @@ public class TokenScoreCalculator {
 	 * @param BlastResult
 	 *            br
 	 */
-	public void measureCumulativeScores(BlastResult br) {
-		for (String token : br.getTokens()) {
-			Double overlapScore = TokenScoreCalculator.overlapScore(br.getQueryStart(), br.getQueryEnd(),
-					getProtein().getSequenceLength(), br.getSubjectStart(), br.getSubjectEnd(), br.getSubjectLength());
-			addCumulativeTokenBitScore(token, br.getBitScore());
-			addCumulativeTokenBlastDatabaseScore(token, br.getBlastDatabaseName());
-			addCumulativeTokenOverlapScore(token, overlapScore);
+	public synchronized void measureCumulativeScores(BlastResult br) {
+		measureCumulativeScores(br, overlapScore(br), getSettings().getBlastDbWeight(br.getBlastDatabaseName()));
+	}
+
+	private void measureCumulativeScores(BlastResult br, double overlapScore, double blastDatabaseWeight) {
+		double bitScore = br.getBitScore();
+		TokenSet tokens = br.getTokens();
+		for (int i = 0; i < tokens.size(); i++) {
+			int slot = scoreTable.slotFor(tokens.idAt(i));
+			scoreTable.add(TokenScoreTable.CUMULATIVE_BIT_SCORE, slot, bitScore);
+			scoreTable.add(TokenScoreTable.CUMULATIVE_BLAST_DATABASE_SCORE, slot, blastDatabaseWeight);
+			scoreTable.add(TokenScoreTable.CUMULATIVE_OVERLAP_SCORE, slot, overlapScore);
 		}
 	}
 
@@ -171,65 +259,119 @@ public class TokenScoreCalculator {
 	 * @param BlastResult
 	 *            br
 	 */
-	public void measureTotalScores(BlastResult br) {
-		Double overlapScore = TokenScoreCalculator.overlapScore(br.getQueryStart(), br.getQueryEnd(),
-				getProtein().getSequenceLength(), br.getSubjectStart(), br.getSubjectEnd(), br.getSubjectLength());
-		setTotalTokenBlastDatabaseScore(
-				getTotalTokenBlastDatabaseScore() + getSettings().getBlastDbWeight(br.getBlastDatabaseName()));
+	public synchronized void measureTotalScores(BlastResult br) {
+		measureTotalScores(br, overlapScore(br), getSettings().getBlastDbWeight(br.getBlastDatabaseName()));
+	}
+
+	private void measureTotalScores(BlastResult br, double overlapScore, double blastDatabaseWeight) {
+		setTotalTokenBlastDatabaseScore(getTotalTokenBlastDatabaseScore() + blastDatabaseWeight);
 		setTotalTokenOverlapScore(getTotalTokenOverlapScore() + overlapScore);
 		setTotalTokenBitScore(getTotalTokenBitScore() + br.getBitScore());
 	}
 
+	private double overlapScore(BlastResult br) {
+		return overlapScore(br.getQueryStart(), br.getQueryEnd(), getProtein().getSequenceLength(),
+				br.getSubjectStart(), br.getSubjectEnd(), br.getSubjectLength());
+	}
+
 	/**
 	 * @param token
 	 * @return token-score
 	 */
 	public double tokenScore(String token, String blastDatabaseName) {
-		// Validate:
-		Double bitScoreWeight = getSettings().getTokenScoreBitScoreWeight();
-		Double databaseScoreWeight = getSettings().getTokenScoreDatabaseScoreWeight();
-		Double overlapScoreWeight = getSettings().getTokenScoreOverlapScoreWeight();
+		int id = TokenDictionary.lookup(token);
+		int slot = id < 0 ? -1 : scoreTable.slot(id);
+		if (slot < 0 || !scoreTable.isPresent(TokenScoreTable.CUMULATIVE_BIT_SCORE, slot)
+				|| !scoreTable.isPresent(TokenScoreTable.CUMULATIVE_BLAST_DATABASE_SCORE, slot)
+				|| !scoreTable.isPresent(TokenScoreTable.CUMULATIVE_OVERLAP_SCORE, slot))
+			throw new IllegalStateException("No cumulative scores have been measured for Token '" + token + "'.");
+		return tokenScore(slot);
+	}
+
+	/**
+	 * @param slot
+	 *            - The Token's slot in the score table
+	 * @return token-score
+	 */
+	private double tokenScore(int slot) {
+		validateTokenScoreWeights(getSettings());
+		return tokenScore(slot, getSettings().getTokenScoreBitScoreWeight(),
+				getSettings().getTokenScoreDatabaseScoreWeight(), getSettings().getTokenScoreOverlapScoreWeight());
+	}
+
+	/**
+	 * Calculates the Token-Score of the Token in the argument slot of the
+	 * score table from its cumulative scores and the argument, already
+	 * validated, weights.
+	 * 
+	 * @param slot
+	 *            - The Token's slot in the score table
+	 * @return token-score
+	 */
+	double tokenScore(int slot, double bitScoreWeight, double databaseScoreWeight, double overlapScoreWeight) {
+		return (bitScoreWeight * scoreTable.get(TokenScoreTable.CUMULATIVE_BIT_SCORE, slot) / getTotalTokenBitScore()
+				+ databaseScoreWeight * scoreTable.get(TokenScoreTable.CUMULATIVE_BLAST_DATABASE_SCORE, slot)
+						/ getTotalTokenBlastDatabaseScore()
+				+ overlapScoreWeight * scoreTable.get(TokenScoreTable.CUMULATIVE_OVERLAP_SCORE, slot)
+						/ getTotalTokenOverlapScore());
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             - If the three weights of the Token-Score formula do not sum
+	 *             up to one.
+	 */
+	public static void validateTokenScoreWeights(Settings settings) {
+		Double bitScoreWeight = settings.getTokenScoreBitScoreWeight();
+		Double databaseScoreWeight = settings.getTokenScoreDatabaseScoreWeight();
+		Double overlapScoreWeight = settings.getTokenScoreOverlapScoreWeight();
 		double validateSumToOne = roundToNDecimalPlaces(bitScoreWeight + databaseScoreWeight + overlapScoreWeight, 9);
 		// Tolerate rounding error <= 10^-3
 		if (!(validateSumToOne >= 0.999 && validateSumToOne <= 1.001))
 			throw new IllegalArgumentException(
 					"The three weights 'bitScoreWeight', 'databaseScoreWeight', and 'overlapScoreWeight' should sum up to 1, but actually sum up to: "
 							+ (bitScoreWeight + databaseScoreWeight + overlapScoreWeight));
-		// Calculate Token-Score:
-		return (bitScoreWeight * getCumulativeTokenBitScores().get(token) / getTotalTokenBitScore()
-				+ databaseScoreWeight * getCumulativeTokenBlastDatabaseScores().get(token)
-						/ getTotalTokenBlastDatabaseScore()
-				+ overlapScoreWeight * getCumulativeTokenOverlapScores().get(token) / getTotalTokenOverlapScore());
 	}
 
-	public void addCumulativeTokenBitScore(String token, double bitScore) {
-		if (!getCumulativeTokenBitScores().containsKey(token))
-			getCumulativeTokenBitScores().put(token, new Double(bitScore));
-		else
-			getCumulativeTokenBitScores().put(token, new Double(bitScore + getCumulativeTokenBitScores().get(token)));
+	private Settings getSettings() {
+		return getProtein().getSettings();
+	}
+
+	/**
+	 * @return TokenScoreTable - The table holding all scores of this
+	 *         calculator's Tokens.
+	 */
+	TokenScoreTable getScoreTable() {
+		return scoreTable;
+	}
+
+	public synchronized void addCumulativeTokenBitScore(String token, double bitScore) {
+		scoreTable.add(TokenScoreTable.CUMULATIVE_BIT_SCORE, scoreTable.slotFor(TokenDictionary.id(token)), bitScore);
 	}
 
-	public void addCumulativeTokenOverlapScore(String token, double overlapScore) {
-		if (!getCumulativeTokenOverlapScores().containsKey(token))
-			getCumulativeTokenOverlapScores().put(token, new Double(overlapScore));
-		else
-			getCumulativeTokenOverlapScores().put(token,
-					new Double(overlapScore + getCumulativeTokenOverlapScores().get(token)));
+	public synchronized void addCumulativeTokenOverlapScore(String token, double overlapScore) {
+		scoreTable.add(TokenScoreTable.CUMULATIVE_OVERLAP_SCORE, scoreTable.slotFor(TokenDictionary.id(token)),
+				overlapScore);
 	}
 
-	public void addCumulativeTokenBlastDatabaseScore(String token, String blastDatabaseName) {
-		Integer blastDatabaseWeight = getSettings().getBlastDbWeight(blastDatabaseName);
-		if (!getCumulativeTokenBlastDatabaseScores().containsKey(token))
-			getCumulativeTokenBlastDatabaseScores().put(token, new Double(blastDatabaseWeight));
-		else
-			getCumulativeTokenBlastDatabaseScores().put(token,
-					new Double(blastDatabaseWeight + getCumulativeTokenBlastDatabaseScores().get(token)));
+	public synchronized void addCumulativeTokenBlastDatabaseScore(String token, String blastDatabaseName) {
+		scoreTable.add(TokenScoreTable.CUMULATIVE_BLAST_DATABASE_SCORE, scoreTable.slotFor(TokenDictionary.id(token)),
+				getSettings().getBlastDbWeight(blastDatabaseName));
 	}
 
+	/**
+	 * @param blastResult
+	 * @return double - The sum of the Token-Scores of the argument
+	 *         BlastResult's Tokens, added in the order of the Tokens, see
+	 *         <code>TokenSet.idsInTokenOrder()</code>. Tokens without a
+	 *         Token-Score count as zero.
+	 */
 	public double sumOfAllTokenScores(BlastResult blastResult) {
 		double sum = 0.0;
-		for (String token : blastResult.getTokens()) {
-			sum += getTokenScores().get(token);
+		for (int id : blastResult.getTokens().idsInTokenOrder()) {
+			int slot = scoreTable.slot(id);
+			if (slot >= 0)
+				sum += scoreTable.get(TokenScoreTable.TOKEN_SCORE, slot);
 		}
 		return sum;
 	}
@@ -246,24 +388,36 @@ public class TokenScoreCalculator {
 		return cumulativeTokenBitScores;
 	}
 
+	/**
+	 * Replaces all cumulative Bit-Scores with the argument ones.
+	 */
 	public void setCumulativeTokenBitScores(Map<String, Double> cumulativeTokenBitScores) {
-		this.cumulativeTokenBitScores = cumulativeTokenBitScores;
+		this.cumulativeTokenBitScores.clear();
+		this.cumulativeTokenBitScores.putAll(cumulativeTokenBitScores);
 	}
 
 	public Map<String, Double> getCumulativeTokenBlastDatabaseScores() {
 		return cumulativeTokenBlastDatabaseScores;
 	}
 
+	/**
+	 * Replaces all cumulative Blast-Database-Scores with the argument ones.
+	 */
 	public void setCumulativeTokenBlastDatabaseScores(Map<String, Double> cumulativeTokenBlastDatabaseScores) {
-		this.cumulativeTokenBlastDatabaseScores = cumulativeTokenBlastDatabaseScores;
+		this.cumulativeTokenBlastDatabaseScores.clear();
+		this.cumulativeTokenBlastDatabaseScores.putAll(cumulativeTokenBlastDatabaseScores);
 	}
 
 	public Map<String, Double> getCumulativeTokenOverlapScores() {
 		return cumulativeTokenOverlapScores;
 	}
 
+	/**
+	 * Replaces all cumulative Overlap-Scores with the argument ones.
+	 */
 	public void setCumulativeTokenOverlapScores(Map<String, Double> cumulativeTokenOverlapScores) {
-		this.cumulativeTokenOverlapScores = cumulativeTokenOverlapScores;
+		this.cumulativeTokenOverlapScores.clear();
+		this.cumulativeTokenOverlapScores.putAll(cumulativeTokenOverlapScores);
 	}
 
 	public double getTotalTokenBitScore() {
@@ -319,12 +473,13 @@ public class TokenScoreCalculator {
 	}
 
 	/**
-	 * Set tokenScores.
+	 * Set tokenScores. Replaces all Token-Scores with the argument ones.
 	 * 
 	 * @param tokenScores
 	 *            the value to set.
 	 */
 	public void setTokenScores(Map<String, Double> tokenScores) {
-		this.tokenScores = tokenScores;
+		this.tokenScores.clear();
+		this.tokenScores.putAll(tokenScores);
 	}
 }
@@ -0,0 +1,290 @@
+package ahrd.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Table of the scores a <code>TokenScoreCalculator</code> measures per Token.
+ * Each Token is assigned a slot through an open addressing hash table keyed
+ * by its ID in the <code>TokenDictionary</code>. The scores themselves are
+ * kept in parallel <code>double[]</code> columns, one per kind of score, so
+ * that accumulating a score neither boxes it nor looks it up twice.
+ *
+ * Each column can also be viewed as a <code>Map&lt;String, Double&gt;</code>,
+ * see <code>column(int)</code>.
+ *
+ * Every Protein has a table, but many never get any score. Hence the arrays
+ * are only allocated once the first Token is assigned a slot.
+ *
+ * @author hallab
+ */
+public class TokenScoreTable {
+
+	public static final int CUMULATIVE_BIT_SCORE = 0;
+	public static final int CUMULATIVE_BLAST_DATABASE_SCORE = 1;
+	public static final int CUMULATIVE_OVERLAP_SCORE = 2;
+	public static final int TOKEN_SCORE = 3;
+	private static final int COLUMNS = 4;
+	private static final int INITIAL_SLOTS = 16;
+	private static final int[] NO_INTS = new int[0];
+	private static final byte[] NO_BYTES = new byte[0];
+
+	/**
+	 * Open addressing hash table holding (slot + 1) for each Token-ID, or zero
+	 * for empty entries. Its length is a power of two, or zero until the first
+	 * slot is assigned.
+	 */
+	private int[] table = NO_INTS;
+	/**
+	 * The Token-ID of each slot. Slots are handed out in the order the Tokens
+	 * are first seen.
+	 */
+	private int[] slotIds = NO_INTS;
+	/**
+	 * NULL until the first slot is assigned.
+	 */
+	private double[][] columns;
+	/**
+	 * For each slot one bit per column, set if and only if the column holds a
+	 * score for the slot's Token.
+	 */
+	private byte[] present = NO_BYTES;
+	private final int[] columnSizes = new int[COLUMNS];
+	private int slots = 0;
+
+	private static int hash(int id) {
+		int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @param id
+	 * @return int - The slot of the argument Token-ID, or -1 if it has none.
+	 */
+	public int slot(int id) {
+		if (slots == 0)
+			return -1;
+		int mask = table.length - 1;
+		for (int i = hash(id) & mask;; i = (i + 1) & mask) {
+			int entry = table[i];
+			if (entry == 0)
+				return -1;
+			if (slotIds[entry - 1] == id)
+				return entry - 1;
+		}
+	}
+
+	/**
+	 * @param id
+	 * @return int - The slot of the argument Token-ID. Token-IDs without a
+	 *         slot are assigned the next free one.
+	 */
+	public int slotFor(int id) {
+		if (columns == null)
+			allocate();
+		int mask = table.length - 1;
+		int i = hash(id) & mask;
+		for (; table[i] != 0; i = (i + 1) & mask) {
+			if (slotIds[table[i] - 1] == id)
+				return table[i] - 1;
+		}
+		if (slots == slotIds.length) {
+			int capacity = slots * 2;
+			slotIds = Arrays.copyOf(slotIds, capacity);
+			present = Arrays.copyOf(present, capacity);
+			for (int c = 0; c < COLUMNS; c++)
+				columns[c] = Arrays.copyOf(columns[c], capacity);
+		}
+		int slot = slots++;
+		slotIds[slot] = id;
+		table[i] = slot + 1;
+		// Keep the load factor at or below one half:
+		if (slots * 2 > table.length)
+			rehash(table.length * 2);
+		return slot;
+	}
+
+	private void allocate() {
+		table = new int[INITIAL_SLOTS * 2];
+		slotIds = new int[INITIAL_SLOTS];
+		present = new byte[INITIAL_SLOTS];
+		columns = new double[COLUMNS][INITIAL_SLOTS];
+	}
+
+	private void rehash(int length) {
+		table = new int[length];
+		int mask = length - 1;
+		for (int slot = 0; slot < slots; slot++) {
+			int i = hash(slotIds[slot]) & mask;
+			while (table[i] != 0)
+				i = (i + 1) & mask;
+			table[i] = slot + 1;
+		}
+	}
+
+	/**
+	 * @return int - The number of Tokens having a slot.
+	 */
+	public int slots() {
+		return slots;
+	}
+
+	/**
+	 * @param slot
+	 * @return int - The Token-ID of the argument slot.
+	 */
+	public int idAt(int slot) {
+		return slotIds[slot];
+	}
+
+	public boolean isPresent(int column, int slot) {
+		return (present[slot] & (1 << column)) != 0;
+	}
+
+	/**
+	 * @param column
+	 * @param slot
+	 * @return double - The score, or zero if the column holds none for the
+	 *         argument slot.
+	 */
+	public double get(int column, int slot) {
+		return columns[column][slot];
+	}
+
+	public void set(int column, int slot, double score) {
+		markPresent(column, slot);
+		columns[column][slot] = score;
+	}
+
+	/**
+	 * Adds the argument score to the one already held for the argument slot.
+	 * Absent scores count as zero.
+	 */
+	public void add(int column, int slot, double score) {
+		markPresent(column, slot);
+		columns[column][slot] += score;
+	}
+
+	private void markPresent(int column, int slot) {
+		if (!isPresent(column, slot)) {
+			present[slot] |= 1 << column;
+			columnSizes[column]++;
+		}
+	}
+
+	/**
+	 * Removes all scores of the argument column.
+	 */
+	public void clear(int column) {
+		for (int slot = 0; slot < slots; slot++) {
+			present[slot] &= ~(1 << column);
+			columns[column][slot] = 0.0;
+		}
+		columnSizes[column] = 0;
+	}
+
+	/**
+	 * @param column
+	 * @return Map - A view of the argument column mapping each Token to its
+	 *         score. Changes to the map are written through to the table and
+	 *         vice versa. Entries cannot be removed.
+	 */
+	public Map<String, Double> column(int column) {
+		return new ColumnView(column);
+	}
+
+	private class ColumnView extends AbstractMap<String, Double> {
+
+		private final int column;
+
+		public ColumnView(int column) {
+			super();
+			this.column = column;
+		}
+
+		private int presentSlot(Object token) {
+			int id = token == null ? -1 : TokenDictionary.lookup(token);
+			int slot = id < 0 ? -1 : slot(id);
+			return slot >= 0 && isPresent(column, slot) ? slot : -1;
+		}
+
+		@Override
+		public int size() {
+			return columnSizes[column];
+		}
+
+		@Override
+		public boolean containsKey(Object token) {
+			return presentSlot(token) >= 0;
+		}
+
+		@Override
+		public Double get(Object token) {
+			int slot = presentSlot(token);
+			return slot >= 0 ? TokenScoreTable.this.get(column, slot) : null;
+		}
+
+		@Override
+		public Double put(String token, Double score) {
+			Double previous = get(token);
+			set(column, slotFor(TokenDictionary.id(token)), score);
+			return previous;
+		}
+
+		@Override
+		public void clear() {
+			TokenScoreTable.this.clear(column);
+		}
+
+		@Override
+		public Set<Map.Entry<String, Double>> entrySet() {
+			return new AbstractSet<Map.Entry<String, Double>>() {
+				@Override
+				public int size() {
+					return columnSizes[column];
+				}
+
+				@Override
+				public Iterator<Map.Entry<String, Double>> iterator() {
+					return new Iterator<Map.Entry<String, Double>>() {
+						private int next = nextPresent(0);
+
+						private int nextPresent(int slot) {
+							while (slot < slots && !isPresent(column, slot))
+								slot++;
+							return slot;
+						}
+
+						@Override
+						public boolean hasNext() {
+							return next < slots;
+						}
+
+						@Override
+						public Map.Entry<String, Double> next() {
+							if (next >= slots)
+								throw new NoSuchElementException();
+							final int slot = next;
+							next = nextPresent(next + 1);
+							return new AbstractMap.SimpleEntry<String, Double>(TokenDictionary.token(idAt(slot)),
+									TokenScoreTable.this.get(column, slot)) {
+								private static final long serialVersionUID = 1L;
+
+								@Override
+								public Double setValue(Double score) {
+									set(column, slot, score);
+									return super.setValue(score);
+								}
+							};
+						}
+					};
+				}
+			};
+		}
+	}
+}
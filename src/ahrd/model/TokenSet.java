@@ -0,0 +1,187 @@
+package ahrd.model;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A Set of Tokens stored as the sorted array of their IDs in the
+ * <code>TokenDictionary</code>. Compared to a HashSet of Strings this takes a
+ * fraction of the memory, and intersecting two TokenSets is a merge of two
+ * sorted integer arrays. Tokens are iterated in the order of their IDs.
+ *
+ * @author hallab
+ */
+public class TokenSet extends AbstractSet<String> {
+
+	private static final int[] NO_IDS = new int[0];
+
+	private int[] ids = NO_IDS;
+	private int size = 0;
+
+	public TokenSet() {
+		super();
+	}
+
+	public TokenSet(Collection<String> tokens) {
+		super();
+		this.ids = new int[tokens.size()];
+		for (String token : tokens)
+			this.ids[this.size++] = TokenDictionary.id(token);
+		Arrays.sort(this.ids, 0, this.size);
+		// Remove duplicates:
+		int distinct = 0;
+		for (int i = 0; i < this.size; i++) {
+			if (distinct == 0 || this.ids[distinct - 1] != this.ids[i])
+				this.ids[distinct++] = this.ids[i];
+		}
+		this.size = distinct;
+	}
+
+	/**
+	 * @param tokens
+	 * @return TokenSet - The argument, if it already is a TokenSet, otherwise a
+	 *         TokenSet of the argument Tokens, or NULL if the argument is
+	 *         NULL.
+	 */
+	public static TokenSet of(Set<String> tokens) {
+		if (tokens == null || tokens instanceof TokenSet)
+			return (TokenSet) tokens;
+		return new TokenSet(tokens);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param i
+	 * @return int - The i-th smallest Token-ID in this set.
+	 */
+	public int idAt(int i) {
+		return ids[i];
+	}
+
+	/**
+	 * The order of the IDs depends on the order in which the Tokens have first
+	 * been seen, which varies with the scheduling of concurrent threads and
+	 * with the runs before in the same JVM. Floating point sums over the
+	 * Tokens are hence computed in the order of the Tokens themselves, so that
+	 * they are the same in every run.
+	 *
+	 * @return int[] - The IDs of the Tokens in this set, ordered by their
+	 *         Tokens.
+	 */
+	public int[] idsInTokenOrder() {
+		String[] tokens = new String[size];
+		for (int i = 0; i < size; i++)
+			tokens[i] = TokenDictionary.token(ids[i]);
+		Arrays.sort(tokens);
+		int[] ordered = new int[size];
+		for (int i = 0; i < size; i++)
+			ordered[i] = TokenDictionary.lookup(tokens[i]);
+		return ordered;
+	}
+
+	public boolean containsId(int id) {
+		return id >= 0 && Arrays.binarySearch(ids, 0, size, id) >= 0;
+	}
+
+	@Override
+	public boolean contains(Object token) {
+		return token != null && containsId(TokenDictionary.lookup(token));
+	}
+
+	public boolean addId(int id) {
+		int i = Arrays.binarySearch(ids, 0, size, id);
+		if (i >= 0)
+			return false;
+		i = -(i + 1);
+		if (size == ids.length)
+			ids = Arrays.copyOf(ids, Math.max(4, size * 2));
+		System.arraycopy(ids, i, ids, i + 1, size - i);
+		ids[i] = id;
+		size++;
+		return true;
+	}
+
+	@Override
+	public boolean add(String token) {
+		return addId(TokenDictionary.id(token));
+	}
+
+	@Override
+	public boolean remove(Object token) {
+		int id = token == null ? -1 : TokenDictionary.lookup(token);
+		int i = id < 0 ? -1 : Arrays.binarySearch(ids, 0, size, id);
+		if (i < 0)
+			return false;
+		removeAt(i);
+		return true;
+	}
+
+	private void removeAt(int i) {
+		System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+		size--;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * @param other
+	 * @return int - The number of Tokens this and the argument set have in
+	 *         common.
+	 */
+	public int intersectionSize(TokenSet other) {
+		int shared = 0;
+		int i = 0, j = 0;
+		while (i < size && j < other.size) {
+			if (ids[i] < other.ids[j]) {
+				i++;
+			} else if (ids[i] > other.ids[j]) {
+				j++;
+			} else {
+				shared++;
+				i++;
+				j++;
+			}
+		}
+		return shared;
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private int next = 0;
+			private boolean removable = false;
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			public String next() {
+				if (next >= size)
+					throw new NoSuchElementException();
+				removable = true;
+				return TokenDictionary.token(ids[next++]);
+			}
+
+			@Override
+			public void remove() {
+				if (!removable)
+					throw new IllegalStateException();
+				removeAt(--next);
+				removable = false;
+			}
+		};
+	}
+}
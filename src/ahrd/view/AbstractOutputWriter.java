@@ -8,6 +8,7 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
+import ahrd.controller.Settings;
 import ahrd.model.BlastResult;
 import ahrd.model.InterproResult;
 import ahrd.model.Protein;
@@ -33,12 +34,44 @@ public abstract class AbstractOutputWriter implements IOutputWriter {
 	}
 
 	private Collection<Protein> proteins;
+	private final Settings settings;
 
+	/**
+	 * Constructs a writer for the run whose Settings are those of the current
+	 * thread, see <code>Settings.getSettings()</code>.
+	 */
 	public AbstractOutputWriter(Collection<Protein> proteins) {
+		this(proteins, Settings.getSettings());
+	}
+
+	public AbstractOutputWriter(Collection<Protein> proteins, Settings settings) {
+		this.settings = settings;
 		setProteins(proteins);
 	}
 
-	public abstract void writeOutput() throws IOException;
+	/**
+	 * @return Settings - Those of the run whose Proteins this writer writes
+	 *         out.
+	 */
+	public Settings getSettings() {
+		return settings;
+	}
+
+	/**
+	 * Writes the annotations of all Proteins this writer has been constructed
+	 * with.
+	 */
+	public void writeOutput() throws IOException {
+		writeHeader();
+		for (Protein prot : getProteins()) {
+			writeProtein(prot);
+		}
+		close();
+	}
+
+	public void writeProtein(Protein prot) throws IOException {
+		writeFormatted(prot, formatProtein(prot));
+	}
 
 	public String buildDescriptionLine(Protein protein, String seperator) {
 		String descLine = protein.getAccession() + seperator;
@@ -1,31 +1,39 @@
 package ahrd.view;
 
-import static ahrd.controller.Settings.getSettings;
-
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Collection;
 
+import ahrd.controller.Settings;
 import ahrd.model.Protein;
 
 public class FastaOutputWriter extends AbstractOutputWriter {
 
+	private BufferedWriter bw;
+
 	public FastaOutputWriter(Collection<Protein> proteins) {
 		super(proteins);
 	}
 
-	public void writeOutput() throws IOException {
-		BufferedWriter bw = new BufferedWriter(new FileWriter(getSettings()
-				.getPathToOutput()));
+	public FastaOutputWriter(Collection<Protein> proteins, Settings settings) {
+		super(proteins, settings);
+	}
+
+	public void writeHeader() throws IOException {
+		bw = new BufferedWriter(new FileWriter(getSettings().getPathToOutput()));
+	}
+
+	public String formatProtein(Protein prot) {
+		// Fasta-Header followed by the AA-Sequence
+		return ">" + buildDescriptionLine(prot, " ") + "\n" + prot.getSequence() + "\n";
+	}
 
-		for (Protein prot : getProteins()) {
-			// Write Fasta-Header
-			bw.write(">" + buildDescriptionLine(prot, " ") + "\n");
-			// Append AA-Sequence
-			bw.write(prot.getSequence() + "\n");
-		}
+	public void writeFormatted(Protein prot, String fastaEntry) throws IOException {
+		bw.write(fastaEntry);
+	}
 
+	public void close() throws IOException {
 		bw.close();
 	}
 }
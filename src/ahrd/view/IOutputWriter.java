@@ -2,8 +2,54 @@ package ahrd.view;
 
 import java.io.IOException;
 
+import ahrd.model.Protein;
+
 public interface IOutputWriter {
 
 	public void writeOutput() throws IOException;
 
+	/**
+	 * Opens the output and writes its header, if any.
+	 * 
+	 * @throws IOException
+	 */
+	public void writeHeader() throws IOException;
+
+	/**
+	 * Writes the argument Protein's annotation. The output has to be opened
+	 * with <code>writeHeader()</code> before.
+	 * 
+	 * @param prot
+	 * @throws IOException
+	 */
+	public void writeProtein(Protein prot) throws IOException;
+
+	/**
+	 * Formats the argument Protein's annotation as written into the output by
+	 * <code>writeProtein(Protein)</code>, without writing it. Must only be
+	 * invoked by a single thread at a time.
+	 * 
+	 * @param prot
+	 * @return String - The Protein's formatted annotation
+	 */
+	public String formatProtein(Protein prot);
+
+	/**
+	 * Writes the argument Protein's annotation formatted before with
+	 * <code>formatProtein(Protein)</code>. Together both are equivalent to
+	 * <code>writeProtein(Protein)</code>.
+	 * 
+	 * @param prot
+	 * @param formatted
+	 * @throws IOException
+	 */
+	public void writeFormatted(Protein prot, String formatted) throws IOException;
+
+	/**
+	 * Flushes and closes the output.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException;
+
 }
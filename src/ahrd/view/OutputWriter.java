@@ -1,7 +1,5 @@
 package ahrd.view;
 
-import static ahrd.controller.Settings.getSettings;
-
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -9,20 +7,26 @@ import java.util.Collection;
 import java.util.List;
 
 import ahrd.controller.AHRD;
+import ahrd.controller.Settings;
 import ahrd.model.Blast2GoAnnot;
 import ahrd.model.BlastResult;
 import ahrd.model.Protein;
 
 public class OutputWriter extends AbstractOutputWriter {
 
+	protected BufferedWriter bw;
 	protected BufferedWriter hrdScoresWriter;
 
 	public OutputWriter(Collection<Protein> proteins) {
 		super(proteins);
 	}
 
-	public void writeOutput() throws IOException {
-		BufferedWriter bw = new BufferedWriter(new FileWriter(getSettings().getPathToOutput()));
+	public OutputWriter(Collection<Protein> proteins, Settings settings) {
+		super(proteins, settings);
+	}
+
+	public void writeHeader() throws IOException {
+		bw = new BufferedWriter(new FileWriter(getSettings().getPathToOutput()));
 		if (getSettings().doWriteHRDScoresToOutput())
 			writeHRDScoresOutputHeader();
 
@@ -54,44 +58,49 @@ public class OutputWriter extends AbstractOutputWriter {
 		}
 
 		bw.write("\n");
+	}
 
-		for (Protein prot : getProteins()) {
-			// Generate the Human Readable Description:
-			String csvRow = buildDescriptionLine(prot, "\t");
+	public String formatProtein(Protein prot) {
+		// Generate the Human Readable Description:
+		String csvRow = buildDescriptionLine(prot, "\t");
 
-			// If in Evaluator-Mode write out the Evaluator-Score and the
-			// Reference-Description:
-			if (getSettings().isInTrainingMode()) {
-				csvRow += buildTrainerColumns(prot);
-			}
-			// Append further information, if requested:
-			if (getSettings().getWriteBestBlastHitsToOutput()) {
-				csvRow += buildBestBlastHitsColumns(prot);
-			}
-			if (getSettings().getWriteTokenSetToOutput()) {
-				csvRow += buildTokenSetCell(prot);
-			}
-			if (getSettings().getWriteScoresToOutput()) {
-				csvRow += buildDescScoreCells(prot);
-			}
-			if (getSettings().getPathToBlast2GoAnnotations() != null
-					&& !getSettings().getPathToBlast2GoAnnotations().equals("")) {
-				csvRow += buildBlast2GoColumns(prot);
-			}
-			if (getSettings().doFindHighestPossibleEvaluationScore()) {
-				csvRow += buildHighestPossibleEvaluationScoreColumn(prot);
-			}
+		// If in Evaluator-Mode write out the Evaluator-Score and the
+		// Reference-Description:
+		if (getSettings().isInTrainingMode()) {
+			csvRow += buildTrainerColumns(prot);
+		}
+		// Append further information, if requested:
+		if (getSettings().getWriteBestBlastHitsToOutput()) {
+			csvRow += buildBestBlastHitsColumns(prot);
+		}
+		if (getSettings().getWriteTokenSetToOutput()) {
+			csvRow += buildTokenSetCell(prot);
+		}
+		if (getSettings().getWriteScoresToOutput()) {
+			csvRow += buildDescScoreCells(prot);
+		}
+		if (getSettings().getPathToBlast2GoAnnotations() != null
+				&& !getSettings().getPathToBlast2GoAnnotations().equals("")) {
+			csvRow += buildBlast2GoColumns(prot);
+		}
+		if (getSettings().doFindHighestPossibleEvaluationScore()) {
+			csvRow += buildHighestPossibleEvaluationScoreColumn(prot);
+		}
+
+		return csvRow + "\n";
+	}
 
-			// Write row to CSV:
-			csvRow += "\n";
-			bw.write(csvRow);
+	public void writeFormatted(Protein prot, String csvRow) throws IOException {
+		// Write row to CSV:
+		bw.write(csvRow);
 
-			// If AHRD is requested to write out the AHRD-Score of each
-			// BlastHit's Description, do so into another file:
-			if (getSettings().doWriteHRDScoresToOutput())
-				writeHrdScoresOutput(prot);
-		}
+		// If AHRD is requested to write out the AHRD-Score of each
+		// BlastHit's Description, do so into another file:
+		if (getSettings().doWriteHRDScoresToOutput())
+			writeHrdScoresOutput(prot);
+	}
 
+	public void close() throws IOException {
 		// CLEAN UP:
 		bw.close();
 		if (getSettings().doWriteHRDScoresToOutput())
@@ -118,11 +127,20 @@ public class OutputWriter extends AbstractOutputWriter {
 	 * distribution to the AHRD-Scores. The fitted gevd can later be used to
 	 * calculate P-Values for the AHRD-Scores assigned to each BlastHit's
 	 * Description. This method writes the above scores for the argument
-	 * protein.
+	 * protein. If <code>hrd_scores_top_k</code> is set, only the scores of
+	 * the protein's best scoring BlastHits are written, best first.
 	 * 
 	 * @throws IOException
 	 */
 	public void writeHrdScoresOutput(Protein prot) throws IOException {
+		if (getSettings().getHrdScoresTopK() > 0) {
+			for (BlastResult br : prot.getDescriptionScoreCalculator()
+					.topScoringBlastResults(getSettings().getHrdScoresTopK())) {
+				this.hrdScoresWriter
+						.write(prot.getAccession() + "\t" + br.getAccession() + "\t" + br.getDescriptionScore() + "\n");
+			}
+			return;
+		}
 		for (String blastDatabaseName : prot.getBlastResults().keySet()) {
 			for (BlastResult br : prot.getBlastResults().get(blastDatabaseName)) {
 				this.hrdScoresWriter
@@ -1,21 +1,40 @@
 package ahrd.test;
 
+import static ahrd.controller.Settings.getSettings;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.xml.sax.SAXException;
 
 import ahrd.controller.AHRD;
+import ahrd.controller.ProteinPipeline;
+import ahrd.controller.Utils;
 import ahrd.exception.MissingAccessionException;
 import ahrd.exception.MissingProteinException;
+import ahrd.model.BlastDatabaseIndex;
 import ahrd.model.BlastResult;
 import ahrd.model.InterproResult;
 import ahrd.model.Protein;
+import ahrd.model.TokenScoreCalculator;
+import ahrd.view.IOutputWriter;
 
 public class AhrdTest {
 
@@ -72,15 +91,252 @@ public class AhrdTest {
 		assertTrue(p.getTokenScoreCalculator().getTotalTokenOverlapScore() > 0.0);
 	}
 
+	@Test
+	public void testConcurrentlyParsedBlastResultsAreDeterministic()
+			throws IOException, MissingProteinException, SAXException {
+		getSettings().setNumberOfThreads(1);
+		ahrd.setProteins(TestUtils.mockProteinDb());
+		ahrd.parseBlastResults();
+		Map<String, Protein> expected = ahrd.getProteins();
+		getSettings().setNumberOfThreads(3);
+		ahrd.setProteins(TestUtils.mockProteinDb());
+		ahrd.parseBlastResults();
+		for (String protAcc : expected.keySet()) {
+			Protein e = expected.get(protAcc);
+			Protein p = ahrd.getProteins().get(protAcc);
+			assertEquals(e.getBlastResults().keySet(), p.getBlastResults()
+					.keySet());
+			for (String blastDb : e.getBlastResults().keySet()) {
+				List<BlastResult> eBrs = e.getBlastResults().get(blastDb);
+				List<BlastResult> pBrs = p.getBlastResults().get(blastDb);
+				assertEquals(eBrs.size(), pBrs.size());
+				for (int i = 0; i < eBrs.size(); i++) {
+					assertEquals(eBrs.get(i).getAccession(), pBrs.get(i)
+							.getAccession());
+				}
+			}
+			TokenScoreCalculator eTsc = e.getTokenScoreCalculator();
+			TokenScoreCalculator pTsc = p.getTokenScoreCalculator();
+			assertEquals(eTsc.getCumulativeTokenBitScores(),
+					pTsc.getCumulativeTokenBitScores());
+			assertEquals(eTsc.getCumulativeTokenBlastDatabaseScores(),
+					pTsc.getCumulativeTokenBlastDatabaseScores());
+			assertEquals(eTsc.getCumulativeTokenOverlapScores(),
+					pTsc.getCumulativeTokenOverlapScores());
+			assertEquals(eTsc.getTotalTokenBitScore(),
+					pTsc.getTotalTokenBitScore(), 0.0);
+			assertEquals(eTsc.getTotalTokenBlastDatabaseScore(),
+					pTsc.getTotalTokenBlastDatabaseScore(), 0.0);
+			assertEquals(eTsc.getTotalTokenOverlapScore(),
+					pTsc.getTotalTokenOverlapScore(), 0.0);
+			assertEquals(e.getDescriptionScoreCalculator().getMaxBitScore(), p
+					.getDescriptionScoreCalculator().getMaxBitScore(), 0.0);
+		}
+	}
+
+	@Test
+	public void testConcurrentlyAssignedDescriptionsAreDeterministic() throws Exception {
+		getSettings().setNumberOfThreads(1);
+		ahrd.setup(false);
+		ahrd.assignHumanReadableDescriptions();
+		Map<String, Protein> expected = ahrd.getProteins();
+		ahrd = new AHRD("./test/resources/ahrd_input.yml");
+		getSettings().setNumberOfThreads(3);
+		ahrd.setup(false);
+		ahrd.assignHumanReadableDescriptions();
+		assertEquals(expected.keySet(), ahrd.getProteins().keySet());
+		for (String protAcc : expected.keySet()) {
+			Protein e = expected.get(protAcc);
+			Protein p = ahrd.getProteins().get(protAcc);
+			BlastResult eBest = e.getDescriptionScoreCalculator().getHighestScoringBlastResult();
+			BlastResult pBest = p.getDescriptionScoreCalculator().getHighestScoringBlastResult();
+			assertEquals(eBest == null, pBest == null);
+			if (eBest != null) {
+				assertEquals(eBest.getAccession(), pBest.getAccession());
+				assertEquals(eBest.getDescription(), pBest.getDescription());
+			}
+			assertEquals(e.getDescriptionScoreCalculator().getDescriptionHighScore(),
+					p.getDescriptionScoreCalculator().getDescriptionHighScore());
+			assertEquals(e.getTokenScoreCalculator().getTokenScores(), p.getTokenScoreCalculator().getTokenScores());
+			assertEquals(e.getGoResults(), p.getGoResults());
+			Set<String> eIprs = new HashSet<String>();
+			for (InterproResult ipr : e.getInterproResults())
+				eIprs.add(ipr.getId());
+			Set<String> pIprs = new HashSet<String>();
+			for (InterproResult ipr : p.getInterproResults())
+				pIprs.add(ipr.getId());
+			assertEquals(eIprs, pIprs);
+		}
+	}
+
+	@Test
+	public void testProteinsAreAnnotatedWithTheirRunsSettings() throws Exception {
+		ahrd.setup(false);
+		final Protein prot = ahrd.getProteins().get("gene:chr01.502:mRNA:chr01.502");
+		assertSame(getSettings(), prot.getSettings());
+		// A thread without thread-local Settings:
+		final List<Exception> errors = new ArrayList<Exception>();
+		Thread worker = new Thread() {
+			@Override
+			public void run() {
+				try {
+					ahrd.assignHumanReadableDescription(prot);
+				} catch (Exception e) {
+					errors.add(e);
+				}
+			}
+		};
+		worker.start();
+		worker.join();
+		assertTrue(errors.isEmpty());
+		assertNotNull(prot.getDescriptionScoreCalculator().getHighestScoringBlastResult());
+	}
+
 	@Test
 	public void testParseInterproResults() throws Exception {
 		ahrd.setProteins(TestUtils.mockProteinDb());
 		// TODO: The Interpro-Database should be mocked:
-		InterproResult.initialiseInterproDb();
+		ahrd.setUpInterproDb();
 		ahrd.parseInterproResult();
 		for (String iterProtAcc : ahrd.getProteins().keySet()) {
 			Protein protein = ahrd.getProteins().get(iterProtAcc);
 			assertTrue(protein.getInterproResults().size() > 0);
 		}
+		ahrd.releaseReferenceData();
+	}
+
+	@Test
+	public void testStreamingByQueryYieldsSameOutput() throws Exception {
+		String ymlInput = "./test/resources/ahrd_input_test_run.yml";
+		ahrd = new AHRD(ymlInput);
+		ahrd.initializeProteins();
+		List<String> queryOrder = new ArrayList<String>(ahrd.getProteins().keySet());
+		// Group the tables by query in the order of the query FASTA and index
+		// copies of the Blast-Databases:
+		Map<String, String> tables = new HashMap<String, String>();
+		Map<String, String> databases = new HashMap<String, String>();
+		List<File> tmpFiles = new ArrayList<File>();
+		try {
+			for (String blastDb : getSettings().getBlastDatabases()) {
+				Map<String, List<String>> linesByQuery = new HashMap<String, List<String>>();
+				for (String line : Files.readAllLines(Paths.get(getSettings().getPathToBlastResults(blastDb)),
+						Charset.defaultCharset())) {
+					String query = line.split("\t")[0];
+					if (!linesByQuery.containsKey(query))
+						linesByQuery.put(query, new ArrayList<String>());
+					linesByQuery.get(query).add(line);
+				}
+				List<String> groupedLines = new ArrayList<String>();
+				for (String query : queryOrder) {
+					if (linesByQuery.containsKey(query))
+						groupedLines.addAll(linesByQuery.get(query));
+				}
+				File table = File.createTempFile(blastDb + "_grouped", ".txt");
+				tmpFiles.add(table);
+				Files.write(table.toPath(), groupedLines, Charset.defaultCharset());
+				tables.put(blastDb, table.getPath());
+				File fasta = File.createTempFile(blastDb + "_blast_db", ".fasta");
+				tmpFiles.add(fasta);
+				tmpFiles.add(new File(BlastDatabaseIndex.indexFilePath(fasta.getPath())));
+				Files.copy(Paths.get(getSettings().getPathToBlastDatabase(blastDb)), fasta.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+				BlastDatabaseIndex.build(fasta.getPath(), getSettings().getFastaHeaderRegex(blastDb));
+				databases.put(blastDb, fasta.getPath());
+			}
+			File expected = File.createTempFile("ahrd_output", ".csv");
+			tmpFiles.add(expected);
+			File streamed = File.createTempFile("ahrd_streamed_output", ".csv");
+			tmpFiles.add(streamed);
+			// Annotate all Proteins at once:
+			ahrd = new AHRD(ymlInput);
+			useInputs(tables, databases, expected);
+			ahrd.setup(false);
+			ahrd.assignHumanReadableDescriptions();
+			AHRD.initializeOutputWriter(ahrd.getProteins().values()).writeOutput();
+			// Annotate one Protein at a time, scoring and writing the
+			// previous Proteins while reading the next ones' Hits:
+			ahrd = new AHRD(ymlInput);
+			useInputs(tables, databases, streamed);
+			getSettings().setNumberOfThreads(3);
+			ahrd.setupStreaming(false);
+			int noProteins = ahrd.getProteins().size();
+			ahrd.streamHumanReadableDescriptions(AHRD.initializeOutputWriter(ahrd.getProteins().values()));
+			assertEquals(Utils.readFile(expected.getPath()), Utils.readFile(streamed.getPath()));
+			// All Proteins have been released:
+			assertTrue(ahrd.getProteins().isEmpty());
+			assertNotNull(ahrd.getPipeline());
+			for (ProteinPipeline.Stage stage : ahrd.getPipeline().getStages())
+				assertEquals(noProteins, stage.getProcessed());
+		} finally {
+			for (File tmpFile : tmpFiles)
+				tmpFile.delete();
+		}
+	}
+
+	@Test
+	public void testPipelinedOutputIsSameAsSequential() throws Exception {
+		File expected = File.createTempFile("ahrd_output", ".csv");
+		File pipelined = File.createTempFile("ahrd_pipelined_output", ".csv");
+		try {
+			getSettings().setNumberOfThreads(1);
+			getSettings().setPathToOutput(expected.getPath());
+			ahrd.setup(false);
+			ahrd.writeHumanReadableDescriptions(AHRD.initializeOutputWriter(ahrd.getProteins().values()));
+			assertEquals(null, ahrd.getPipeline());
+			ahrd = new AHRD("./test/resources/ahrd_input.yml");
+			getSettings().setNumberOfThreads(3);
+			getSettings().setPathToOutput(pipelined.getPath());
+			ahrd.setup(false);
+			ahrd.writeHumanReadableDescriptions(AHRD.initializeOutputWriter(ahrd.getProteins().values()));
+			assertEquals(Utils.readFile(expected.getPath()), Utils.readFile(pipelined.getPath()));
+			for (ProteinPipeline.Stage stage : ahrd.getPipeline().getStages()) {
+				assertEquals(ahrd.getProteins().size(), stage.getProcessed());
+				assertTrue(stage.getMaxQueueDepth() <= 3 * ProteinPipeline.QUEUE_CAPACITY_PER_THREAD);
+			}
+		} finally {
+			expected.delete();
+			pipelined.delete();
+		}
+	}
+
+	@Test
+	public void testPipelinePassesOnScoringFailures() throws Exception {
+		File output = File.createTempFile("ahrd_output", ".csv");
+		try {
+			getSettings().setPathToOutput(output.getPath());
+			ahrd.setup(false);
+			IOutputWriter ow = AHRD.initializeOutputWriter(ahrd.getProteins().values());
+			ow.writeHeader();
+			final String failing = ahrd.getProteins().keySet().iterator().next();
+			ProteinPipeline pipeline = new ProteinPipeline(3, new AHRD.ProteinTask() {
+				@Override
+				public void process(Protein prot) throws IOException {
+					if (prot.getAccession().equals(failing))
+						throw new IOException("Scoring " + failing + " failed");
+				}
+			}, ow);
+			try {
+				for (Protein prot : ahrd.getProteins().values())
+					pipeline.put(prot);
+				pipeline.finish();
+				fail("The scoring failure should have been passed on");
+			} catch (IOException expected) {
+				assertEquals("Scoring " + failing + " failed", expected.getMessage());
+			} finally {
+				pipeline.abort();
+			}
+			// The output has been closed, i.e. flushed:
+			assertTrue(Utils.readFile(output.getPath()).startsWith("# AHRD-Version"));
+		} finally {
+			output.delete();
+		}
+	}
+
+	private void useInputs(Map<String, String> tables, Map<String, String> databases, File output) {
+		for (String blastDb : tables.keySet()) {
+			getSettings().getBlastDbSettings().get(blastDb).put("file", tables.get(blastDb));
+			getSettings().getBlastDbSettings().get(blastDb).put("database", databases.get(blastDb));
+		}
+		getSettings().setPathToOutput(output.getPath());
 	}
 }
@@ -3,9 +3,13 @@ package ahrd.test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Before;
@@ -116,6 +120,33 @@ public class BatcherTest {
 						.toString());
 	}
 
+	@Test
+	public void testBatchesRunTogetherShareTheProcessors() {
+		// Only passed on, if given:
+		assertNull(this.batcher.generateYml("batch001.fasta").get(Settings.NUMBER_OF_THREADS_KEY));
+		this.batcher.getInput().put(Batcher.RUN_BATCHES_KEY, "true");
+		this.batcher.getInput().put(Batcher.PARALLEL_BATCHES_KEY, "2");
+		assertEquals(Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+				this.batcher.generateYml("batch001.fasta").get(Settings.NUMBER_OF_THREADS_KEY));
+		this.batcher.getInput().put(Settings.NUMBER_OF_THREADS_KEY, "3");
+		assertEquals("3", this.batcher.generateYml("batch001.fasta").get(Settings.NUMBER_OF_THREADS_KEY));
+	}
+
+	@Test
+	public void testRunBatchesIsolatesFailedBatches() throws Exception {
+		File output = new File("./ahrd_output.csv");
+		try {
+			this.batcher.getInput().put(Batcher.PARALLEL_BATCHES_KEY, "2");
+			this.batcher.getBatchYmls().put("missing", "./test/resources/missing_batch_input.yml");
+			this.batcher.getBatchYmls().put("valid", "./test/resources/ahrd_input.yml");
+			List<String> failedBatches = this.batcher.runBatches();
+			assertEquals(Arrays.asList("missing"), failedBatches);
+			assertTrue(output.exists());
+		} finally {
+			output.delete();
+		}
+	}
+
 	@Test
 	public void testGeneratePathToBatchYml() {
 		String batchName = "oveja001.fasta";
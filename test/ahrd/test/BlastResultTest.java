@@ -5,21 +5,31 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import ahrd.controller.Settings;
 import ahrd.exception.MissingProteinException;
+import ahrd.model.BestBlastResults;
+import ahrd.model.BlastDatabaseIndex;
 import ahrd.model.BlastResult;
 import ahrd.model.Protein;
+import ahrd.model.SameHitBlastResults;
+import ahrd.model.ShortAccessions;
 
 public class BlastResultTest {
 
@@ -32,14 +42,6 @@ public class BlastResultTest {
 		TestUtils.initTestSettings();
 	}
 
-	@Test
-	public void testPatternize() {
-		BlastResult br = TestUtils.mockBlastResult("accession_5", 5.0, "description_5 Fly-Wing formation", 10, 20, 10,
-				20, 200, 30.0, "trembl",
-				new HashSet<String>(Arrays.asList("description", "5", "fly", "wing", "formation")));
-		assertEquals("5descriptionflyformationwing", br.patternize());
-	}
-
 	@Test
 	public void testTokenize() throws IOException {
 		BlastResult br = new BlastResult("accession_1", 1.0, "one tWo Three protein homolog putative", 10, 20, 10, 20,
@@ -86,6 +88,39 @@ public class BlastResultTest {
 		assertEquals(1, blastResults.get("accession_2").size());
 	}
 
+	@Test
+	public void testAddBlastResultOfPopularHit() {
+		List<Protein> queries = new ArrayList<Protein>();
+		Map<String, List<BlastResult>> blastResults = new HashMap<String, List<BlastResult>>();
+		// More queries than are scanned linearly:
+		for (int i = 0; i < 3 * SameHitBlastResults.MIN_INDEXED_SIZE; i++) {
+			Protein query = new Protein("query_" + i, 100);
+			queries.add(query);
+			BlastResult.addBlastResult(blastResults,
+					new BlastResult("popular_hit", 1.0, 10, 20, 10, 20, 200, "swissprot", query), null);
+		}
+		for (int i = queries.size() - 1; i >= 0; i--) {
+			BlastResult.addBlastResult(blastResults,
+					new BlastResult("popular_hit", 1.0, 10, 20, 10, 20, i % 2 == 0 ? 300 : 100, "swissprot",
+							queries.get(i)), null);
+		}
+		List<BlastResult> sameHitBrs = blastResults.get("popular_hit");
+		assertEquals(queries.size(), sameHitBrs.size());
+		for (int i = 0; i < queries.size(); i++) {
+			// Queries keep the position they were first seen at:
+			assertEquals(queries.get(i), sameHitBrs.get(i).getProtein());
+			// And only the best scoring HSP is kept:
+			assertEquals(i % 2 == 0 ? 300.0 : 200.0, sameHitBrs.get(i).getBitScore(), 0.0);
+		}
+		// The index of the queries cannot get out of step with the list:
+		try {
+			sameHitBrs.remove(0);
+			fail("SameHitBlastResults must only be added to with addHsp.");
+		} catch (UnsupportedOperationException e) {
+			assertEquals(0, ((SameHitBlastResults) sameHitBrs).indexOfQuery(queries.get(0)));
+		}
+	}
+
 	@Test
 	public void testParseBlastResults() throws MissingProteinException, IOException {
 		Map<String, Protein> protDb = TestUtils.mockProteinDb();
@@ -138,6 +173,17 @@ public class BlastResultTest {
 		assertEquals(new Integer(668), p2.getBlastResults().get("tair").get(199).getSubjectLength());
 	}
 
+	@Test
+	public void testExtractAccession() {
+		assertEquals("sp|Q9SXB8|Y1133_ARATH", BlastResult.extractAccession(
+				">sp|Q9SXB8|Y1133_ARATH Probable receptor kinase OS=Arabidopsis thaliana",
+				Settings.DEFAULT_FASTA_HEADER_ACCESSION_DELIMITER));
+		assertEquals("AT1G01010.1", BlastResult.extractAccession(">AT1G01010.1\t| NAC domain",
+				Settings.DEFAULT_FASTA_HEADER_ACCESSION_DELIMITER));
+		assertEquals("AT1G01010.1", BlastResult.extractAccession(">AT1G01010.1 | NAC domain", "|"));
+		assertEquals("accession_1", BlastResult.extractAccession(">accession_1", " "));
+	}
+
 	@Test
 	public void testCompareBlastResultsBasedOnTheirEvalues() {
 		BlastResult br1 = new BlastResult("accession_1", 3e-163, "description_1", 10, 20, 10, 20, 200, 30, "swissprot");
@@ -171,6 +217,42 @@ public class BlastResultTest {
 		assertEquals("Q9SXB8", br.getShortAccession());
 	}
 
+	@Test
+	public void testShortAccessionsAreCachedAndMissesCounted() {
+		ShortAccessions shortAccessions = new ShortAccessions(Settings.DEFAULT_SHORT_ACCESSION_REGEX);
+		String shortAcc = shortAccessions.shortAccession("sp|Q9SXB8|Y1133_ARATH");
+		assertEquals("Q9SXB8", shortAcc);
+		// Resolved once, shared afterwards:
+		assertTrue(shortAcc == shortAccessions.shortAccession(new String("sp|Q9SXB8|Y1133_ARATH")));
+		// Accessions not matching are their own short accessions:
+		for (int i = 0; i < 2 * ShortAccessions.MAX_SAMPLE_MISSES; i++) {
+			assertEquals("Q" + i, shortAccessions.shortAccession("Q" + i));
+			assertEquals("Q" + i, shortAccessions.shortAccession("Q" + i));
+		}
+		// Each distinct accession is counted once:
+		assertEquals(2 * ShortAccessions.MAX_SAMPLE_MISSES, shortAccessions.getNumberOfMisses());
+		assertEquals(Arrays.asList("Q0", "Q1", "Q2", "Q3", "Q4"), shortAccessions.getSampleMisses());
+		shortAccessions.reportMisses("swissprot");
+		assertEquals(0, shortAccessions.getNumberOfMisses());
+		assertTrue(shortAccessions.getSampleMisses().isEmpty());
+		// Short accessions equal to the whole accession are no misses:
+		shortAccessions = new ShortAccessions(Pattern.compile("^(?<shortAccession>.+)$"));
+		assertEquals("AT3G03300.2", shortAccessions.shortAccession("AT3G03300.2"));
+		assertEquals(0, shortAccessions.getNumberOfMisses());
+	}
+
+	@Test
+	public void testShortAccessionsAreDroppedOnceReported() throws IOException {
+		TestUtils.initTestSettings();
+		ShortAccessions shortAccessions = getSettings().getShortAccessions("swissprot");
+		assertTrue(shortAccessions == getSettings().getShortAccessions("swissprot"));
+		assertEquals("Q9SXB8", shortAccessions.shortAccession("sp|Q9SXB8|Y1133_ARATH"));
+		// The cache is kept for a single phase only:
+		getSettings().reportShortAccessionMisses();
+		assertTrue(shortAccessions != getSettings().getShortAccessions("swissprot"));
+		assertEquals(shortAccessions.getRegex().pattern(), getSettings().getShortAccessionRegex("swissprot").pattern());
+	}
+
 	@Test
 	public void testParseLongBlastResults() throws IOException, MissingProteinException {
 		TestUtils.initTestSettings();
@@ -229,6 +311,9 @@ public class BlastResultTest {
 		assertNotNull(theBr);
 		assertNotNull(theBr.getSubjectLength());
 		assertNotNull(theBr.getDescription());
+		// Descriptions of the kept BlastResults are tokenized, when the scores
+		// are measured:
+		theBr.getProtein().measureScores();
 		assertNotNull(theBr.getTokens());
 		assertEquals(3, theBr.getTokens().size());
 		assertTrue(theBr.isValid());
@@ -270,4 +355,129 @@ public class BlastResultTest {
 		assertEquals("tr|W9CFB7|W9CFB7_9HELO",
 				p1.getEvaluationScoreCalculator().getUnchangedBlastResults().get("trembl").getAccession());
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testParseBlastDatabaseUsingIndex() throws IOException, MissingProteinException {
+		TestUtils.initTestSettings();
+		getSettings().getBlastDbSettings().get("trembl").put("file", "./test/resources/bgh04634_vs_trEMBL.txt");
+		getSettings().getBlastDbSettings().get("trembl").put("database",
+				"./test/resources/bgh04634_trembl_database.fasta");
+		getSettings().setPathToGeneOntologyResults(null);
+		Map<String, Protein> scannedProtDb = TestUtils.mockProteinDb();
+		BlastResult.parseBlastDatabase(scannedProtDb, "trembl",
+				BlastResult.parseBlastResults(scannedProtDb, "trembl", null));
+		// Index a copy of the Blast database:
+		File fasta = File.createTempFile("bgh04634_trembl_database", ".fasta");
+		File index = new File(BlastDatabaseIndex.indexFilePath(fasta.getPath()));
+		try {
+			Files.copy(new File("./test/resources/bgh04634_trembl_database.fasta").toPath(), fasta.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			getSettings().getBlastDbSettings().get("trembl").put("database", fasta.getPath());
+			assertTrue(BlastDatabaseIndex.build(fasta.getPath(), getSettings().getFastaHeaderRegex("trembl")) > 0);
+			BlastDatabaseIndex bdi = BlastDatabaseIndex.open(fasta.getPath(),
+					getSettings().getFastaHeaderRegex("trembl"));
+			assertNotNull(bdi);
+			bdi.close();
+			// An index built with another regular expression must not be used:
+			assertNull(BlastDatabaseIndex.open(fasta.getPath(),
+					Pattern.compile("^>(?<accession>\\S+)\\s+(?<description>.+)$")));
+			Map<String, Protein> indexedProtDb = TestUtils.mockProteinDb();
+			BlastResult.parseBlastDatabase(indexedProtDb, "trembl",
+					BlastResult.parseBlastResults(indexedProtDb, "trembl", null));
+			// The index must yield exactly the same candidates in the same
+			// order:
+			for (String protAcc : scannedProtDb.keySet()) {
+				List<BlastResult> scanned = scannedProtDb.get(protAcc).getBlastResults().get("trembl");
+				List<BlastResult> indexed = indexedProtDb.get(protAcc).getBlastResults().get("trembl");
+				if (scanned == null) {
+					assertNull(indexed);
+					continue;
+				}
+				assertEquals(scanned.size(), indexed.size());
+				for (int i = 0; i < scanned.size(); i++) {
+					assertEquals(scanned.get(i).getAccession(), indexed.get(i).getAccession());
+					assertEquals(scanned.get(i).getDescription(), indexed.get(i).getDescription());
+					assertEquals(scanned.get(i).getSubjectLength(), indexed.get(i).getSubjectLength());
+					assertEquals(scanned.get(i).getTokens(), indexed.get(i).getTokens());
+				}
+			}
+		} finally {
+			index.delete();
+			fasta.delete();
+		}
+	}
+
+	@Test
+	public void testBestBlastResultsSelectLikeSorting() {
+		List<BlastResult> all = new ArrayList<BlastResult>();
+		BestBlastResults best = new BestBlastResults(50);
+		for (int i = 0; i < 1000; i++) {
+			// Many equal E-Values:
+			BlastResult br = new BlastResult("acc_" + i, (double) ((i * 7919) % 97), "description", 1, 10, 1, 10, 100,
+					50.0, "swissprot");
+			all.add(br);
+			best.offer(br);
+			assertTrue(best.size() <= 50);
+		}
+		best.finish();
+		List<BlastResult> sorted = new ArrayList<BlastResult>(all);
+		Collections.sort(sorted);
+		assertEquals(sorted.subList(0, 50), best);
+		// Fewer than maxSize are kept in the order they were offered:
+		BestBlastResults few = new BestBlastResults(50);
+		for (BlastResult br : all.subList(0, 10))
+			few.offer(br);
+		few.finish();
+		assertEquals(all.subList(0, 10), few);
+		// The bound cannot be bypassed:
+		try {
+			few.add(all.get(10));
+			fail("BestBlastResults must only be added to with offer.");
+		} catch (UnsupportedOperationException e) {
+			assertEquals(10, few.size());
+		}
+	}
+
+	@Test
+	public void testBlacklistedBlastResultsDoNotTakeThePlaceOfValidOnes() {
+		getSettings().setMaxBlastResultsPerDatabase(3);
+		Protein p = new Protein("protein", 100);
+		// The best Hits are all blacklisted:
+		for (int i = 0; i < 5; i++) {
+			p.addBlastResult(new BlastResult("uncharacterized_" + i, 1e-50 * (i + 1), "Uncharacterized protein", 1,
+					10, 1, 10, 100, 100.0, "swissprot"));
+		}
+		for (int i = 0; i < 5; i++) {
+			p.addBlastResult(new BlastResult("acc_" + i, 1e-10 * (i + 1), "Kinase domain protein", 1, 10, 1, 10,
+					100, 50.0, "swissprot"));
+		}
+		p.measureScores();
+		List<BlastResult> kept = p.getBlastResults().get("swissprot");
+		assertEquals(3, kept.size());
+		for (int i = 0; i < kept.size(); i++)
+			assertEquals("acc_" + i, kept.get(i).getAccession());
+	}
+
+	@Test
+	public void testProteinKeepsMaxBlastResultsPerDatabase() {
+		getSettings().setMaxBlastResultsPerDatabase(3);
+		Protein p = new Protein("protein", 100);
+		for (int i = 0; i < 10; i++) {
+			p.addBlastResult(new BlastResult("acc_" + i, 10.0 - i, "description", 1, 10, 1, 10, 100, 10.0 + i,
+					"swissprot"));
+		}
+		assertEquals(3, p.getBlastResults().get("swissprot").size());
+		p.measureScores();
+		assertEquals("acc_9", p.getBlastResults().get("swissprot").get(0).getAccession());
+		assertEquals("acc_7", p.getBlastResults().get("swissprot").get(2).getAccession());
+		// Scores are measured for the kept BlastResults only:
+		assertEquals(19.0, p.getDescriptionScoreCalculator().getMaxBitScore(), 0.0);
+		assertEquals(54.0, p.getTokenScoreCalculator().getTotalTokenBitScore(), 0.0);
+		assertEquals(54.0, p.getTokenScoreCalculator().getCumulativeTokenBitScores().get("description"), 0.0);
+		// BlastResults added after measuring are bounded, too:
+		p.addBlastResult(new BlastResult("acc_10", 0.0, "description", 1, 10, 1, 10, 100, 20.0, "swissprot"));
+		assertTrue(p.getBlastResults().get("swissprot") instanceof BestBlastResults);
+		assertEquals(3, p.getBlastResults().get("swissprot").size());
+		assertEquals("acc_10", p.getBlastResults().get("swissprot").get(2).getAccession());
+	}
+}
@@ -2,6 +2,7 @@ package ahrd.test;
 
 import static ahrd.controller.Settings.getSettings;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -100,4 +101,59 @@ public class DescriptionScoreCalculatorTest {
 				p.getDescriptionScoreCalculator().getHighestScoringBlastResult().getDescription());
 
 	}
+
+	@Test
+	public void testTopScoringBlastResults() {
+		Protein p = TestUtils.mockProteinAndBlastResultsForDescriptionScoreCalculatorTest();
+		p.getDescriptionScoreCalculator().findHighestScoringBlastResult(null);
+		List<BlastResult> top = p.getDescriptionScoreCalculator().topScoringBlastResults(3);
+		assertEquals(3, top.size());
+		assertEquals(p.getDescriptionScoreCalculator().getHighestScoringBlastResult(), top.get(0));
+		for (int i = 1; i < top.size(); i++)
+			assertTrue(top.get(i - 1).getDescriptionScore() >= top.get(i).getDescriptionScore());
+		// All candidates with Tokens, if k exceeds their number:
+		int candidates = 0;
+		for (List<BlastResult> brs : p.getBlastResults().values())
+			for (BlastResult br : brs)
+				if (br.getTokens().size() > 0)
+					candidates++;
+		assertEquals(candidates, p.getDescriptionScoreCalculator().topScoringBlastResults(100).size());
+		assertTrue(p.getDescriptionScoreCalculator().topScoringBlastResults(0).isEmpty());
+	}
+
+	@Test
+	public void testTopScoringBlastResultsPreferThoseWithGOAnnos() {
+		getSettings().setPreferReferenceWithGoAnnos(true);
+		Protein p = TestUtils.mockProteinAndBlastResultsForDescriptionScoreCalculatorTest();
+		Map<String, Set<String>> refGos = TestUtils.mockReferenceGoAnnotationsForDescriptionScoreCalculatorTest();
+		p.getDescriptionScoreCalculator().findHighestScoringBlastResult(refGos);
+		List<BlastResult> top = p.getDescriptionScoreCalculator().topScoringBlastResults(100);
+		assertEquals(p.getDescriptionScoreCalculator().getHighestScoringBlastResult(), top.get(0));
+		// Both with GO annotations, then the others, each best first:
+		assertEquals(Arrays.asList("accession_4", "accession_1"),
+				Arrays.asList(top.get(0).getShortAccession(), top.get(1).getShortAccession()));
+		assertTrue(top.get(0).getDescriptionScore() >= top.get(1).getDescriptionScore());
+		for (int i = 2; i < top.size(); i++) {
+			assertTrue(!refGos.containsKey(top.get(i).getShortAccession()));
+			if (i > 2)
+				assertTrue(top.get(i - 1).getDescriptionScore() >= top.get(i).getDescriptionScore());
+		}
+	}
+
+	@Test
+	public void testTopScoringBlastResultsBreaksTiesDeterministically() {
+		Protein p = new Protein("sweet_sheep_protein", 200);
+		p.setLexicalScoreCalculator(new TestUtils.LexicalScoreCalculatorMock(p));
+		List<BlastResult> brs = new ArrayList<BlastResult>();
+		for (int i = 1; i <= 5; i++)
+			brs.add(TestUtils.mockBlastResult("accession_" + i, 1.0, "goat sheep wool", 10, 20, 10, 20, 200, 30.0,
+					"swissprot", new HashSet<String>(Arrays.asList("goat", "sheep", "wool"))));
+		p.getBlastResults().put("swissprot", brs);
+		p.getDescriptionScoreCalculator().setMaxBitScore(30.0);
+		p.getDescriptionScoreCalculator().findHighestScoringBlastResult(null);
+		// All score equally, the later visited ranks higher:
+		List<BlastResult> top = p.getDescriptionScoreCalculator().topScoringBlastResults(2);
+		assertEquals(Arrays.asList(brs.get(4), brs.get(3)), top);
+		assertEquals(brs.get(4), p.getDescriptionScoreCalculator().getHighestScoringBlastResult());
+	}
 }
@@ -19,6 +19,7 @@ import ahrd.model.BlastResult;
 import ahrd.model.EvaluationScoreCalculator;
 import ahrd.model.Protein;
 import ahrd.model.ReferenceDescription;
+import ahrd.model.TokenSet;
 
 public class EvaluationScoreCalculatorTest {
 
@@ -90,6 +91,30 @@ public class EvaluationScoreCalculatorTest {
 				assignedDesc3, referenceTokens, allBlastTokens), 0.0);
 	}
 
+	@Test
+	public void testRatesOfTokenSets() {
+		TokenSet allBlastTokens = new TokenSet(Arrays.asList("sheep", "wool",
+				"growth", "factor", "goat", "horn", "tail"));
+		TokenSet referenceTokens = new TokenSet(Arrays.asList("sheep", "wool",
+				"growth", "factor", "wool"));
+		TokenSet assignedDesc = new TokenSet(Arrays.asList("goat", "wool",
+				"growth"));
+		assertEquals(4, referenceTokens.size());
+		assertTrue(assignedDesc.contains("goat"));
+		assertTrue(!assignedDesc.contains("sheep"));
+		assertEquals(2, assignedDesc.intersectionSize(referenceTokens));
+		// Same results as for sets of Strings:
+		assertEquals(2.0, EvaluationScoreCalculator.truePositives(
+				assignedDesc, referenceTokens), 0.0);
+		assertEquals(0.5, EvaluationScoreCalculator.truePositivesRate(
+				assignedDesc, referenceTokens), 0.0);
+		assertEquals((1.0 / 3.0), EvaluationScoreCalculator.falsePositivesRate(
+				assignedDesc, referenceTokens, allBlastTokens), 0.0);
+		// Mixed with sets of Strings:
+		assertEquals(2.0, EvaluationScoreCalculator.truePositives(
+				new HashSet<String>(assignedDesc), referenceTokens), 0.0);
+	}
+
 	@Test
 	public void testF1Score() {
 		Set<String> referenceTokens = new HashSet<String>(Arrays.asList(
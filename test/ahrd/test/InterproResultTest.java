@@ -1,23 +1,29 @@
 package ahrd.test;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
 
 import static junit.framework.Assert.*;
 
 import nu.xom.ParsingException;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import ahrd.model.InterproResult;
 import ahrd.model.Protein;
+import ahrd.model.ReferenceDataRegistry;
 
 import ahrd.exception.MissingProteinException;
 import ahrd.exception.MissingInterproResultException;
 
 public class InterproResultTest {
 
+	private ReferenceDataRegistry.Handle<Map<String, InterproResult>> interproDbHandle;
+	private Map<String, InterproResult> interproDb;
+
 	public InterproResultTest() {
 		super();
 	}
@@ -25,47 +31,53 @@ public class InterproResultTest {
 	@Before
 	public void initialiseInterproDb() throws IOException, ParsingException {
 		TestUtils.initTestSettings();
-		InterproResult.initialiseInterproDb();
+		interproDbHandle = InterproResult.initialiseInterproDb();
+		interproDb = interproDbHandle.get();
+	}
+
+	@After
+	public void releaseInterproDb() {
+		interproDbHandle.release();
 	}
 
 	@Test
 	public void testInitialisationOfInterproDb() {
-		assertNotNull(InterproResult.getInterproDb());
-		assertTrue(InterproResult.getInterproDb().size() > 0);
-		InterproResult ipr = InterproResult.getInterproDb().get("IPR000003");
+		assertNotNull(interproDb);
+		assertTrue(interproDb.size() > 0);
+		InterproResult ipr = interproDb.get("IPR000003");
 		assertNotNull(ipr);
 		assertEquals("IPR000003", ipr.getId());
 		assertEquals("IPR001723", ipr.getParentId());
 		assertEquals("Retinoid-X_rcpt", ipr.getShortName());
-		assertEquals("Kringle", InterproResult.getInterproDb().get("IPR000001")
+		assertEquals("Kringle", interproDb.get("IPR000001")
 				.getShortName());
 		assertEquals("Family", ipr.getType());
 		assertEquals("Retinoid X receptor", ipr.getName());
-		assertTrue(InterproResult.getInterproDb().containsKey("IPR000535"));
-		assertTrue(InterproResult.getInterproDb().containsKey("IPR000536"));
+		assertTrue(interproDb.containsKey("IPR000535"));
+		assertTrue(interproDb.containsKey("IPR000536"));
 	}
 
 	@Test
 	public void testRecursiveParentSearch()
 			throws MissingInterproResultException {
-		InterproResult irpChild = InterproResult.getInterproDb().get(
+		InterproResult irpChild = interproDb.get(
 				"IPR000003");
-		InterproResult irpGrandParent = InterproResult.getInterproDb().get(
+		InterproResult irpGrandParent = interproDb.get(
 				"IPR013806");
-		assertTrue(irpChild.isParent(irpGrandParent));
+		assertTrue(irpChild.isParent(irpGrandParent, interproDb));
 	}
 
 	@Test
 	public void testRecursiveContainsSearch()
 			throws MissingInterproResultException {
-		InterproResult iprContainer = InterproResult.getInterproDb().get(
+		InterproResult iprContainer = interproDb.get(
 				"IPR000003");
-		InterproResult iprContainee = InterproResult.getInterproDb().get(
+		InterproResult iprContainee = interproDb.get(
 				"IPR000535");
-		InterproResult ipr1stLvlConatinee = InterproResult.getInterproDb().get(
+		InterproResult ipr1stLvlConatinee = interproDb.get(
 				"IPR000536");
-		assertTrue(iprContainer.contains(ipr1stLvlConatinee));
-		assertTrue(iprContainer.contains(iprContainee));
+		assertTrue(iprContainer.contains(ipr1stLvlConatinee, interproDb));
+		assertTrue(iprContainer.contains(iprContainee, interproDb));
 	}
 
 	@Test
@@ -73,7 +85,7 @@ public class InterproResultTest {
 			MissingInterproResultException {
 		Map<String, Protein> proteinDb = TestUtils.mockProteinDb();
 		try {
-			InterproResult.parseInterproResult(proteinDb);
+			InterproResult.parseInterproResult(proteinDb, interproDb);
 		} catch (IOException e) {
 			e.printStackTrace(System.out);
 		}
@@ -83,13 +95,13 @@ public class InterproResultTest {
 				.getInterproResults().size());
 		assertTrue(proteinDb.get("gene:chr01.502:mRNA:chr01.502")
 				.getInterproResults().contains(
-						InterproResult.getInterproDb().get("IPR000535")));
+						interproDb.get("IPR000535")));
 		assertTrue(proteinDb.get("gene:chr01.1056:mRNA:chr01.1056")
 				.getInterproResults().contains(
-						InterproResult.getInterproDb().get("IPR000006")));
+						interproDb.get("IPR000006")));
 		assertTrue(proteinDb.get("gene:chr01.1056:mRNA:chr01.1056")
 				.getInterproResults().contains(
-						InterproResult.getInterproDb().get("IPR000536")));
+						interproDb.get("IPR000536")));
 	}
 
 	@Test
@@ -118,25 +130,27 @@ public class InterproResultTest {
 		ipr2.getContains().add(ipr5.getId());
 		ipr2.getContains().add(ipr6.getId());
 		ipr6.getContains().add(ipr7.getId());
-		// Add InterproResults to Protein and InterproResult-Database:
+		// Add InterproResults to Protein and InterproResult-Database, the
+		// shared one must not be modified:
+		Map<String, InterproResult> interproDb = new HashMap<String, InterproResult>(this.interproDb);
 		p.getInterproResults().add(ipr1);
-		InterproResult.getInterproDb().put(ipr1.getId(), ipr1);
+		interproDb.put(ipr1.getId(), ipr1);
 		p.getInterproResults().add(ipr2);
-		InterproResult.getInterproDb().put(ipr2.getId(), ipr2);
+		interproDb.put(ipr2.getId(), ipr2);
 		p.getInterproResults().add(ipr3);
-		InterproResult.getInterproDb().put(ipr3.getId(), ipr3);
+		interproDb.put(ipr3.getId(), ipr3);
 		p.getInterproResults().add(ipr4);
-		InterproResult.getInterproDb().put(ipr4.getId(), ipr4);
+		interproDb.put(ipr4.getId(), ipr4);
 		p.getInterproResults().add(ipr5);
-		InterproResult.getInterproDb().put(ipr5.getId(), ipr5);
+		interproDb.put(ipr5.getId(), ipr5);
 		p.getInterproResults().add(ipr6);
-		InterproResult.getInterproDb().put(ipr6.getId(), ipr6);
+		interproDb.put(ipr6.getId(), ipr6);
 		p.getInterproResults().add(ipr7);
-		InterproResult.getInterproDb().put(ipr7.getId(), ipr7);
+		interproDb.put(ipr7.getId(), ipr7);
 
 		// After filtering Protein p should only have the
 		// InterproResults ipr1 and ipr2:
-		InterproResult.filterForMostInforming(p);
+		InterproResult.filterForMostInforming(p, interproDb);
 		assertEquals(2, p.getInterproResults().size());
 		assertTrue(p.getInterproResults().contains(ipr1));
 		assertTrue(p.getInterproResults().contains(ipr2));
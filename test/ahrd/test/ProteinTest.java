@@ -6,7 +6,11 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -123,6 +127,61 @@ public class ProteinTest {
 		assertEquals(2, prot_db.size());
 	}
 
+	@Test
+	public void testStreamingInitialisationOfProteinsFromFasta()
+			throws IOException, MissingAccessionException {
+		// Compare with the legacy approach reading the whole file into memory:
+		Map<String, Protein> expected = Protein.initializeProteins(getSettings()
+				.getProteinsFasta());
+		ReadableByteChannel fasta = getSettings().getProteinsFastaChannel();
+		Map<String, Protein> prot_db = null;
+		try {
+			prot_db = Protein.initializeProteins(fasta);
+		} finally {
+			fasta.close();
+		}
+		assertEquals(expected.keySet(), prot_db.keySet());
+		for (String acc : expected.keySet()) {
+			assertEquals(expected.get(acc).getSequenceLength(),
+					prot_db.get(acc).getSequenceLength());
+			assertNull(prot_db.get(acc).getSequence());
+		}
+		// Multi-line sequences, trailing white spaces, windows line endings
+		// and AA-sequences held in memory:
+		getSettings().setOutputFasta(true);
+		String str = ">Protein_One Expressed in stupid user\r\nSPGYDASMTD \r\nSRSSGIS\r\n>Protein_Two\nMADDSKFCFF\n\nLVSTF\n";
+		prot_db = Protein.initializeProteins(Channels
+				.newChannel(new ByteArrayInputStream(str.getBytes())));
+		assertEquals(2, prot_db.size());
+		assertEquals(new Integer(17), prot_db.get("Protein_One")
+				.getSequenceLength());
+		assertEquals("SPGYDASMTDSRSSGIS", prot_db.get("Protein_One")
+				.getSequence());
+		assertEquals(new Integer(15), prot_db.get("Protein_Two")
+				.getSequenceLength());
+		assertEquals("MADDSKFCFFLVSTF", prot_db.get("Protein_Two")
+				.getSequence());
+	}
+
+	@Test
+	public void testStreamingInitialisationOfLatin1Headers() throws IOException, MissingAccessionException {
+		String str = ">Protein_One Prot\u00e9ine inconnue\nSPGYDASMTD\n>Protein_Two\nMADDSKFCFF\n";
+		// Not valid UTF-8:
+		Map<String, Protein> prot_db = Protein.initializeProteins(Channels
+				.newChannel(new ByteArrayInputStream(str.getBytes(StandardCharsets.ISO_8859_1))));
+		assertEquals(2, prot_db.size());
+		assertEquals(new Integer(10), prot_db.get("Protein_One").getSequenceLength());
+		assertEquals(new Integer(10), prot_db.get("Protein_Two").getSequenceLength());
+	}
+
+	@Test(expected = MissingAccessionException.class)
+	public void testStreamingInitialisationFailsOnMissingAccession()
+			throws IOException, MissingAccessionException {
+		String str = ">Protein_One\nSPGYDASMTD\n> no accession\nMADDSKFCFF\n";
+		Protein.initializeProteins(Channels.newChannel(new ByteArrayInputStream(
+				str.getBytes())));
+	}
+
 	@Test
 	public void testFastaSplitter() {
 		String str = ">Protein One->Expressed in stupid user\nSPGYDASMTDSRSSGISMSIGGRSLASEDSDGLTPSAVFSQIMNPKGR\n>Protein Two\nMADDSKFCFFLVSTFLLLAVVVNVTLAANYVPGDDILLNCGGPDNLPDADGRKWGTDIGS";
@@ -0,0 +1,99 @@
+package ahrd.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ahrd.model.ReferenceDataRegistry;
+
+public class ReferenceDataRegistryTest {
+
+	private static final String KIND = "test_dataset";
+
+	private File file;
+	private AtomicInteger loads;
+	private ReferenceDataRegistry.Loader<String, RuntimeException> loader;
+
+	public ReferenceDataRegistryTest() {
+		super();
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("reference_data", ".txt");
+		loads = new AtomicInteger();
+		loader = new ReferenceDataRegistry.Loader<String, RuntimeException>() {
+			public String load(String path) throws IOException {
+				return "dataset " + loads.incrementAndGet();
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		ReferenceDataRegistry.getRegistry().evictUnused();
+		file.delete();
+	}
+
+	@Test
+	public void testLoadsOnceAndCountsReferences() throws IOException {
+		ReferenceDataRegistry registry = ReferenceDataRegistry.getRegistry();
+		ReferenceDataRegistry.Handle<String> first = registry.acquire(KIND, file.getPath(), loader);
+		ReferenceDataRegistry.Handle<String> second = registry.acquire(KIND, file.getPath(), loader);
+		assertEquals(1, loads.get());
+		assertSame(first.get(), second.get());
+		assertEquals(2, registry.getReferences(KIND, file.getPath()));
+		// Releasing twice has no effect:
+		first.release();
+		first.release();
+		assertEquals(1, registry.getReferences(KIND, file.getPath()));
+		// Referenced datasets are not evicted:
+		registry.evictUnused();
+		assertEquals(1, registry.getReferences(KIND, file.getPath()));
+		second.release();
+		// Unreferenced datasets are kept until evicted:
+		assertEquals("dataset 1", registry.acquire(KIND, file.getPath(), loader).get());
+		assertEquals(1, loads.get());
+		// A different kind is loaded separately:
+		assertEquals("dataset 2", registry.acquire(KIND + " other", file.getPath(), loader).get());
+	}
+
+	@Test
+	public void testReloadsModifiedFile() throws IOException {
+		ReferenceDataRegistry registry = ReferenceDataRegistry.getRegistry();
+		ReferenceDataRegistry.Handle<String> before = registry.acquire(KIND, file.getPath(), loader);
+		assertTrue(file.setLastModified(file.lastModified() - 10000));
+		ReferenceDataRegistry.Handle<String> after = registry.acquire(KIND, file.getPath(), loader);
+		assertEquals("dataset 1", before.get());
+		assertEquals("dataset 2", after.get());
+		before.release();
+		after.release();
+		registry.evictUnused();
+		assertEquals(-1, registry.getReferences(KIND, file.getPath()));
+	}
+
+	@Test
+	public void testRetriesFailedLoad() throws IOException {
+		ReferenceDataRegistry registry = ReferenceDataRegistry.getRegistry();
+		try {
+			registry.acquire(KIND, file.getPath(), new ReferenceDataRegistry.Loader<String, RuntimeException>() {
+				public String load(String path) throws IOException {
+					throw new IOException("corrupt");
+				}
+			});
+			fail("Loading should have failed");
+		} catch (IOException expected) {
+		}
+		assertEquals(0, registry.getReferences(KIND, file.getPath()));
+		assertEquals("dataset 1", registry.acquire(KIND, file.getPath(), loader).get());
+	}
+}
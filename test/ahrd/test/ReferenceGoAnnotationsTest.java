@@ -3,6 +3,7 @@ package ahrd.test;
 import static ahrd.controller.Settings.getSettings;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -22,6 +23,8 @@ import ahrd.exception.MissingAccessionException;
 import ahrd.exception.MissingInterproResultException;
 import ahrd.exception.MissingProteinException;
 import ahrd.model.Protein;
+import ahrd.model.ReferenceDataRegistry;
+import ahrd.model.ReferenceGoAnnotations;
 
 public class ReferenceGoAnnotationsTest {
 
@@ -89,4 +92,34 @@ public class ReferenceGoAnnotationsTest {
 		assertTrue(p.getGoResults().contains("GO:0006355"));
 		assertTrue(p.getGoResults().contains("GO:0043401"));
 	}
+
+	@Test
+	public void testSharesReferenceGoAnnotations() throws Exception {
+		getSettings().setShareReferenceData(true);
+		ahrd.setup(false);
+		AHRD other = new AHRD(
+				"./test/resources/ahrd_input_seq_sim_table_go_prediction.yml");
+		getSettings().setShareReferenceData(true);
+		other.setup(false);
+		// Parsed once and shared, including the annotations of proteins
+		// without Hits:
+		assertSame(ahrd.getReferenceGoAnnotations(),
+				other.getReferenceGoAnnotations());
+		assertTrue(ahrd.getReferenceGoAnnotations().size() > 4);
+		String kind = ReferenceGoAnnotations.REFERENCE_GO_ANNOTATIONS_KIND
+				+ " " + getSettings().getReferenceGoRegex().pattern();
+		String path = getSettings().getPathToGeneOntologyResults();
+		assertEquals(2, ReferenceDataRegistry.getRegistry().getReferences(kind, path));
+		// The same GO terms are annotated:
+		other.assignHumanReadableDescriptions();
+		Protein p = other.getProteins().get("gene:chr01.1056:mRNA:chr01.1056");
+		assertEquals(2, p.getGoResults().size());
+		assertTrue(p.getGoResults().contains("GO:0006355"));
+		assertTrue(p.getGoResults().contains("GO:0043401"));
+		ahrd.releaseReferenceData();
+		other.releaseReferenceData();
+		assertEquals(0, ReferenceDataRegistry.getRegistry().getReferences(kind, path));
+		ReferenceDataRegistry.getRegistry().evictUnused();
+		assertEquals(-1, ReferenceDataRegistry.getRegistry().getReferences(kind, path));
+	}
 }
@@ -0,0 +1,177 @@
+package ahrd.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import ahrd.controller.AHRD;
+import ahrd.model.BlastResult;
+import ahrd.model.Protein;
+import ahrd.model.ScoringKernel;
+import ahrd.model.TokenDictionary;
+import ahrd.model.TokenSet;
+
+public class ScoringKernelTest {
+
+	public ScoringKernelTest() {
+		super();
+	}
+
+	@Test
+	public void testKernelMatchesCalculators() throws Exception {
+		assertKernelMatchesCalculators(false);
+	}
+
+	@Test
+	public void testKernelMatchesCalculatorsPreferringGoAnnotations() throws Exception {
+		assertKernelMatchesCalculators(true);
+	}
+
+	@Test
+	public void testScoresDoNotDependOnTokenIds() throws Exception {
+		TestUtils.initTestSettings();
+		// Tokens not seen before, of two vocabularies sorted alike:
+		String stem = "tokenorder" + Long.toString(System.nanoTime(), 36);
+		List<String> words = new ArrayList<String>();
+		for (char c = 'c'; c <= 'p'; c++)
+			words.add(stem + c);
+		List<String> ascending = new ArrayList<String>();
+		List<String> descending = new ArrayList<String>();
+		for (String word : words) {
+			ascending.add("a" + word);
+			descending.add("b" + word);
+		}
+		// The first vocabulary's IDs ascend with the Tokens, the second's
+		// descend:
+		for (String token : ascending)
+			TokenDictionary.id(token);
+		for (int i = descending.size() - 1; i >= 0; i--)
+			TokenDictionary.id(descending.get(i));
+		Protein a = scoredProtein(ascending);
+		Protein b = scoredProtein(descending);
+		List<BlastResult> aBrs = a.getBlastResults().get("swissprot");
+		List<BlastResult> bBrs = b.getBlastResults().get("swissprot");
+		for (int i = 0; i < aBrs.size(); i++) {
+			// Double.equals compares the bits:
+			assertEquals(aBrs.get(i).getDescriptionScore(), bBrs.get(i).getDescriptionScore());
+			assertEquals((Double) a.getTokenScoreCalculator().sumOfAllTokenScores(aBrs.get(i)),
+					(Double) b.getTokenScoreCalculator().sumOfAllTokenScores(bBrs.get(i)));
+		}
+	}
+
+	/**
+	 * @param vocabulary
+	 * @return Protein - Scored by the ScoringKernel, its BlastResults having
+	 *         overlapping subsets of the argument Tokens.
+	 */
+	private Protein scoredProtein(List<String> vocabulary) {
+		Protein prot = new Protein("query", 300);
+		List<BlastResult> brs = new ArrayList<BlastResult>();
+		for (int i = 0; i < 12; i++) {
+			List<String> tokens = new ArrayList<String>();
+			for (int j = 0; j < vocabulary.size(); j++) {
+				if ((i * 7 + j * 3) % 5 != 0)
+					tokens.add(vocabulary.get(j));
+			}
+			// Shuffled, so that the order of insertion does not matter either:
+			Collections.shuffle(tokens);
+			BlastResult br = new BlastResult("hit_" + i, 1e-10 * (i + 1), "description", 1 + 3 * i, 250 - 7 * i,
+					1 + i, 200 + 11 * i, 320, 57.3 + 13.7 * i * i / 3.0, "swissprot");
+			br.setTokens(new TokenSet(tokens));
+			brs.add(br);
+		}
+		Map<String, List<BlastResult>> blastResults = new HashMap<String, List<BlastResult>>();
+		blastResults.put("swissprot", brs);
+		prot.setBlastResults(blastResults);
+		for (BlastResult br : brs) {
+			prot.getTokenScoreCalculator().measureScores(br);
+			prot.getDescriptionScoreCalculator().measureMaxBitScore(br.getBitScore());
+		}
+		new ScoringKernel(prot).score(null);
+		return prot;
+	}
+
+	/**
+	 * Scores the test Proteins once with the separate calculators and once
+	 * with the ScoringKernel and asserts all resulting scores to be identical
+	 * down to the last bit.
+	 */
+	private void assertKernelMatchesCalculators(boolean preferGoAnnotated) throws Exception {
+		AHRD expected = new AHRD("./test/resources/ahrd_input.yml");
+		expected.setup(false);
+		AHRD actual = new AHRD("./test/resources/ahrd_input.yml");
+		actual.setup(false);
+		// Each run's Proteins read their own run's Settings:
+		for (AHRD run : Arrays.asList(expected, actual))
+			run.getProteins().values().iterator().next().getSettings()
+					.setPreferReferenceWithGoAnnos(preferGoAnnotated);
+		Map<String, Set<String>> referenceGoAnnotations = null;
+		if (preferGoAnnotated) {
+			// Annotate every third Hit with a GO term:
+			referenceGoAnnotations = new HashMap<String, Set<String>>();
+			int i = 0;
+			for (Protein prot : expected.getProteins().values()) {
+				for (List<BlastResult> brs : prot.getBlastResults().values()) {
+					for (BlastResult br : brs) {
+						if (i++ % 3 == 0)
+							referenceGoAnnotations.put(br.getShortAccession(),
+									new HashSet<String>(Arrays.asList("GO:0005575")));
+					}
+				}
+			}
+		}
+		int noCandidates = 0;
+		int noPatterns = 0;
+		for (String accession : expected.getProteins().keySet()) {
+			Protein e = expected.getProteins().get(accession);
+			Protein a = actual.getProteins().get(accession);
+			expected.filterBestScoringBlastResults(e);
+			e.getTokenScoreCalculator().assignTokenScores();
+			e.getTokenScoreCalculator().filterTokenScores();
+			e.getDescriptionScoreCalculator().findHighestScoringBlastResult(referenceGoAnnotations);
+			actual.filterBestScoringBlastResults(a);
+			ScoringKernel kernel = new ScoringKernel(a);
+			kernel.score(referenceGoAnnotations);
+			noPatterns += kernel.getNumberOfPatterns();
+
+			assertEquals(e.getTokenScoreCalculator().getTokenHighScore(),
+					a.getTokenScoreCalculator().getTokenHighScore(), 0.0);
+			assertEquals(e.getTokenScoreCalculator().getTokenScores(), a.getTokenScoreCalculator().getTokenScores());
+			List<Double> eScores = new ArrayList<Double>();
+			List<Double> aScores = new ArrayList<Double>();
+			for (String blastDb : e.getBlastResults().keySet()) {
+				for (BlastResult br : e.getBlastResults().get(blastDb))
+					eScores.add(br.getDescriptionScore());
+				for (BlastResult br : a.getBlastResults().get(blastDb))
+					aScores.add(br.getDescriptionScore());
+			}
+			assertTrue(eScores.size() > 0);
+			noCandidates += aScores.size();
+			// Double.equals compares the bits:
+			assertEquals(eScores, aScores);
+			assertEquals(e.getDescriptionScoreCalculator().getDescriptionHighScore(),
+					a.getDescriptionScoreCalculator().getDescriptionHighScore());
+			BlastResult eBest = e.getDescriptionScoreCalculator().getHighestScoringBlastResult();
+			BlastResult aBest = a.getDescriptionScoreCalculator().getHighestScoringBlastResult();
+			assertEquals(eBest == null, aBest == null);
+			if (eBest != null) {
+				assertEquals(eBest.getAccession(), aBest.getAccession());
+				assertSame(eBest, e.getBlastResults().get(eBest.getBlastDatabaseName())
+						.get(a.getBlastResults().get(aBest.getBlastDatabaseName()).indexOf(aBest)));
+			}
+		}
+		// Candidates sharing their Tokens are scored once:
+		assertTrue(noPatterns < noCandidates);
+	}
+}
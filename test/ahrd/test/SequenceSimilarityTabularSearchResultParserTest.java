@@ -1,10 +1,29 @@
 package ahrd.test;
 
+import static ahrd.controller.Settings.getSettings;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import ahrd.controller.Settings;
+import ahrd.exception.MissingProteinException;
+import ahrd.model.BlastResult;
+import ahrd.model.Protein;
+import ahrd.model.SequenceSimilarityTabularSearchResultParser;
+
 public class SequenceSimilarityTabularSearchResultParserTest {
 
 	public SequenceSimilarityTabularSearchResultParserTest() {
@@ -15,10 +34,209 @@ public class SequenceSimilarityTabularSearchResultParserTest {
 	public void setup() throws IOException {
 		TestUtils.initTestSettings();
 	}
-	
+
+	/**
+	 * Parses the argument table once scanning bytes for a literal tab and once
+	 * splitting lines with the equivalent regular expression '\t'. Both results
+	 * must be identical.
+	 */
+	private void assertParsersAgree(String blastDbName) throws IOException, MissingProteinException {
+		Map<String, Protein> protDb = TestUtils.mockProteinDb();
+		Set<String> uniqueShortAccessions = new HashSet<String>();
+		SequenceSimilarityTabularSearchResultParser parser = new SequenceSimilarityTabularSearchResultParser(protDb,
+				blastDbName);
+		assertTrue(parser.isLiteralSingleByteSeparator());
+		Map<String, List<BlastResult>> brs = parser.parse(uniqueShortAccessions);
+
+		getSettings().setSeqSimSearchTableSep("\\t");
+		SequenceSimilarityTabularSearchResultParser regexParser = new SequenceSimilarityTabularSearchResultParser(
+				protDb, blastDbName);
+		assertFalse(regexParser.isLiteralSingleByteSeparator());
+		Map<String, List<BlastResult>> expected = regexParser.parse(new HashSet<String>());
+		getSettings().setSeqSimSearchTableSep("\t");
+
+		assertSameBlastResults(blastDbName, expected, brs);
+	}
+
+	private static void assertSameBlastResults(String blastDbName, Map<String, List<BlastResult>> expected,
+			Map<String, List<BlastResult>> brs) {
+		assertEquals(expected.keySet(), brs.keySet());
+		for (String acc : expected.keySet()) {
+			List<BlastResult> expectedHits = expected.get(acc);
+			List<BlastResult> hits = brs.get(acc);
+			assertEquals(expectedHits.size(), hits.size());
+			for (int i = 0; i < hits.size(); i++) {
+				BlastResult e = expectedHits.get(i);
+				BlastResult b = hits.get(i);
+				assertEquals(e.getAccession(), b.getAccession());
+				assertTrue(e.getProtein() == b.getProtein());
+				assertEquals(e.getEValue(), b.getEValue());
+				assertEquals(e.getBitScore(), b.getBitScore());
+				assertEquals(e.getQueryStart(), b.getQueryStart());
+				assertEquals(e.getQueryEnd(), b.getQueryEnd());
+				assertEquals(e.getSubjectStart(), b.getSubjectStart());
+				assertEquals(e.getSubjectEnd(), b.getSubjectEnd());
+				assertEquals(blastDbName, b.getBlastDatabaseName());
+			}
+		}
+	}
+
+	@Test
+	public void testParsesSwissprotTable() throws IOException, MissingProteinException {
+		assertParsersAgree("swissprot");
+	}
+
+	@Test
+	public void testParsesTairTable() throws IOException, MissingProteinException {
+		assertParsersAgree("tair");
+	}
+
+	@Test
+	public void testParsesTremblTable() throws IOException, MissingProteinException {
+		// Note: The trEMBL table contains bit-scores with leading blanks.
+		assertParsersAgree("trembl");
+	}
+
+	@Test
+	public void testParsesCompressedTables() throws IOException, MissingProteinException {
+		for (String blastDbName : new String[] { "swissprot", "tair", "trembl" }) {
+			Map<String, Protein> protDb = TestUtils.mockProteinDb();
+			String path = getSettings().getPathToBlastResults(blastDbName);
+			Map<String, List<BlastResult>> expected = new SequenceSimilarityTabularSearchResultParser(protDb,
+					blastDbName).parse(new HashSet<String>());
+			File gz = File.createTempFile(blastDbName, ".gz");
+			File bgz = File.createTempFile(blastDbName, ".bgz");
+			try {
+				TestUtils.gzip(path, gz);
+				TestUtils.bgzip(path, bgz, 4096);
+				for (File compressed : new File[] { gz, bgz }) {
+					getSettings().getBlastDbSettings().get(blastDbName).put(Settings.BLAST_RESULT_FILE_KEY,
+							compressed.getPath());
+					assertSameBlastResults(blastDbName, expected, new SequenceSimilarityTabularSearchResultParser(
+							protDb, blastDbName).parse(new HashSet<String>()));
+				}
+			} finally {
+				getSettings().getBlastDbSettings().get(blastDbName).put(Settings.BLAST_RESULT_FILE_KEY, path);
+				gz.delete();
+				bgz.delete();
+			}
+		}
+	}
+
+	@Test
+	public void testParsesChunksInParallel() throws IOException, MissingProteinException {
+		getSettings().setNumberOfThreads(4);
+		for (String blastDbName : new String[] { "swissprot", "tair", "trembl" }) {
+			Map<String, Protein> protDb = TestUtils.mockProteinDb();
+			SequenceSimilarityTabularSearchResultParser parser = new SequenceSimilarityTabularSearchResultParser(
+					protDb, blastDbName);
+			Map<String, List<BlastResult>> expected = parser.parse(new HashSet<String>(), 1);
+			for (int numberOfChunks : new int[] { 2, 7, 50, 100000 }) {
+				Map<String, List<BlastResult>> brs = parser.parse(new HashSet<String>(), numberOfChunks);
+				assertEquals(expected.keySet(), brs.keySet());
+				for (String acc : expected.keySet()) {
+					List<BlastResult> expectedHits = expected.get(acc);
+					List<BlastResult> hits = brs.get(acc);
+					assertEquals(expectedHits.size(), hits.size());
+					for (int i = 0; i < hits.size(); i++) {
+						BlastResult e = expectedHits.get(i);
+						BlastResult b = hits.get(i);
+						assertTrue(e.getProtein() == b.getProtein());
+						assertEquals(e.getEValue(), b.getEValue());
+						assertEquals(e.getBitScore(), b.getBitScore());
+						assertEquals(e.getQueryStart(), b.getQueryStart());
+						assertEquals(e.getSubjectEnd(), b.getSubjectEnd());
+					}
+				}
+			}
+		}
+	}
+
 	@Test
-	public void testParsesSwissprotTable() {
-		assert(true);
+	public void testParsesChunksOnTheInvokingForkJoinPool() throws Exception {
+		final Settings settings = getSettings();
+		Map<String, Protein> protDb = TestUtils.mockProteinDb();
+		final SequenceSimilarityTabularSearchResultParser parser = new SequenceSimilarityTabularSearchResultParser(
+				protDb, "trembl");
+		Map<String, List<BlastResult>> expected = parser.parse(new HashSet<String>(), 1);
+		// The chunks are forked into the pool parsing the table, instead of
+		// a pool of their own:
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			Map<String, List<BlastResult>> brs = pool.submit(new Callable<Map<String, List<BlastResult>>>() {
+				@Override
+				public Map<String, List<BlastResult>> call() throws Exception {
+					Settings.setSettings(settings);
+					return parser.parse(new HashSet<String>(), 7);
+				}
+			}).get();
+			assertEquals(expected.keySet(), brs.keySet());
+			for (String acc : expected.keySet()) {
+				assertEquals(expected.get(acc).size(), brs.get(acc).size());
+				for (int i = 0; i < brs.get(acc).size(); i++)
+					assertEquals(expected.get(acc).get(i).getEValue(), brs.get(acc).get(i).getEValue());
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test(expected = MissingProteinException.class)
+	public void testParallelParsingFailsOnUnknownQueryProtein() throws IOException, MissingProteinException {
+		Map<String, Protein> protDb = TestUtils.mockProteinDb();
+		protDb.remove("gene:chr01.502:mRNA:chr01.502");
+		new SequenceSimilarityTabularSearchResultParser(protDb, "trembl").parse(new HashSet<String>(), 8);
+	}
+
+	@Test(expected = MissingProteinException.class)
+	public void testFailsOnUnknownQueryProtein() throws IOException, MissingProteinException {
+		Map<String, Protein> protDb = TestUtils.mockProteinDb();
+		protDb.remove("gene:chr01.502:mRNA:chr01.502");
+		new SequenceSimilarityTabularSearchResultParser(protDb, "swissprot").parse(new HashSet<String>());
+	}
+
+	private static double parseDouble(String str) {
+		ByteBuffer buffer = ByteBuffer.wrap(str.getBytes());
+		return SequenceSimilarityTabularSearchResultParser.parseDouble(buffer, 0, buffer.limit());
+	}
+
+	private static int parseInt(String str) {
+		ByteBuffer buffer = ByteBuffer.wrap(str.getBytes());
+		return SequenceSimilarityTabularSearchResultParser.parseInt(buffer, 0, buffer.limit());
+	}
+
+	@Test
+	public void testParseDouble() {
+		String[] values = { "0", "0.0", "-0.0", "163", " 163", "163.5 ", "5e-38", "3E-36", "1.2e+5", "0.001",
+				"123456789012345", "1234567890123456789", "0.1234567890123456789", "2.2250738585072014E-308", "1e308",
+				"4.9e-324", "-17.25", "+8.5", "1e22", "1e23", "0.000000000000000000000001", "Infinity", "NaN" };
+		for (String value : values) {
+			assertEquals(value, Double.parseDouble(BlastResult.validateDouble(value.trim())), parseDouble(value), 0.0);
+			assertEquals(value, Double.doubleToLongBits(Double.parseDouble(BlastResult.validateDouble(value.trim()))),
+					Double.doubleToLongBits(parseDouble(value)));
+		}
+		// A missing mantissa is interpreted as one:
+		assertEquals(1e-10, parseDouble("e-10"), 0.0);
+		assertEquals(1e-10, parseDouble("E-10"), 0.0);
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testParseDoubleRejectsGarbage() {
+		parseDouble("12x");
+	}
+
+	@Test
+	public void testParseInt() {
+		assertEquals(0, parseInt("0"));
+		assertEquals(105, parseInt("105"));
+		assertEquals(105, parseInt(" 105\r"));
+		assertEquals(-7, parseInt("-7"));
+		assertEquals(Integer.MAX_VALUE, parseInt("2147483647"));
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testParseIntRejectsGarbage() {
+		parseInt("1.5");
 	}
 
 }
@@ -3,6 +3,7 @@ package ahrd.test;
 import static ahrd.controller.Settings.getSettings;
 import static ahrd.controller.Settings.setSettings;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -159,4 +160,26 @@ public class SettingsTest {
 				"Path through Parameter-Space should be remembered, but flag is set to FALSE.",
 				getSettings().rememberSimulatedAnnealingPath());
 	}
+
+	@Test
+	public void testGetFastaHeaderAccessionDelimiter() {
+		assertTrue(Settings.isAccessionFirstWordOfFastaHeader(Settings.DEFAULT_FASTA_HEADER_REGEX));
+		// The TAIR regular expression:
+		assertTrue(Settings.isAccessionFirstWordOfFastaHeader(getSettings().getFastaHeaderRegex("tair")));
+		assertFalse(Settings.isAccessionFirstWordOfFastaHeader(
+				Pattern.compile("^>(?<accession>[^\\s]+)\\s+(?<description>.+)$")));
+		assertFalse(Settings.isAccessionFirstWordOfFastaHeader(
+				Pattern.compile("^>(?<accession>.+?)\\s+(?<description>.+)$")));
+		assertFalse(Settings.isAccessionFirstWordOfFastaHeader(
+				Pattern.compile("^>\\S+\\|(?<accession>\\S+)\\s+(?<description>.+)$")));
+		assertFalse(Settings.isAccessionFirstWordOfFastaHeader(
+				Pattern.compile("^>(?<accession>\\S+)\\|(?<description>.+)$")));
+		assertEquals(Settings.DEFAULT_FASTA_HEADER_ACCESSION_DELIMITER,
+				getSettings().getFastaHeaderAccessionDelimiter("tair"));
+		getSettings().getBlastDbSettings().get("tair").put(Settings.FASTA_HEADER_REGEX_KEY,
+				"^>(?<accession>.+?)\\s+(?<description>.+)$");
+		assertNull(getSettings().getFastaHeaderAccessionDelimiter("tair"));
+		getSettings().getBlastDbSettings().get("tair").put(Settings.FASTA_HEADER_ACCESSION_DELIMITER_KEY, "|");
+		assertEquals("|", getSettings().getFastaHeaderAccessionDelimiter("tair"));
+	}
 }
@@ -0,0 +1,131 @@
+package ahrd.test;
+
+import static ahrd.controller.Settings.getSettings;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ahrd.controller.Settings;
+import ahrd.controller.TaskGraph;
+
+public class TaskGraphTest {
+
+	private List<String> completed;
+
+	public TaskGraphTest() {
+		super();
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		TestUtils.initTestSettings();
+		completed = Collections.synchronizedList(new ArrayList<String>());
+	}
+
+	private TaskGraph.Task record(final String name) {
+		return new TaskGraph.Task() {
+			@Override
+			public void run() {
+				completed.add(name);
+			}
+		};
+	}
+
+	@Test
+	public void testRunsSequentiallyInOrderAdded() throws Exception {
+		TaskGraph graph = new TaskGraph();
+		graph.add("a", record("a"));
+		graph.add("b", record("b"), "a");
+		graph.add("c", record("c"));
+		graph.run(1);
+		assertEquals(Arrays.asList("a", "b", "c"), completed);
+		assertTrue(graph.getSeconds("c") >= 0.0);
+	}
+
+	@Test
+	public void testRunsIndependentTasksConcurrently() throws Exception {
+		final Settings settings = getSettings();
+		final CountDownLatch bothStarted = new CountDownLatch(2);
+		TaskGraph.Task awaitOther = new TaskGraph.Task() {
+			@Override
+			public void run() throws Exception {
+				// Tasks run with the Settings of the invoking thread:
+				assertSame(settings, getSettings());
+				bothStarted.countDown();
+				if (!bothStarted.await(10, TimeUnit.SECONDS))
+					throw new IOException("Independent tasks have not been run concurrently.");
+			}
+		};
+		TaskGraph graph = new TaskGraph();
+		graph.add("slow input", awaitOther);
+		graph.add("other input", awaitOther);
+		graph.add("depending on both", record("depending on both"), "slow input", "other input");
+		graph.run(2);
+		assertEquals(Arrays.asList("depending on both"), completed);
+	}
+
+	@Test
+	public void testRunsAtMostNumberOfThreadsTasksAtOnce() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		TaskGraph.Task count = new TaskGraph.Task() {
+			@Override
+			public void run() throws Exception {
+				int now = running.incrementAndGet();
+				int max;
+				while ((max = maxRunning.get()) < now && !maxRunning.compareAndSet(max, now))
+					;
+				Thread.sleep(20);
+				running.decrementAndGet();
+			}
+		};
+		TaskGraph graph = new TaskGraph();
+		for (int i = 0; i < 6; i++)
+			graph.add("input " + i, count);
+		// Waiting for its dependencies does not take up a thread:
+		graph.add("depending on all", record("depending on all"), "input 0", "input 1", "input 2", "input 3",
+				"input 4", "input 5");
+		graph.run(2);
+		assertTrue(maxRunning.get() <= 2);
+		assertEquals(Arrays.asList("depending on all"), completed);
+	}
+
+	@Test
+	public void testPassesOnFirstFailureAndSkipsDependents() throws Exception {
+		TaskGraph graph = new TaskGraph();
+		graph.add("failing", new TaskGraph.Task() {
+			@Override
+			public void run() throws Exception {
+				throw new IOException("corrupt input");
+			}
+		});
+		graph.add("dependent", record("dependent"), "failing");
+		try {
+			graph.run(2);
+			fail("The failure should have been passed on");
+		} catch (ExecutionException e) {
+			assertEquals("corrupt input", e.getCause().getMessage());
+		}
+		assertTrue(completed.isEmpty());
+		assertTrue(graph.getSeconds("dependent") < 0.0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsUnknownDependencies() {
+		new TaskGraph().add("a", record("a"), "not added before");
+	}
+}
@@ -2,7 +2,13 @@ package ahrd.test;
 
 import static ahrd.controller.Settings.setSettings;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -10,6 +16,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 import ahrd.controller.Settings;
 import ahrd.model.BlastResult;
@@ -196,4 +205,54 @@ public class TestUtils {
 		refGos.put("accession_4", new HashSet<String>(Arrays.asList("GO:1726354", "GO:7162534")));
 		return refGos;
 	}
+
+	/**
+	 * Compresses the argument file with gzip.
+	 */
+	public static void gzip(String path, File target) throws IOException {
+		byte[] content = Files.readAllBytes(new File(path).toPath());
+		GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(target));
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Compresses the argument file in BGZF format, as bgzip does, using blocks
+	 * of the argument uncompressed size. The last block is the empty BGZF end
+	 * of file marker.
+	 */
+	public static void bgzip(String path, File target, int blockSize) throws IOException {
+		byte[] content = Files.readAllBytes(new File(path).toPath());
+		OutputStream out = new FileOutputStream(target);
+		try {
+			for (int start = 0; start < content.length; start += blockSize)
+				writeBgzfBlock(out, content, start, Math.min(content.length, start + blockSize));
+			writeBgzfBlock(out, content, 0, 0);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeBgzfBlock(OutputStream out, byte[] content, int start, int end) throws IOException {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(content, start, end - start);
+		deflater.finish();
+		byte[] data = new byte[end - start + 1024];
+		int dataLength = 0;
+		while (!deflater.finished())
+			dataLength += deflater.deflate(data, dataLength, data.length - dataLength);
+		deflater.end();
+		CRC32 crc = new CRC32();
+		crc.update(content, start, end - start);
+		ByteBuffer block = ByteBuffer.allocate(18 + dataLength + 8).order(ByteOrder.LITTLE_ENDIAN);
+		block.put(new byte[] { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0 });
+		block.putShort((short) (block.capacity() - 1));
+		block.put(data, 0, dataLength);
+		block.putInt((int) crc.getValue());
+		block.putInt(end - start);
+		out.write(block.array());
+	}
 }
@@ -2,21 +2,28 @@ package ahrd.test;
 
 import static org.junit.Assert.fail;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static ahrd.controller.Settings.getSettings;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import ahrd.model.Blacklist;
 import ahrd.model.BlastResult;
 import ahrd.model.Protein;
+import ahrd.model.TokenDictionary;
 import ahrd.model.TokenScoreCalculator;
+import ahrd.model.TokenScoreTable;
 
 public class TokenScoreCalculatorTest {
 
@@ -44,6 +51,22 @@ public class TokenScoreCalculatorTest {
 		br3.getTokens().add("token_three");
 	}
 
+	@Test
+	public void testEmptyScoreTable() {
+		Protein p = TestUtils.mockProtein();
+		// No scores yet:
+		assertTrue(p.getTokenScoreCalculator().getTokenScores().isEmpty());
+		assertNull(p.getTokenScoreCalculator().getTokenScores().get("sonnenblume"));
+		assertTrue(!p.getTokenScoreCalculator().getCumulativeTokenBitScores().containsKey("sonnenblume"));
+		TokenScoreTable table = new TokenScoreTable();
+		assertEquals(-1, table.slot(TokenDictionary.id("sonnenblume")));
+		// The first Token allocates the table:
+		int slot = table.slotFor(TokenDictionary.id("sonnenblume"));
+		table.add(TokenScoreTable.TOKEN_SCORE, slot, 0.5);
+		assertEquals(slot, table.slot(TokenDictionary.id("sonnenblume")));
+		assertEquals(0.5, table.column(TokenScoreTable.TOKEN_SCORE).get("sonnenblume"), 0.0);
+	}
+
 	@Test
 	public void testOverlapScore() {
 		double subjectEnd = 100;
@@ -251,4 +274,58 @@ public class TokenScoreCalculatorTest {
 			fail("Validation of the three weights in the formula Token-Score failed. It is too restrictive, a delta of 0.001 has to be excepted.");
 		}
 	}
+
+	@Test
+	public void testTokenPassesCompiledBlacklist() {
+		List<String> blacklist = new ArrayList<String>(getSettings().getTokenBlackList("swissprot"));
+		// Literal entries sharing prefixes and suffixes:
+		blacklist.add("kinase");
+		blacklist.add("ase");
+		blacklist.add("domain-like");
+		Blacklist compiled = new Blacklist(blacklist);
+		for (String token : new String[] { "protein", "proteins", "kinase", "phosphatase", "synthase", "domain",
+				"domain-like", "like", "orf12", "dicer", "1", "similar", "dissimilar", "tair", "" }) {
+			boolean expected = !token.equals("");
+			for (String regex : blacklist) {
+				expected = expected && !Pattern.compile(regex).matcher(token).find();
+			}
+			assertEquals(token, expected, TokenScoreCalculator.tokenPassesBlacklist(token, compiled));
+		}
+		assertTrue(TokenScoreCalculator.tokenPassesBlacklist("protein", Blacklist.EMPTY));
+	}
+
+	@Test
+	public void testTokenizeSplitsLikeTokenSplitterRegex() {
+		for (String description : new String[] { "one tWo Three protein homolog putative", "Flavohemoprotein-1",
+				"  Leading and trailing  ", "a/b;c\\d,e:f\"g'h.i|j(k)l", "tab\tnew\nline\u000Bvt\fff\rcr",
+				"\u00dcmlaut \u00c4NDERUNG stra\u00dfe", "ABC-transporter (ATP binding), subunit 1.2", "--", "" }) {
+			Set<String> expected = new HashSet<String>();
+			for (String tokenCandidate : description.split(BlastResult.TOKEN_SPLITTER_REGEX)) {
+				if (!tokenCandidate.equals(""))
+					expected.add(tokenCandidate.toLowerCase());
+			}
+			assertEquals(description, expected, TokenScoreCalculator.tokenize(description, Blacklist.EMPTY));
+		}
+	}
+
+	@Test
+	public void testCumulativeScoresOfManyTokens() {
+		Protein p = TestUtils.mockProtein();
+		TokenScoreCalculator tsc = p.getTokenScoreCalculator();
+		Map<String, Double> expected = new HashMap<String, Double>();
+		for (int i = 0; i < 1000; i++) {
+			String token = "token_" + (i % 250);
+			tsc.addCumulativeTokenBitScore(token, i);
+			Double sum = expected.get(token);
+			expected.put(token, (sum == null) ? i : sum + i);
+		}
+		assertEquals(250, tsc.getCumulativeTokenBitScores().size());
+		assertEquals(expected, tsc.getCumulativeTokenBitScores());
+		assertEquals(0, tsc.getCumulativeTokenOverlapScores().size());
+		assertTrue(!tsc.getCumulativeTokenOverlapScores().containsKey("token_1"));
+		// Setting replaces all scores:
+		tsc.setCumulativeTokenBitScores(new HashMap<String, Double>());
+		assertTrue(tsc.getCumulativeTokenBitScores().isEmpty());
+		assertTrue(tsc.getCumulativeTokenBitScores().get("token_1") == null);
+	}
 }
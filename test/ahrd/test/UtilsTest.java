@@ -3,8 +3,12 @@ package ahrd.test;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -81,4 +85,51 @@ public class UtilsTest {
 		}
 	}
 
+
+	@Test
+	public void testReadCompressedFiles() throws IOException {
+		String path = "./test/resources/tair_blast8_tabular.txt";
+		String expected = Utils.readFile(path);
+		File gz = File.createTempFile("tair_blast8_tabular", ".txt.gz");
+		File bgz = File.createTempFile("tair_blast8_tabular", ".txt.bgz");
+		try {
+			assertEquals(Utils.Compression.NONE, Utils.detectCompression(path));
+			TestUtils.gzip(path, gz);
+			assertEquals(Utils.Compression.GZIP, Utils.detectCompression(gz.getPath()));
+			assertEquals(expected, Utils.readFile(gz.getPath()));
+			// Many small blocks, inflated in parallel, must be returned in
+			// order:
+			TestUtils.bgzip(path, bgz, 1000);
+			assertEquals(Utils.Compression.BGZF, Utils.detectCompression(bgz.getPath()));
+			assertEquals(expected, Utils.readFile(bgz.getPath()));
+			assertEquals(expected, Utils.readFile(bgz.getPath(), 4));
+			BufferedReader reader = Utils.openReader(bgz.getPath(), 4);
+			try {
+				List<String> lines = new ArrayList<String>();
+				String line;
+				while ((line = reader.readLine()) != null)
+					lines.add(line);
+				assertEquals(Arrays.asList(expected.split("\\r?\\n")), lines);
+			} finally {
+				reader.close();
+			}
+		} finally {
+			gz.delete();
+			bgz.delete();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testZstandardIsRejected() throws IOException {
+		File zst = File.createTempFile("input", ".zst");
+		try {
+			FileOutputStream out = new FileOutputStream(zst);
+			out.write(new byte[] { 0x28, (byte) 0xb5, 0x2f, (byte) 0xfd, 0, 0, 0, 0 });
+			out.close();
+			assertEquals(Utils.Compression.ZSTD, Utils.detectCompression(zst.getPath()));
+			Utils.openInputStream(zst.getPath(), 1);
+		} finally {
+			zst.delete();
+		}
+	}
 }